@@ -0,0 +1,85 @@
+package com.jradek.camera;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per frame camera work. Every benchmark changes the camera a little, so
+ * the updates can not be skipped.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CameraBenchmark {
+    private FreeCamera mFreeCamera;
+    private TargetCamera mTargetCamera;
+
+    private final vec3 mVector = new vec3(1, 0, 0);
+    private final float[] mRotation = new float[16];
+    private float mAspectRatio = 1.5f;
+
+    @Setup
+    public void setup() {
+        mFreeCamera = new FreeCamera(new vec3(0, 0, 5), new vec3(0, 0, -1), new vec3(0, 1, 0));
+        mFreeCamera.setupProjection(75.0f, mAspectRatio);
+
+        mTargetCamera = new TargetCamera(new vec3(3, 4, 5), new vec3(0, 0, 0));
+        mTargetCamera.setupProjection(75.0f, mAspectRatio);
+
+        // rotation by 1 degree around y
+        final double angle = Math.toRadians(1.0);
+        Matrix4f.setIdentity(mRotation, 0);
+        mRotation[0] = (float) Math.cos(angle);
+        mRotation[2] = (float) -Math.sin(angle);
+        mRotation[8] = (float) Math.sin(angle);
+        mRotation[10] = (float) Math.cos(angle);
+    }
+
+    @Benchmark
+    public float[] freeCameraUpdate() {
+        mFreeCamera.walk(0.001f);
+        mFreeCamera.rotate(0.01f, 0.02f, 0.03f);
+        mFreeCamera.update();
+        return mFreeCamera.getViewMatrix();
+    }
+
+    @Benchmark
+    public float[] targetCameraUpdate() {
+        mTargetCamera.rotate(0.01f, 0.001f);
+        mTargetCamera.update();
+        return mTargetCamera.getViewMatrix();
+    }
+
+    @Benchmark
+    public vec3 rotateVector() {
+        mFreeCamera.rotateVector(mVector, mRotation);
+        return mVector;
+    }
+
+    @Benchmark
+    public float[] setupProjection() {
+        mAspectRatio = 3.0f - mAspectRatio;
+        mFreeCamera.setupProjection(75.0f, mAspectRatio);
+        return mFreeCamera.getProjectionMatrix();
+    }
+
+    @Benchmark
+    public float[] viewProjection() {
+        mFreeCamera.walk(0.001f);
+        mFreeCamera.update();
+        return mFreeCamera.getViewProjectionMatrix();
+    }
+}
@@ -0,0 +1,38 @@
+package com.jradek.camera;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Vertex and index generation of the checker board.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CheckerBoardBenchmark {
+    @Param({ "10", "100" })
+    public int numTilesPerSide;
+
+    @Benchmark
+    public float[] createVertices() {
+        return CheckerBoardGeometry.createVertices(numTilesPerSide, 1.0f);
+    }
+
+    @Benchmark
+    public int[] createIndices() {
+        return CheckerBoardGeometry.createIndices(numTilesPerSide);
+    }
+}
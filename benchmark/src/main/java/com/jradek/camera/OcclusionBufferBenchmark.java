@@ -0,0 +1,90 @@
+package com.jradek.camera;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rasterizing occluders and testing boxes against the occlusion buffer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OcclusionBufferBenchmark {
+    static final int NUM_BOXES = 1000;
+
+    @Param({ "64", "1024" })
+    public int numTriangles;
+
+    private final OcclusionBuffer mBuffer = new OcclusionBuffer(256, 128);
+    private final float[] mViewProjection = new float[16];
+    private float[] mTriangles;
+    private final float[] mBoxes = new float[NUM_BOXES * 6];
+
+    @Setup
+    public void setup() {
+        Matrix4f.setPerspective(mViewProjection, 0, 60.0f, 1.5f, Camera.NEAR_PLANE, Camera.FAR_PLANE);
+
+        // small triangles spread in front of the camera, like the parts of a scene
+        final Random random = new Random(42);
+        mTriangles = new float[numTriangles * 9];
+        for (int t = 0; t < numTriangles; ++t) {
+            final float x = random.nextFloat() * 20 - 10;
+            final float y = random.nextFloat() * 10 - 5;
+            final float z = -2 - random.nextFloat() * 20;
+            for (int k = 0; k < 3; ++k) {
+                final int o = (t * 3 + k) * 3;
+                mTriangles[o] = x + random.nextFloat() * 2 - 1;
+                mTriangles[o + 1] = y + random.nextFloat() * 2 - 1;
+                mTriangles[o + 2] = z;
+            }
+        }
+        for (int b = 0; b < NUM_BOXES; ++b) {
+            final float x = random.nextFloat() * 20 - 10;
+            final float y = random.nextFloat() * 10 - 5;
+            final float z = -5 - random.nextFloat() * 30;
+            final int o = b * 6;
+            mBoxes[o] = x;
+            mBoxes[o + 1] = y;
+            mBoxes[o + 2] = z;
+            mBoxes[o + 3] = x + 1;
+            mBoxes[o + 4] = y + 1;
+            mBoxes[o + 5] = z + 1;
+        }
+        rasterize();
+    }
+
+    @Benchmark
+    public OcclusionBuffer rasterize() {
+        mBuffer.begin(mViewProjection, 0);
+        mBuffer.addTriangles(mTriangles, 0, numTriangles, 0, 0, 0);
+        mBuffer.rasterize();
+        return mBuffer;
+    }
+
+    @Benchmark
+    public int testBoxes() {
+        int visible = 0;
+        for (int o = 0; o < NUM_BOXES * 6; o += 6) {
+            if (mBuffer.isVisible(mBoxes[o], mBoxes[o + 1], mBoxes[o + 2], mBoxes[o + 3], mBoxes[o + 4],
+                    mBoxes[o + 5])) {
+                ++visible;
+            }
+        }
+        return visible;
+    }
+}
@@ -0,0 +1,107 @@
+package com.jradek.camera;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Ray picking against a grid of triangles, with the bvh and with a loop
+ * over all triangles.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PickingBenchmark {
+    static final int NUM_RAYS = 100;
+
+    @Param({ "32", "128" })
+    public int gridSize;
+
+    private TriangleBvh mTriangles;
+    private final Ray[] mRays = new Ray[NUM_RAYS];
+
+    @Setup
+    public void setup() {
+        // a bumpy height field, 2 triangles per cell
+        final int n = gridSize + 1;
+        final Random random = new Random(42);
+        final float[] positions = new float[n * n * 3];
+        for (int y = 0; y < n; ++y) {
+            for (int x = 0; x < n; ++x) {
+                final int o = (y * n + x) * 3;
+                positions[o] = x;
+                positions[o + 1] = random.nextFloat();
+                positions[o + 2] = y;
+            }
+        }
+        final int[] indices = new int[gridSize * gridSize * 6];
+        int i = 0;
+        for (int y = 0; y < gridSize; ++y) {
+            for (int x = 0; x < gridSize; ++x) {
+                final int v = y * n + x;
+                indices[i++] = v;
+                indices[i++] = v + n;
+                indices[i++] = v + 1;
+                indices[i++] = v + 1;
+                indices[i++] = v + n;
+                indices[i++] = v + n + 1;
+            }
+        }
+        mTriangles = new TriangleBvh(positions, indices, 0, indices.length);
+
+        for (int r = 0; r < NUM_RAYS; ++r) {
+            mRays[r] = new Ray();
+        }
+    }
+
+    private void resetRays() {
+        for (int r = 0; r < NUM_RAYS; ++r) {
+            final float t = r / (float) NUM_RAYS;
+            mRays[r].set(gridSize * t, 10.0f, gridSize * (1.0f - t), 0.3f, -1.0f, 0.2f, 100.0f);
+        }
+    }
+
+    @Benchmark
+    public int bvh() {
+        resetRays();
+        int hits = 0;
+        for (int r = 0; r < NUM_RAYS; ++r) {
+            if (mTriangles.raycast(mRays[r]) >= 0) {
+                ++hits;
+            }
+        }
+        return hits;
+    }
+
+    @Benchmark
+    public int bruteForce() {
+        resetRays();
+        int hits = 0;
+        for (int r = 0; r < NUM_RAYS; ++r) {
+            int hit = -1;
+            for (int t = 0; t < mTriangles.getTriangleCount(); ++t) {
+                if (mTriangles.intersect(t, mRays[r])) {
+                    hit = t;
+                }
+            }
+            if (hit >= 0) {
+                ++hits;
+            }
+        }
+        return hits;
+    }
+}
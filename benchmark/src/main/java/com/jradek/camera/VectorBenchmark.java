@@ -0,0 +1,88 @@
+package com.jradek.camera;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * vec3, Vec3Array and Matrix4f operations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VectorBenchmark {
+    private vec3 mA;
+    private vec3 mB;
+
+    private Vec3Array mPoints;
+    private final float[] mMatrix = new float[16];
+    private final float[] mMatrix2 = new float[16];
+    private final float[] mResult = new float[16];
+
+    @Setup
+    public void setup() {
+        mA = new vec3(1, 2, 3);
+        mB = new vec3(-3, 0.5, 2);
+
+        mPoints = new Vec3Array(1024);
+        for (int i = 0; i < mPoints.size(); ++i) {
+            mPoints.set(i, i, -i, 0.5f * i);
+        }
+
+        for (int i = 0; i < 16; ++i) {
+            mMatrix[i] = i * 0.1f;
+            mMatrix2[i] = 1.0f - i * 0.05f;
+        }
+        mMatrix[3] = mMatrix[7] = mMatrix[11] = 0;
+        mMatrix[15] = 1;
+    }
+
+    @Benchmark
+    public vec3 addScaled() {
+        return mA.addScaled(mB, 0.001f);
+    }
+
+    @Benchmark
+    public vec3 cross() {
+        return mA.cross(mB);
+    }
+
+    @Benchmark
+    public vec3 normalize() {
+        return mA.clone().normalize();
+    }
+
+    @Benchmark
+    public double dot() {
+        return mA.dot(mB);
+    }
+
+    @Benchmark
+    public Vec3Array transformPoints() {
+        return mPoints.transformPoints(mMatrix, 0);
+    }
+
+    @Benchmark
+    public float[] multiply() {
+        Matrix4f.multiply(mResult, 0, mMatrix, 0, mMatrix2, 0);
+        return mResult;
+    }
+
+    @Benchmark
+    public float[] multiplyAffine() {
+        Matrix4f.multiplyAffine(mResult, 0, mMatrix, 0, mMatrix, 0);
+        return mResult;
+    }
+}
@@ -0,0 +1,179 @@
+package com.jradek.camera;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Compatibility of {@link Matrix4f} with android.opengl.Matrix. The
+ * reference values were computed with the algorithms of
+ * android.opengl.Matrix (multiplyMM, invertM, perspectiveM, frustumM,
+ * setLookAtM) in float, as AOSP implements them, and are compared with a
+ * small relative tolerance, since the order of operations differs.
+ */
+public class Matrix4fTest {
+    private static final float TOLERANCE = 1e-5f;
+
+    private static final float[] A = {
+            0.8f, 0.1f, -0.3f, 0,
+            -0.2f, 0.9f, 0.4f, 0,
+            0.5f, -0.35f, 0.75f, 0,
+            1.5f, -2.0f, 3.25f, 1
+    };
+    private static final float[] B = {
+            2, 0.5f, 0, 0.25f,
+            -1, 3, 0.5f, 0,
+            0.125f, -0.75f, 1.5f, 0.5f,
+            4, 1, -2, 1
+    };
+
+    // Matrix.multiplyMM(r, 0, A, 0, B, 0)
+    private static final float[] A_TIMES_B = {
+            1.875f, 0.14999998f, 0.41249996f, 0.25f,
+            -1.1500001f, 2.425f, 1.875f, 0,
+            1.75f, -2.1875f, 2.4125f, 0.5f,
+            3.5f, 0, 0.9499998f, 1.0f
+    };
+    // Matrix.invertM(r, 0, B, 0)
+    private static final float[] B_INVERSE = {
+            0.6797386f, -0.104575165f, -0.11503268f, -0.1124183f,
+            0.13071896f, 0.2875817f, -0.08366013f, 0.009150327f,
+            0.5751634f, 0.06535948f, 0.27189544f, -0.27973858f,
+            -1.6993464f, 0.26143792f, 1.0875818f, 0.88104576f
+    };
+    // Matrix.perspectiveM(r, 0, 75, 1.5f, 0.1f, 100)
+    private static final float[] PERSPECTIVE = {
+            0.86881685f, 0, 0, 0,
+            0, 1.3032253f, 0, 0,
+            0, 0, -1.002002f, -1.0f,
+            0, 0, -0.2002002f, 0
+    };
+    // Matrix.frustumM(r, 0, -0.3f, 0.5f, -0.2f, 0.4f, 0.5f, 50)
+    private static final float[] FRUSTUM = {
+            1.25f, 0, 0, 0,
+            0, 1.6666666f, 0, 0,
+            0.24999999f, 0.33333334f, -1.020202f, -1.0f,
+            0, 0, -1.010101f, 0
+    };
+    // Matrix.setLookAtM(r, 0, 1, 2, 5, 0.5f, -0.5f, 0, 0, 1, 0.2f)
+    private static final float[] LOOK_AT = {
+            0.9936413f, -0.06884936f, 0.089087084f, 0,
+            0.022080919f, 0.89504164f, 0.4454354f, 0,
+            -0.110404596f, -0.4406359f, 0.8908708f, 0,
+            -0.48578018f, 0.4819454f, -5.4343123f, 1.0f
+    };
+
+    private static void assertMatrixEquals(final float[] expected, final float[] actual, int offset) {
+        for (int i = 0; i < 16; ++i) {
+            final float tolerance = TOLERANCE * Math.max(1.0f, Math.abs(expected[i]));
+            assertEquals("element " + i, expected[i], actual[offset + i], tolerance);
+        }
+    }
+
+    @Test
+    public void multiply() {
+        final float[] result = new float[16];
+        Matrix4f.multiply(result, 0, A, 0, B, 0);
+        assertMatrixEquals(A_TIMES_B, result, 0);
+    }
+
+    @Test
+    public void multiplyAtOffsets() {
+        final float[] matrices = new float[4 + 48];
+        System.arraycopy(A, 0, matrices, 4, 16);
+        System.arraycopy(B, 0, matrices, 20, 16);
+        Matrix4f.multiply(matrices, 36, matrices, 4, matrices, 20);
+        assertMatrixEquals(A_TIMES_B, matrices, 36);
+    }
+
+    @Test
+    public void invert() {
+        final float[] result = new float[16];
+        assertTrue(Matrix4f.invert(result, 0, B, 0));
+        assertMatrixEquals(B_INVERSE, result, 0);
+    }
+
+    @Test
+    public void invertSingular() {
+        // the second column is twice the first, Matrix.invertM returns false
+        final float[] singular = {
+                1, 2, 3, 4,
+                2, 4, 6, 8,
+                0, 1, 0, 1,
+                3, 0, 1, 2
+        };
+        final float[] result = new float[16];
+        java.util.Arrays.fill(result, 7.0f);
+        assertFalse(Matrix4f.invert(result, 0, singular, 0));
+
+        final float[] untouched = new float[16];
+        java.util.Arrays.fill(untouched, 7.0f);
+        assertArrayEquals(untouched, result, 0.0f);
+    }
+
+    @Test
+    public void perspective() {
+        final float[] result = new float[16];
+        Matrix4f.setPerspective(result, 0, 75.0f, 1.5f, 0.1f, 100.0f);
+        assertMatrixEquals(PERSPECTIVE, result, 0);
+    }
+
+    @Test
+    public void frustum() {
+        final float[] result = new float[16];
+        Matrix4f.setFrustum(result, 0, -0.3f, 0.5f, -0.2f, 0.4f, 0.5f, 50.0f);
+        assertMatrixEquals(FRUSTUM, result, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void frustumDegenerate() {
+        Matrix4f.setFrustum(new float[16], 0, -1, 1, -1, 1, 0.0f, 10.0f);
+    }
+
+    @Test
+    public void lookAt() {
+        final float[] result = new float[16];
+        Matrix4f.setLookAt(result, 0, 1, 2, 5, 0.5f, -0.5f, 0, 0, 1, 0.2f);
+        assertMatrixEquals(LOOK_AT, result, 0);
+    }
+
+    @Test
+    public void fastPathsMatchGeneralFunctions() {
+        final float[] expected = new float[16];
+        final float[] actual = new float[16];
+
+        // affine * affine
+        final float[] view = new float[16];
+        Matrix4f.setLookAt(view, 0, 1, 2, 5, 0.5f, -0.5f, 0, 0, 1, 0.2f);
+        Matrix4f.multiply(expected, 0, view, 0, A, 0);
+        Matrix4f.multiplyAffine(actual, 0, view, 0, A, 0);
+        assertMatrixEquals(expected, actual, 0);
+
+        // perspective * affine
+        Matrix4f.multiply(expected, 0, PERSPECTIVE, 0, view, 0);
+        Matrix4f.multiplyPerspectiveAffine(actual, 0, PERSPECTIVE, 0, view, 0);
+        assertMatrixEquals(expected, actual, 0);
+
+        // rigid and perspective inverses
+        assertTrue(Matrix4f.invert(expected, 0, view, 0));
+        Matrix4f.invertRigid(actual, 0, view, 0);
+        assertMatrixEquals(expected, actual, 0);
+
+        assertTrue(Matrix4f.invert(expected, 0, PERSPECTIVE, 0));
+        Matrix4f.invertPerspective(actual, 0, PERSPECTIVE, 0);
+        assertMatrixEquals(expected, actual, 0);
+    }
+
+    @Test
+    public void cameraViewMatchesLookAt() {
+        final FreeCamera camera = new FreeCamera(new vec3(1, 2, 5), new vec3(-0.5, -2.5, -5), new vec3(0, 1, 0));
+        camera.update();
+
+        final float[] expected = new float[16];
+        Matrix4f.setLookAt(expected, 0, 1, 2, 5, 0.5f, -0.5f, 0, 0, 1, 0);
+        assertMatrixEquals(expected, camera.getViewMatrix(), 0);
+    }
+}
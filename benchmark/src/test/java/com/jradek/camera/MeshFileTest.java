@@ -0,0 +1,107 @@
+package com.jradek.camera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Validation of the ranges and indices of a {@link MeshFile}, which are
+ * handed to the GL unchecked.
+ */
+public class MeshFileTest {
+    // two triangles sharing an edge, the second one being a part of its own
+    private static final float[] VERTICES = {
+            0, 0, 0,
+            1, 0, 0,
+            1, 1, 0,
+            0, 1, 0
+    };
+    private static final int[] INDICES = { 0, 1, 2, 0, 2, 3 };
+    private static final int[] PART_FIRST = { 0, 3 };
+    private static final int[] PART_COUNT = { 3, 3 };
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("mesh", ".mesh");
+        MeshFile.write(mFile, MeshFile.POSITION, 3, VERTICES, 4, INDICES, INDICES.length,
+                PART_FIRST, PART_COUNT, new float[2], 2, 1);
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void readsValidMesh() throws IOException {
+        final MeshFile mesh = new MeshFile(mFile);
+        assertEquals(4, mesh.getVertexCount());
+        assertEquals(6, mesh.getIndexCount());
+        assertEquals(2, mesh.getBytesPerIndex());
+        assertEquals(2, mesh.getPartCount());
+        assertEquals(3, mesh.getPartFirstIndex(1));
+        assertEquals(3, mesh.getIndex(5));
+    }
+
+    @Test
+    public void rejectsPartBeyondIndices() throws IOException {
+        // index count of the second part
+        patchInt(MeshFile.HEADER_SIZE + MeshFile.PART_SIZE + 4, 6);
+        assertCorrupt();
+    }
+
+    @Test
+    public void rejectsNegativePartStart() throws IOException {
+        patchInt(MeshFile.HEADER_SIZE, -3);
+        assertCorrupt();
+    }
+
+    @Test
+    public void rejectsPartOfPartialTriangles() throws IOException {
+        patchInt(MeshFile.HEADER_SIZE + 4, 2);
+        assertCorrupt();
+    }
+
+    @Test
+    public void rejectsIndexBeyondVertices() throws IOException {
+        final int indexOffset = (MeshFile.HEADER_SIZE + 2 * MeshFile.PART_SIZE + 4 * 3 * 4 + 3) & ~3;
+        final RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(indexOffset + 5 * 2);
+            // little endian 4
+            file.write(4);
+            file.write(0);
+        } finally {
+            file.close();
+        }
+        assertCorrupt();
+    }
+
+    private void patchInt(long offset, int value) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(offset);
+            file.writeInt(Integer.reverseBytes(value));
+        } finally {
+            file.close();
+        }
+    }
+
+    private void assertCorrupt() {
+        try {
+            new MeshFile(mFile);
+            fail("corrupt mesh accepted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
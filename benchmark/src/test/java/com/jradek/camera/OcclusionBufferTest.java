@@ -0,0 +1,123 @@
+package com.jradek.camera;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link OcclusionBuffer} must only cull boxes which are hidden entirely.
+ * The camera sits at the origin looking down -z with a field of view of 90
+ * degrees, so at a distance of 5 the view spans -5..5 and a pixel of the 64
+ * pixel wide buffer is 0.15625 wide.
+ */
+public class OcclusionBufferTest {
+    private static final int SIZE = 64;
+
+    private OcclusionBuffer mBuffer;
+    private final float[] mViewProjection = new float[16];
+
+    @Before
+    public void setUp() {
+        mBuffer = new OcclusionBuffer(SIZE, SIZE);
+        Matrix4f.setFrustum(mViewProjection, 0, -0.1f, 0.1f, -0.1f, 0.1f, 0.1f, 100.0f);
+        mBuffer.begin(mViewProjection, 0);
+    }
+
+    @Test
+    public void coveredBoxIsHidden() {
+        addQuad(-5, -3, 3, -3, 3);
+        mBuffer.rasterize();
+
+        assertFalse(mBuffer.isVisible(-1, -1, -11, 1, 1, -10));
+    }
+
+    @Test
+    public void partiallyCoveredBoxIsVisible() {
+        addQuad(-5, -3, 0, -3, 3);
+        mBuffer.rasterize();
+
+        assertTrue(mBuffer.isVisible(-1, -1, -11, 1, 1, -10));
+    }
+
+    @Test
+    public void boxBeyondOccluderEdgeWithinPixelIsVisible() {
+        // the edge at x 0.1 is at 32.64 pixels, the box spans 32.16..32.96
+        // and is small enough to be tested at full resolution
+        addQuad(-5, -3, 0.1f, -3, 3);
+        mBuffer.rasterize();
+
+        assertTrue(mBuffer.isVisible(0.05f, -0.1f, -10.5f, 0.3f, 0.1f, -10));
+    }
+
+    @Test
+    public void boxInFrontOfOccluderIsVisible() {
+        addQuad(-5, -3, 3, -3, 3);
+        mBuffer.rasterize();
+
+        assertTrue(mBuffer.isVisible(-1, -1, -4.5f, 1, 1, -4));
+    }
+
+    @Test
+    public void boxStraddlingNearPlaneIsVisible() {
+        addQuad(-5, -5, 5, -5, 5);
+        mBuffer.rasterize();
+
+        assertTrue(mBuffer.isVisible(-1, -1, -20, 1, 1, 1));
+    }
+
+    @Test
+    public void occluderDoesNotHideItself() {
+        final float[][] boxes = {
+                { -1, -1, -11, 1, 1, -10 },
+                { -2.3f, 0.7f, -8.1f, -0.4f, 1.9f, -6.6f },
+                { 0.37f, -1.21f, -3.3f, 1.13f, 0.05f, -2.2f },
+                { -40, -0.5f, -60, 40, 0.5f, -50 },
+        };
+        for (final float[] box : boxes) {
+            mBuffer.begin(mViewProjection, 0);
+            addBox(box);
+            mBuffer.rasterize();
+
+            assertTrue(mBuffer.isVisible(box[0], box[1], box[2], box[3], box[4], box[5]));
+        }
+    }
+
+    /**
+     * Adds a rectangle facing the camera.
+     */
+    private void addQuad(float z, float minX, float maxX, float minY, float maxY) {
+        final float[] triangles = {
+                minX, minY, z,   maxX, minY, z,   maxX, maxY, z,
+                minX, minY, z,   maxX, maxY, z,   minX, maxY, z
+        };
+        mBuffer.addTriangles(triangles, 0, 2, 0, 0, 0);
+    }
+
+    /**
+     * Adds the 12 triangles of a box, min x, y, z followed by max x, y, z.
+     */
+    private void addBox(final float[] box) {
+        final float[] triangles = new float[12 * 9];
+        int t = 0;
+        for (int axis = 0; axis < 3; ++axis) {
+            final int u = (axis + 1) % 3;
+            final int v = (axis + 2) % 3;
+            for (int side = 0; side < 2; ++side) {
+                final float[][] corners = new float[4][3];
+                for (int k = 0; k < 4; ++k) {
+                    corners[k][axis] = box[side * 3 + axis];
+                    corners[k][u] = box[(k == 1 || k == 2 ? 3 : 0) + u];
+                    corners[k][v] = box[(k >= 2 ? 3 : 0) + v];
+                }
+                final int[] order = { 0, 1, 2, 0, 2, 3 };
+                for (final int k : order) {
+                    System.arraycopy(corners[k], 0, triangles, t, 3);
+                    t += 3;
+                }
+            }
+        }
+        mBuffer.addTriangles(triangles, 0, 12, 0, 0, 0);
+    }
+}
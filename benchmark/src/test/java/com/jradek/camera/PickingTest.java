@@ -0,0 +1,120 @@
+package com.jradek.camera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Correctness of the picking path: {@link Ray#unproject},
+ * {@link Ray#intersectBox}, {@link Bvh#raycast} and
+ * {@link TriangleBvh#intersect}.
+ */
+public class PickingTest {
+    private static final float TOLERANCE = 1e-4f;
+
+    /** grid of 8x8 unit quads facing +z at z = -5, plus one at z = -2 around the z axis */
+    private static TriangleBvh createTriangles() {
+        final int numQuads = 8 * 8 + 1;
+        final float[] positions = new float[numQuads * 4 * 3];
+        final int[] indices = new int[numQuads * 6];
+
+        for (int q = 0; q < numQuads; ++q) {
+            final boolean front = q == numQuads - 1;
+            final float x0 = front ? -0.5f : (q % 8) - 4;
+            final float y0 = front ? -0.5f : (q / 8) - 4;
+            final float z = front ? -2 : -5;
+
+            final float[] corners = { x0, y0, z,   x0 + 1, y0, z,   x0 + 1, y0 + 1, z,   x0, y0 + 1, z };
+            System.arraycopy(corners, 0, positions, q * 12, 12);
+
+            final int v = q * 4;
+            final int[] quad = { v, v + 1, v + 2, v, v + 2, v + 3 };
+            System.arraycopy(quad, 0, indices, q * 6, 6);
+        }
+        return new TriangleBvh(positions, indices, 0, indices.length);
+    }
+
+    @Test
+    public void nearestHitWins() {
+        final TriangleBvh triangles = createTriangles();
+
+        // through the front quad and the grid behind it
+        final Ray ray = new Ray().set(0.1f, 0.2f, 0, 0, 0, -1, 100);
+        final int hit = triangles.raycast(ray);
+        assertTrue(hit == 128 || hit == 129);
+        assertEquals(2, ray.maxDistance, TOLERANCE);
+
+        // beside the front quad only the grid is hit
+        ray.set(2.5f, 2.5f, 0, 0, 0, -1, 100);
+        assertTrue(triangles.raycast(ray) < 128);
+        assertEquals(5, ray.maxDistance, TOLERANCE);
+    }
+
+    @Test
+    public void missReturnsMinusOne() {
+        final TriangleBvh triangles = createTriangles();
+
+        // away from the triangles
+        assertEquals(-1, triangles.raycast(new Ray().set(0, 0, 0, 0, 0, 1, 100)));
+        // beside the grid
+        assertEquals(-1, triangles.raycast(new Ray().set(10, 0, 0, 0, 0, -1, 100)));
+        // stopping short of the front quad
+        final Ray ray = new Ray().set(0, 0, 0, 0, 0, -1, 1.5f);
+        assertEquals(-1, triangles.raycast(ray));
+        assertEquals(1.5f, ray.maxDistance, 0);
+    }
+
+    @Test
+    public void axisParallelRays() {
+        final float[] box = { -1, -1, -1, 1, 1, 1 };
+
+        // along every axis, from both sides
+        for (int axis = 0; axis < 3; ++axis) {
+            for (int sign = -1; sign <= 1; sign += 2) {
+                final float[] o = { 0.5f, -0.25f, 0.75f };
+                final float[] d = { 0, 0, 0 };
+                o[axis] = -3 * sign;
+                d[axis] = sign;
+
+                final Ray ray = new Ray().set(o[0], o[1], o[2], d[0], d[1], d[2], 100);
+                assertEquals(2, ray.intersectBox(box, 0), TOLERANCE);
+
+                // parallel to the slabs and outside of one of them
+                o[(axis + 1) % 3] = 1.5f;
+                ray.set(o[0], o[1], o[2], d[0], d[1], d[2], 100);
+                assertEquals(Float.POSITIVE_INFINITY, ray.intersectBox(box, 0), 0);
+            }
+        }
+
+        // along x through the grid and the front quad edge on
+        final TriangleBvh triangles = createTriangles();
+        assertEquals(-1, triangles.raycast(new Ray().set(-10, 0.1f, -3, 1, 0, 0, 100)));
+
+        // along -z exactly at a shared edge of the grid
+        final Ray ray = new Ray().set(1, 1, -3, 0, 0, -1, 100);
+        assertTrue(triangles.raycast(ray) >= 0);
+        assertEquals(2, ray.maxDistance, TOLERANCE);
+    }
+
+    @Test
+    public void unprojectedCenterIsForwardRay() {
+        final vec3 position = new vec3(1, 2, 5);
+        final vec3 look = new vec3(-0.5, -2.5, -5).normalize();
+        final FreeCamera camera = new FreeCamera(position, look, new vec3(0, 1, 0));
+        camera.setupProjection(60, 1.5f);
+        camera.update();
+
+        final Ray ray = new Ray().unproject(camera.getInverseViewProjectionMatrix(), 0, 0, 0);
+
+        assertEquals(look.x, ray.directionX, TOLERANCE);
+        assertEquals(look.y, ray.directionY, TOLERANCE);
+        assertEquals(look.z, ray.directionZ, TOLERANCE);
+
+        // from the near to the far plane
+        assertEquals(position.x + look.x * Camera.NEAR_PLANE, ray.originX, TOLERANCE);
+        assertEquals(position.y + look.y * Camera.NEAR_PLANE, ray.originY, TOLERANCE);
+        assertEquals(position.z + look.z * Camera.NEAR_PLANE, ray.originZ, TOLERANCE);
+        assertEquals(Camera.FAR_PLANE - Camera.NEAR_PLANE, ray.maxDistance, 1e-2f);
+    }
+}
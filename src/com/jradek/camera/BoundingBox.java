@@ -0,0 +1,106 @@
+package com.jradek.camera;
+
+/**
+ * Axis aligned bounding box.
+ */
+public class BoundingBox {
+    public float minX;
+    public float minY;
+    public float minZ;
+    public float maxX;
+    public float maxY;
+    public float maxZ;
+
+    /**
+     * Constructs an empty box, see {@link #setEmpty()}.
+     */
+    public BoundingBox() {
+        setEmpty();
+    }
+
+    public BoundingBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        set(minX, minY, minZ, maxX, maxY, maxZ);
+    }
+
+    public BoundingBox set(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.maxZ = maxZ;
+        return this;
+    }
+
+    public BoundingBox set(final BoundingBox other) {
+        return set(other.minX, other.minY, other.minZ, other.maxX, other.maxY, other.maxZ);
+    }
+
+    /**
+     * Resets the box so that the next {@link #include} defines it.
+     */
+    public BoundingBox setEmpty() {
+        return set(Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE,
+                -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE);
+    }
+
+    public boolean isEmpty() {
+        return minX > maxX || minY > maxY || minZ > maxZ;
+    }
+
+    public BoundingBox include(float x, float y, float z) {
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        minZ = Math.min(minZ, z);
+        maxX = Math.max(maxX, x);
+        maxY = Math.max(maxY, y);
+        maxZ = Math.max(maxZ, z);
+        return this;
+    }
+
+    public BoundingBox include(final BoundingBox other) {
+        minX = Math.min(minX, other.minX);
+        minY = Math.min(minY, other.minY);
+        minZ = Math.min(minZ, other.minZ);
+        maxX = Math.max(maxX, other.maxX);
+        maxY = Math.max(maxY, other.maxY);
+        maxZ = Math.max(maxZ, other.maxZ);
+        return this;
+    }
+
+    /**
+     * Includes all points of an interleaved coordinate array.
+     * @param coords coordinate array
+     * @param offset index of the first x coordinate
+     * @param count number of points
+     * @param stride distance between two points in floats
+     */
+    public BoundingBox include(final float[] coords, int offset, int count, int stride) {
+        for (int i = 0; i < count; ++i, offset += stride) {
+            include(coords[offset + 0], coords[offset + 1], coords[offset + 2]);
+        }
+        return this;
+    }
+
+    public float getCenterX() {
+        return (minX + maxX) * 0.5f;
+    }
+
+    public float getCenterY() {
+        return (minY + maxY) * 0.5f;
+    }
+
+    public float getCenterZ() {
+        return (minZ + maxZ) * 0.5f;
+    }
+
+    /**
+     * @return radius of the sphere around the center enclosing the box
+     */
+    public float getRadius() {
+        final float dx = maxX - minX;
+        final float dy = maxY - minY;
+        final float dz = maxZ - minZ;
+        return (float)Math.sqrt(dx*dx + dy*dy + dz*dz) * 0.5f;
+    }
+}
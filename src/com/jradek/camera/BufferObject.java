@@ -0,0 +1,99 @@
+package com.jradek.camera;
+
+import java.nio.Buffer;
+
+import android.opengl.GLES20;
+
+/**
+ * GL buffer object, i.e. data which lives in GPU memory instead of being
+ * copied from client memory on every draw call.
+ *
+ * Buffer objects are lost together with the GL context, so they have to be
+ * created in (or after) onSurfaceCreated.
+ */
+public abstract class BufferObject {
+    /**
+     * How often the data is expected to change.
+     */
+    public enum Usage {
+        /** uploaded once, drawn many times */
+        Static(GLES20.GL_STATIC_DRAW),
+        /** modified repeatedly, drawn many times */
+        Dynamic(GLES20.GL_DYNAMIC_DRAW),
+        /** modified once per frame or so, drawn a few times */
+        Stream(GLES20.GL_STREAM_DRAW);
+
+        final int glUsage;
+
+        Usage(int glUsage) {
+            this.glUsage = glUsage;
+        }
+    };
+
+    protected final GlApi mGl;
+    private final int mTarget;
+    private final Usage mUsage;
+    private final int[] mHandle = new int[1];
+    private int mSizeInBytes = 0;
+
+    protected BufferObject(GlApi gl, int target, Usage usage) {
+        mGl = gl;
+        mTarget = target;
+        mUsage = usage;
+
+        mGl.glGenBuffers(1, mHandle, 0);
+    }
+
+    public int getHandle() {
+        return mHandle[0];
+    }
+
+    public int getSizeInBytes() {
+        return mSizeInBytes;
+    }
+
+    public Usage getUsage() {
+        return mUsage;
+    }
+
+    public void bind() {
+        mGl.glBindBuffer(mTarget, mHandle[0]);
+    }
+
+    public void unbind() {
+        mGl.glBindBuffer(mTarget, 0);
+    }
+
+    /**
+     * Replaces the whole content. Leaves the buffer bound.
+     * @param data data from position 0 to limit is uploaded
+     * @param sizeInBytes number of bytes to upload
+     */
+    protected void upload(Buffer data, int sizeInBytes) {
+        bind();
+        data.position(0);
+        mGl.glBufferData(mTarget, sizeInBytes, data, mUsage.glUsage);
+        mSizeInBytes = sizeInBytes;
+    }
+
+    /**
+     * Replaces a part of the content. Leaves the buffer bound.
+     * @param offsetInBytes where to start in the buffer object
+     * @param data data from position 0 is uploaded
+     * @param sizeInBytes number of bytes to upload
+     */
+    protected void update(int offsetInBytes, Buffer data, int sizeInBytes) {
+        bind();
+        data.position(0);
+        mGl.glBufferSubData(mTarget, offsetInBytes, sizeInBytes, data);
+    }
+
+    /**
+     * Frees the GPU memory. The object must not be used afterwards.
+     */
+    public void release() {
+        mGl.glDeleteBuffers(1, mHandle, 0);
+        mHandle[0] = 0;
+        mSizeInBytes = 0;
+    }
+}
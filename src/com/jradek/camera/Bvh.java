@@ -0,0 +1,570 @@
+package com.jradek.camera;
+
+/**
+ * Bounding volume hierarchy over axis aligned boxes, built with a binned
+ * surface area heuristic (SAH).
+ *
+ * The tree is stored in flat arrays. The children of an interior node are
+ * stored next to each other, so only the index of the left child is kept.
+ * The primitives below any node occupy a contiguous range of the primitive
+ * index array, which allows to accept a whole subtree at once.
+ *
+ * Primitives are given as packed boxes (minX, minY, minZ, maxX, maxY, maxZ),
+ * see {@link Frustum#BOX_STRIDE}. Query results are indices into that array.
+ *
+ * Rays visit the nodes front to back and skip every node behind the nearest
+ * hit so far, the primitives themselves are intersected by the caller.
+ */
+public class Bvh {
+    static final int BOX_STRIDE = Frustum.BOX_STRIDE;
+
+    static final int NUM_BINS = 12;
+    static final int MAX_LEAF_SIZE = 4;
+
+    static final float TRAVERSAL_COST = 1.0f;
+    static final float INTERSECTION_COST = 1.0f;
+
+    /**
+     * Intersects the primitives of a {@link Bvh} with a ray.
+     */
+    public interface RayIntersector {
+        /**
+         * @return true if the primitive is hit closer than ray.maxDistance,
+         * which is then set to the distance of the hit
+         */
+        boolean intersect(int primitive, Ray ray);
+    }
+
+    /**
+     * default for {@link #setRebuildThreshold(float)}
+     */
+    public static final float DEFAULT_REBUILD_THRESHOLD = 1.5f;
+
+    /** primitive boxes of the last build or refit */
+    private float[] mBoxes = new float[0];
+    private int mNumPrimitives = 0;
+    private int mNumNodes = 0;
+    private int mMaxDepth = 0;
+
+    private float[] mNodeBounds = new float[0];
+    /** index of the left child, -1 for leaves */
+    private int[] mNodeLeft = new int[0];
+    private int[] mNodeFirst = new int[0];
+    private int[] mNodeCount = new int[0];
+
+    private int[] mPrimIndices = new int[0];
+    private float[] mCentroids = new float[0];
+    private int[] mStack = new int[0];
+
+    // binning scratch, reused for all nodes
+    private final float[] mBinBounds = new float[NUM_BINS * BOX_STRIDE];
+    private final int[] mBinCount = new int[NUM_BINS];
+    private final float[] mRightArea = new float[NUM_BINS];
+
+    private float mBuildCost = 0;
+    private float mCost = 0;
+    private float mRebuildThreshold = DEFAULT_REBUILD_THRESHOLD;
+
+    /**
+     * (Re)builds the tree. Internal arrays are reused if they are big enough.
+     * @param boxes packed primitive boxes
+     * @param count number of primitives
+     */
+    public void build(final float[] boxes, int count) {
+        ensureCapacity(count);
+
+        mBoxes = boxes;
+        mNumPrimitives = count;
+        mNumNodes = 0;
+        mMaxDepth = 0;
+
+        if (count == 0) {
+            mBuildCost = mCost = 0;
+            return;
+        }
+
+        for (int i = 0; i < count; ++i) {
+            final int o = i * BOX_STRIDE;
+            mPrimIndices[i] = i;
+            mCentroids[i * 3 + 0] = (boxes[o + 0] + boxes[o + 3]) * 0.5f;
+            mCentroids[i * 3 + 1] = (boxes[o + 1] + boxes[o + 4]) * 0.5f;
+            mCentroids[i * 3 + 2] = (boxes[o + 2] + boxes[o + 5]) * 0.5f;
+        }
+
+        final int root = allocateNode(0, count);
+        buildNode(boxes, root, 0);
+
+        if (mStack.length < mMaxDepth + 2) {
+            mStack = new int[mMaxDepth + 2];
+        }
+
+        mBuildCost = mCost = computeCost();
+    }
+
+    /**
+     * Updates the node bounds bottom-up after primitives moved, keeping the
+     * topology. Cheap, but the tree quality degrades with large movements.
+     * @param boxes packed primitive boxes, same count and order as for build
+     */
+    public void refit(final float[] boxes) {
+        mBoxes = boxes;
+
+        // children are always allocated after their parent
+        for (int node = mNumNodes - 1; node >= 0; --node) {
+            final int left = mNodeLeft[node];
+
+            if (left < 0) {
+                computeLeafBounds(boxes, node);
+            } else {
+                setUnion(node, left, left + 1);
+            }
+        }
+
+        mCost = computeCost();
+    }
+
+    /**
+     * Refits the tree, and rebuilds it if refitting made the SAH cost grow
+     * beyond the rebuild threshold relative to the last build.
+     * @param boxes packed primitive boxes, same count and order as for build
+     * @return true if the tree was rebuilt
+     */
+    public boolean update(final float[] boxes) {
+        refit(boxes);
+
+        if (mCost > mBuildCost * mRebuildThreshold) {
+            build(boxes, mNumPrimitives);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param threshold ratio of refitted to built SAH cost which triggers a
+     * rebuild in {@link #update(float[])}
+     */
+    public void setRebuildThreshold(float threshold) {
+        mRebuildThreshold = threshold;
+    }
+
+    /**
+     * Collects all primitives intersecting the frustum. Subtrees completely
+     * inside are accepted without further tests.
+     * Updates the frustum statistics with the number of primitives.
+     *
+     * @param frustum the frustum to test against
+     * @param result receives the primitive indices, needs room for all primitives
+     * @return number of primitives written to result
+     */
+    public int query(final Frustum frustum, int[] result) {
+        return query(frustum, result, mStack);
+    }
+
+    /**
+     * Same as {@link #query(Frustum, int[])}, but with a traversal stack of
+     * the caller, so several threads can query the same tree concurrently
+     * as long as it is not modified.
+     * @param stack needs room for {@link #getStackSize()} entries
+     */
+    public int query(final Frustum frustum, int[] result, int[] stack) {
+        int numResults = 0;
+
+        if (mNumNodes > 0) {
+            int top = 0;
+            stack[top++] = 0;
+
+            while (top > 0) {
+                final int node = stack[--top];
+                final int o = node * BOX_STRIDE;
+
+                final int classification = frustum.classifyBox(
+                        mNodeBounds[o + 0], mNodeBounds[o + 1], mNodeBounds[o + 2],
+                        mNodeBounds[o + 3], mNodeBounds[o + 4], mNodeBounds[o + 5]);
+
+                if (classification == Frustum.OUTSIDE) {
+                    continue;
+                }
+
+                final int left = mNodeLeft[node];
+
+                if (classification == Frustum.INSIDE) {
+                    final int first = mNodeFirst[node];
+                    final int count = mNodeCount[node];
+                    System.arraycopy(mPrimIndices, first, result, numResults, count);
+                    numResults += count;
+                } else if (left < 0) {
+                    final int end = mNodeFirst[node] + mNodeCount[node];
+
+                    for (int i = mNodeFirst[node]; i < end; ++i) {
+                        final int p = mPrimIndices[i] * BOX_STRIDE;
+                        if (frustum.testBox(mBoxes[p + 0], mBoxes[p + 1], mBoxes[p + 2],
+                                mBoxes[p + 3], mBoxes[p + 4], mBoxes[p + 5])) {
+                            result[numResults++] = mPrimIndices[i];
+                        }
+                    }
+                } else {
+                    stack[top++] = left + 1;
+                    stack[top++] = left;
+                }
+            }
+        }
+
+        frustum.addStatistics(mNumPrimitives, numResults);
+        return numResults;
+    }
+
+    /**
+     * Finds the primitive a ray hits first. Nearer children are visited
+     * first, and nodes entered beyond the nearest hit so far are skipped.
+     * Several threads can trace the same tree concurrently, each with its
+     * own stack, as long as it is not modified.
+     * @param ray the ray, its max distance becomes the distance of the hit
+     * @param intersector intersects the primitives
+     * @param stack needs room for {@link #getRayStackSize()} entries
+     * @return index of the primitive hit, -1 if none
+     */
+    public int raycast(Ray ray, RayIntersector intersector, int[] stack) {
+        if (mNumNodes == 0) {
+            return -1;
+        }
+
+        final float rootDistance = ray.intersectBox(mNodeBounds, 0);
+        if (rootDistance == Float.POSITIVE_INFINITY) {
+            return -1;
+        }
+
+        // node and the distance it is entered at
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = Float.floatToRawIntBits(rootDistance);
+
+        int hit = -1;
+        while (top > 0) {
+            final float distance = Float.intBitsToFloat(stack[--top]);
+            final int node = stack[--top];
+
+            if (distance > ray.maxDistance) {
+                continue;
+            }
+
+            final int left = mNodeLeft[node];
+            if (left < 0) {
+                final int end = mNodeFirst[node] + mNodeCount[node];
+                for (int i = mNodeFirst[node]; i < end; ++i) {
+                    if (intersector.intersect(mPrimIndices[i], ray)) {
+                        hit = mPrimIndices[i];
+                    }
+                }
+                continue;
+            }
+
+            final float leftDistance = ray.intersectBox(mNodeBounds, left * BOX_STRIDE);
+            final float rightDistance = ray.intersectBox(mNodeBounds, (left + 1) * BOX_STRIDE);
+            final boolean leftFirst = leftDistance <= rightDistance;
+            final int near = leftFirst ? left : left + 1;
+            final int far = leftFirst ? left + 1 : left;
+            final float nearDistance = leftFirst ? leftDistance : rightDistance;
+            final float farDistance = leftFirst ? rightDistance : leftDistance;
+
+            // the far child goes below the near one, to be visited last
+            if (farDistance != Float.POSITIVE_INFINITY) {
+                stack[top++] = far;
+                stack[top++] = Float.floatToRawIntBits(farDistance);
+            }
+            if (nearDistance != Float.POSITIVE_INFINITY) {
+                stack[top++] = near;
+                stack[top++] = Float.floatToRawIntBits(nearDistance);
+            }
+        }
+        return hit;
+    }
+
+    public int getPrimitiveCount() {
+        return mNumPrimitives;
+    }
+
+    /**
+     * @return size of the traversal stack a query needs
+     */
+    public int getStackSize() {
+        return mStack.length;
+    }
+
+    /**
+     * @return size of the traversal stack {@link #raycast} needs
+     */
+    public int getRayStackSize() {
+        return 2 * mStack.length;
+    }
+
+    public int getNodeCount() {
+        return mNumNodes;
+    }
+
+    /**
+     * @return SAH cost of the current tree
+     */
+    public float getCost() {
+        return mCost;
+    }
+
+    /**
+     * @param dest receives the bounds of all primitives, empty if there are none
+     * @return dest
+     */
+    public BoundingBox getBounds(BoundingBox dest) {
+        if (mNumNodes == 0) {
+            return dest.setEmpty();
+        }
+
+        return dest.set(mNodeBounds[0], mNodeBounds[1], mNodeBounds[2],
+                mNodeBounds[3], mNodeBounds[4], mNodeBounds[5]);
+    }
+
+    private void ensureCapacity(int count) {
+        if (mPrimIndices.length >= count) {
+            return;
+        }
+
+        final int maxNodes = Math.max(1, 2 * count - 1);
+        mNodeBounds = new float[maxNodes * BOX_STRIDE];
+        mNodeLeft = new int[maxNodes];
+        mNodeFirst = new int[maxNodes];
+        mNodeCount = new int[maxNodes];
+
+        mPrimIndices = new int[count];
+        mCentroids = new float[count * 3];
+    }
+
+    private int allocateNode(int first, int count) {
+        final int node = mNumNodes++;
+        mNodeLeft[node] = -1;
+        mNodeFirst[node] = first;
+        mNodeCount[node] = count;
+        return node;
+    }
+
+    private void buildNode(final float[] boxes, int node, int depth) {
+        mMaxDepth = Math.max(mMaxDepth, depth);
+        computeLeafBounds(boxes, node);
+
+        final int first = mNodeFirst[node];
+        final int count = mNodeCount[node];
+
+        if (count <= MAX_LEAF_SIZE) {
+            return;
+        }
+
+        // centroid bounds decide the split axis range
+        float cMinX = Float.MAX_VALUE, cMinY = Float.MAX_VALUE, cMinZ = Float.MAX_VALUE;
+        float cMaxX = -Float.MAX_VALUE, cMaxY = -Float.MAX_VALUE, cMaxZ = -Float.MAX_VALUE;
+
+        for (int i = first; i < first + count; ++i) {
+            final int c = mPrimIndices[i] * 3;
+            cMinX = Math.min(cMinX, mCentroids[c + 0]);
+            cMinY = Math.min(cMinY, mCentroids[c + 1]);
+            cMinZ = Math.min(cMinZ, mCentroids[c + 2]);
+            cMaxX = Math.max(cMaxX, mCentroids[c + 0]);
+            cMaxY = Math.max(cMaxY, mCentroids[c + 1]);
+            cMaxZ = Math.max(cMaxZ, mCentroids[c + 2]);
+        }
+
+        float bestCost = count * INTERSECTION_COST;
+        int bestAxis = -1;
+        int bestSplit = 0;
+
+        // guard against degenerate (flat) nodes, the split then only depends on the counts
+        final float parentArea = Math.max(area(mNodeBounds, node * BOX_STRIDE), Float.MIN_VALUE);
+
+        for (int axis = 0; axis < 3; ++axis) {
+            final float min = axis == 0 ? cMinX : (axis == 1 ? cMinY : cMinZ);
+            final float max = axis == 0 ? cMaxX : (axis == 1 ? cMaxY : cMaxZ);
+
+            if (max - min <= 0) {
+                continue;
+            }
+
+            fillBins(boxes, first, count, axis, min, NUM_BINS / (max - min));
+
+            // sweep from the right to get area of all right halves ...
+            float rMinX = Float.MAX_VALUE, rMinY = Float.MAX_VALUE, rMinZ = Float.MAX_VALUE;
+            float rMaxX = -Float.MAX_VALUE, rMaxY = -Float.MAX_VALUE, rMaxZ = -Float.MAX_VALUE;
+
+            for (int b = NUM_BINS - 1; b > 0; --b) {
+                if (mBinCount[b] > 0) {
+                    final int o = b * BOX_STRIDE;
+                    rMinX = Math.min(rMinX, mBinBounds[o + 0]);
+                    rMinY = Math.min(rMinY, mBinBounds[o + 1]);
+                    rMinZ = Math.min(rMinZ, mBinBounds[o + 2]);
+                    rMaxX = Math.max(rMaxX, mBinBounds[o + 3]);
+                    rMaxY = Math.max(rMaxY, mBinBounds[o + 4]);
+                    rMaxZ = Math.max(rMaxZ, mBinBounds[o + 5]);
+                }
+                mRightArea[b] = area(rMinX, rMinY, rMinZ, rMaxX, rMaxY, rMaxZ);
+            }
+
+            // ... then from the left to evaluate every split plane
+            float lMinX = Float.MAX_VALUE, lMinY = Float.MAX_VALUE, lMinZ = Float.MAX_VALUE;
+            float lMaxX = -Float.MAX_VALUE, lMaxY = -Float.MAX_VALUE, lMaxZ = -Float.MAX_VALUE;
+            int leftCount = 0;
+
+            for (int b = 0; b < NUM_BINS - 1; ++b) {
+                if (mBinCount[b] > 0) {
+                    final int o = b * BOX_STRIDE;
+                    lMinX = Math.min(lMinX, mBinBounds[o + 0]);
+                    lMinY = Math.min(lMinY, mBinBounds[o + 1]);
+                    lMinZ = Math.min(lMinZ, mBinBounds[o + 2]);
+                    lMaxX = Math.max(lMaxX, mBinBounds[o + 3]);
+                    lMaxY = Math.max(lMaxY, mBinBounds[o + 4]);
+                    lMaxZ = Math.max(lMaxZ, mBinBounds[o + 5]);
+                    leftCount += mBinCount[b];
+                }
+
+                final int rightCount = count - leftCount;
+                if (leftCount == 0 || rightCount == 0) {
+                    continue;
+                }
+
+                final float cost = TRAVERSAL_COST + INTERSECTION_COST
+                        * (area(lMinX, lMinY, lMinZ, lMaxX, lMaxY, lMaxZ) * leftCount
+                        + mRightArea[b + 1] * rightCount) / parentArea;
+
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestAxis = axis;
+                    bestSplit = b;
+                }
+            }
+        }
+
+        if (bestAxis < 0) {
+            return;
+        }
+
+        // partition primitives in place
+        final float min = bestAxis == 0 ? cMinX : (bestAxis == 1 ? cMinY : cMinZ);
+        final float max = bestAxis == 0 ? cMaxX : (bestAxis == 1 ? cMaxY : cMaxZ);
+        final float scale = NUM_BINS / (max - min);
+
+        int i = first;
+        int j = first + count - 1;
+
+        while (i <= j) {
+            if (binIndex(mCentroids[mPrimIndices[i] * 3 + bestAxis], min, scale) <= bestSplit) {
+                ++i;
+            } else {
+                final int tmp = mPrimIndices[i];
+                mPrimIndices[i] = mPrimIndices[j];
+                mPrimIndices[j--] = tmp;
+            }
+        }
+
+        final int leftCount = i - first;
+        final int left = allocateNode(first, leftCount);
+        allocateNode(i, count - leftCount);
+        mNodeLeft[node] = left;
+
+        buildNode(boxes, left, depth + 1);
+        buildNode(boxes, left + 1, depth + 1);
+    }
+
+    private void fillBins(final float[] boxes, int first, int count, int axis, float min, float scale) {
+        for (int b = 0; b < NUM_BINS; ++b) {
+            final int o = b * BOX_STRIDE;
+            mBinCount[b] = 0;
+            mBinBounds[o + 0] = mBinBounds[o + 1] = mBinBounds[o + 2] = Float.MAX_VALUE;
+            mBinBounds[o + 3] = mBinBounds[o + 4] = mBinBounds[o + 5] = -Float.MAX_VALUE;
+        }
+
+        for (int i = first; i < first + count; ++i) {
+            final int prim = mPrimIndices[i];
+            final int b = binIndex(mCentroids[prim * 3 + axis], min, scale);
+            final int o = b * BOX_STRIDE;
+            final int p = prim * BOX_STRIDE;
+
+            ++mBinCount[b];
+            mBinBounds[o + 0] = Math.min(mBinBounds[o + 0], boxes[p + 0]);
+            mBinBounds[o + 1] = Math.min(mBinBounds[o + 1], boxes[p + 1]);
+            mBinBounds[o + 2] = Math.min(mBinBounds[o + 2], boxes[p + 2]);
+            mBinBounds[o + 3] = Math.max(mBinBounds[o + 3], boxes[p + 3]);
+            mBinBounds[o + 4] = Math.max(mBinBounds[o + 4], boxes[p + 4]);
+            mBinBounds[o + 5] = Math.max(mBinBounds[o + 5], boxes[p + 5]);
+        }
+    }
+
+    private static int binIndex(float centroid, float min, float scale) {
+        return Math.min(NUM_BINS - 1, (int)((centroid - min) * scale));
+    }
+
+    private void computeLeafBounds(final float[] boxes, int node) {
+        final int o = node * BOX_STRIDE;
+        final int first = mNodeFirst[node];
+        final int end = first + mNodeCount[node];
+
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+
+        for (int i = first; i < end; ++i) {
+            final int p = mPrimIndices[i] * BOX_STRIDE;
+            minX = Math.min(minX, boxes[p + 0]);
+            minY = Math.min(minY, boxes[p + 1]);
+            minZ = Math.min(minZ, boxes[p + 2]);
+            maxX = Math.max(maxX, boxes[p + 3]);
+            maxY = Math.max(maxY, boxes[p + 4]);
+            maxZ = Math.max(maxZ, boxes[p + 5]);
+        }
+
+        mNodeBounds[o + 0] = minX;
+        mNodeBounds[o + 1] = minY;
+        mNodeBounds[o + 2] = minZ;
+        mNodeBounds[o + 3] = maxX;
+        mNodeBounds[o + 4] = maxY;
+        mNodeBounds[o + 5] = maxZ;
+    }
+
+    private void setUnion(int node, int a, int b) {
+        final int o = node * BOX_STRIDE;
+        final int oa = a * BOX_STRIDE;
+        final int ob = b * BOX_STRIDE;
+
+        for (int i = 0; i < 3; ++i) {
+            mNodeBounds[o + i] = Math.min(mNodeBounds[oa + i], mNodeBounds[ob + i]);
+            mNodeBounds[o + 3 + i] = Math.max(mNodeBounds[oa + 3 + i], mNodeBounds[ob + 3 + i]);
+        }
+    }
+
+    private float computeCost() {
+        if (mNumNodes == 0) {
+            return 0;
+        }
+
+        final float rootArea = Math.max(area(mNodeBounds, 0), Float.MIN_VALUE);
+        float cost = 0;
+
+        for (int node = 0; node < mNumNodes; ++node) {
+            final float relativeArea = area(mNodeBounds, node * BOX_STRIDE) / rootArea;
+
+            if (mNodeLeft[node] < 0) {
+                cost += relativeArea * mNodeCount[node] * INTERSECTION_COST;
+            } else {
+                cost += relativeArea * TRAVERSAL_COST;
+            }
+        }
+        return cost;
+    }
+
+    private static float area(final float[] box, int o) {
+        return area(box[o + 0], box[o + 1], box[o + 2], box[o + 3], box[o + 4], box[o + 5]);
+    }
+
+    private static float area(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        final float dx = maxX - minX;
+        final float dy = maxY - minY;
+        final float dz = maxZ - minZ;
+
+        if (dx < 0 || dy < 0 || dz < 0) {
+            return 0;
+        }
+        return 2.0f * (dx*dy + dy*dz + dz*dx);
+    }
+}
@@ -1,7 +1,5 @@
 package com.jradek.camera;
 
-import android.opengl.Matrix;
-
 /**
  * This class represents a camera for 3D views. Cameras are defined with
  * a position and three mutually-orthogonal axes, namely look (points in the
@@ -9,6 +7,9 @@ import android.opengl.Matrix;
  * and up (points to the top of the camera).
  */
 public abstract class Camera {
+    static final float NEAR_PLANE = 0.1f;
+    static final float FAR_PLANE = 100f;
+
     protected final float[] mViewMatrix = new float[16];
     protected final float[] mProjectionMatrix = new float[16];
 
@@ -20,7 +21,20 @@ public abstract class Camera {
     protected float mFovyDegree = 45f;
     protected float mAspectRatio = 4f / 3f;
 
+    /**
+     * incremented whenever the view or projection matrix changes
+     */
+    private int mViewVersion = 0;
+    private int mProjectionVersion = 0;
+
+    private final float[] mViewProjectionMatrix = new float[16];
+    private final float[] mInverseViewProjectionMatrix = new float[16];
+    private int mViewProjectionVersion = -1;
+    private int mInverseViewProjectionVersion = -1;
+
     private final float[] mHelp2Vectors = new float[8];
+    private final float[] mHelpMatrices = new float[32];
+    private final vec3 mHelpBackward = new vec3(0, 0, 0);
 
     /**
      * Changes the view to be that of the camera.
@@ -34,7 +48,12 @@ public abstract class Camera {
      * @param aspectRatio aspect ratio (width / height)
      */
     public void setupProjection(float fovyDegree, float aspectRatio) {
-        Matrix.perspectiveM(mProjectionMatrix, 0, fovyDegree, aspectRatio, 0.1f, 100f);
+        if (mProjectionVersion > 0 && fovyDegree == mFovyDegree && aspectRatio == mAspectRatio) {
+            return;
+        }
+
+        ++mProjectionVersion;
+        Matrix4f.setPerspective(mProjectionMatrix, 0, fovyDegree, aspectRatio, NEAR_PLANE, FAR_PLANE);
 
         mAspectRatio = aspectRatio;
         mFovyDegree = fovyDegree;
@@ -48,6 +67,29 @@ public abstract class Camera {
         return mAspectRatio;
     }
 
+    /**
+     * @param result receives the position
+     * @return result
+     */
+    public vec3 getPosition(vec3 result) {
+        result.x = mPosition.x;
+        result.y = mPosition.y;
+        result.z = mPosition.z;
+        return result;
+    }
+
+    /**
+     * @param result receives the rotation from camera space (x = right,
+     * y = up, z = -look) to world space
+     * @return result
+     */
+    public quat getOrientation(quat result) {
+        mHelpBackward.x = -mLook.x;
+        mHelpBackward.y = -mLook.y;
+        mHelpBackward.z = -mLook.z;
+        return result.setFromAxes(mRight, mUp, mHelpBackward);
+    }
+
     public float[] getViewMatrix() {
         return mViewMatrix;
     }
@@ -56,13 +98,109 @@ public abstract class Camera {
         return mProjectionMatrix;
     }
 
+    public int getViewVersion() {
+        return mViewVersion;
+    }
+
+    public int getProjectionVersion() {
+        return mProjectionVersion;
+    }
+
+    /**
+     * @return a number which changes whenever the view or the projection
+     * changes, i.e. results derived from the camera can be reused as long as
+     * it stays the same
+     */
+    public int getVersion() {
+        return mViewVersion + mProjectionVersion;
+    }
+
+    /**
+     * @return projection * view, only recomputed after the camera changed
+     */
+    public float[] getViewProjectionMatrix() {
+        final int version = getVersion();
+        if (mViewProjectionVersion != version) {
+            Matrix4f.multiplyPerspectiveAffine(mViewProjectionMatrix, 0, mProjectionMatrix, 0,
+                    mViewMatrix, 0);
+            mViewProjectionVersion = version;
+        }
+        return mViewProjectionMatrix;
+    }
+
+    /**
+     * @return inverse of projection * view, e.g. to unproject screen
+     * coordinates, only recomputed after the camera changed
+     */
+    public float[] getInverseViewProjectionMatrix() {
+        final int version = getVersion();
+        if (mInverseViewProjectionVersion != version) {
+            // (P * V)^-1 = V^-1 * P^-1, both of which have a closed form
+            Matrix4f.invertRigid(mHelpMatrices, 0, mViewMatrix, 0);
+            Matrix4f.invertPerspective(mHelpMatrices, 16, mProjectionMatrix, 0);
+            Matrix4f.multiply(mInverseViewProjectionMatrix, 0, mHelpMatrices, 0, mHelpMatrices, 16);
+            mInverseViewProjectionVersion = version;
+        }
+        return mInverseViewProjectionMatrix;
+    }
+
+    /**
+     * Remembers the current state as the previous one, see
+     * {@link #interpolateView}. Called before every fixed time step.
+     */
+    public abstract void storeState();
+
+    /**
+     * Writes the view matrix of a state between the stored and the current
+     * one, without changing the camera. Used to render in between two fixed
+     * time steps.
+     *
+     * @param alpha 0 for the stored state, 1 for the current one
+     * @param viewMatrix receives the view matrix
+     */
+    public abstract void interpolateView(float alpha, float[] viewMatrix);
+
+    /**
+     * Writes the view matrix directly from position and axes. Equivalent to
+     * Matrix.setLookAtM, but requires look, up and right to be orthonormal
+     * already.
+     */
+    protected void updateViewMatrix() {
+        ++mViewVersion;
+        setViewMatrix(mViewMatrix, mRight, mUp, mLook, mPosition);
+    }
+
+    protected static void setViewMatrix(float[] m, final vec3 right, final vec3 up,
+            final vec3 look, final vec3 position) {
+        m[0] = (float)right.x;
+        m[4] = (float)right.y;
+        m[8] = (float)right.z;
+
+        m[1] = (float)up.x;
+        m[5] = (float)up.y;
+        m[9] = (float)up.z;
+
+        m[2] = (float)-look.x;
+        m[6] = (float)-look.y;
+        m[10] = (float)-look.z;
+
+        m[12] = (float)-right.dot(position);
+        m[13] = (float)-up.dot(position);
+        m[14] = (float)look.dot(position);
+
+        m[3] = 0;
+        m[7] = 0;
+        m[11] = 0;
+        m[15] = 1;
+    }
+
     protected void rotateVector(vec3 srcDest, float[] matrix) {
         mHelp2Vectors[0 + 0] = (float)srcDest.x;
         mHelp2Vectors[0 + 1] = (float)srcDest.y;
         mHelp2Vectors[0 + 2] = (float)srcDest.z;
         mHelp2Vectors[0 + 3] = 0;
 
-        Matrix.multiplyMV(mHelp2Vectors, 4, matrix, 0, mHelp2Vectors, 0);
+        Matrix4f.multiplyVector(mHelp2Vectors, 4, matrix, 0, mHelp2Vectors, 0);
 
         srcDest.x = mHelp2Vectors[4 + 0];
         srcDest.y = mHelp2Vectors[4 + 1];
@@ -0,0 +1,95 @@
+package com.jradek.camera;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Accumulates camera input of the UI thread until the GL thread applies it.
+ *
+ * Every axis is a float, stored as its raw int bits in an atomic slot. The
+ * producer adds to a slot with compare-and-set, the consumer drains it with
+ * getAndSet(0), so any number of clicks between two frames end up in one
+ * camera update. Neither side locks nor allocates.
+ *
+ * Meant for one producer (the UI thread) and one consumer (the GL thread).
+ */
+public class CameraInput {
+    public static final int WALK = 0;
+    public static final int STRAFE = 1;
+    public static final int LIFT = 2;
+    public static final int ROLL = 3;
+    public static final int PITCH = 4;
+    public static final int YAW = 5;
+
+    static final int NUM_AXES = 6;
+
+    private static final int ZERO_BITS = Float.floatToRawIntBits(0.0f);
+
+    private final AtomicIntegerArray mDeltas = new AtomicIntegerArray(NUM_AXES);
+    private final AtomicBoolean mResetRequested = new AtomicBoolean(false);
+
+    /**
+     * UI thread: adds to the pending movement.
+     */
+    public void move(float walk, float strafe, float lift) {
+        add(WALK, walk);
+        add(STRAFE, strafe);
+        add(LIFT, lift);
+    }
+
+    /**
+     * UI thread: adds to the pending rotation, in degree.
+     */
+    public void rotate(float rollDegree, float pitchDegree, float yawDegree) {
+        add(ROLL, rollDegree);
+        add(PITCH, pitchDegree);
+        add(YAW, yawDegree);
+    }
+
+    /**
+     * UI thread: requests a camera reset, dropping the input pending so far.
+     */
+    public void reset() {
+        for (int i = 0; i < NUM_AXES; ++i) {
+            mDeltas.set(i, ZERO_BITS);
+        }
+        mResetRequested.set(true);
+    }
+
+    private void add(int axis, float delta) {
+        if (delta == 0.0f) {
+            return;
+        }
+
+        while (true) {
+            final int bits = mDeltas.get(axis);
+            final int sum = Float.floatToRawIntBits(Float.intBitsToFloat(bits) + delta);
+            if (mDeltas.compareAndSet(axis, bits, sum)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * GL thread: takes the reset request.
+     * @return true if a reset was requested since the last call
+     */
+    public boolean drainReset() {
+        return mResetRequested.getAndSet(false);
+    }
+
+    /**
+     * GL thread: takes all pending deltas.
+     * @param deltas receives NUM_AXES values, indexed by WALK ... YAW
+     * @return true if any delta is not zero
+     */
+    public boolean drain(float[] deltas) {
+        boolean pending = false;
+
+        for (int i = 0; i < NUM_AXES; ++i) {
+            deltas[i] = Float.intBitsToFloat(mDeltas.getAndSet(i, ZERO_BITS));
+            pending |= deltas[i] != 0.0f;
+        }
+        return pending;
+    }
+}
@@ -0,0 +1,150 @@
+package com.jradek.camera;
+
+/**
+ * Turns discrete input steps into smooth, damped camera motion.
+ *
+ * Every axis has a velocity which decays exponentially. An impulse of d
+ * sets the velocity such that the motion sums up to exactly d, so a click
+ * moves the camera as far as before, just not at once.
+ *
+ * Time advances in fixed steps of {@link #TIME_STEP}, independent of the
+ * frame rate. {@link #getAlpha()} tells how far the frame is between the
+ * last two steps, for {@link Camera#interpolateView}.
+ */
+public class CameraMotion {
+    /** simulation step [s] */
+    public static final float TIME_STEP = 1.0f / 120.0f;
+
+    /** more steps per frame are dropped, e.g. after a stall */
+    static final int MAX_STEPS_PER_FRAME = 8;
+
+    private final int mNumAxes;
+    private final float[] mVelocity;
+
+    private float mDecay;
+    private float mEnergyThreshold = 1e-4f;
+
+    private float mAccumulator = 0.0f;
+    private boolean mMoving = false;
+    private boolean mStarting = false;
+
+    /**
+     * @param numAxes number of independent axes
+     * @param damping velocity decay rate [1/s], larger stops sooner
+     */
+    public CameraMotion(int numAxes, float damping) {
+        mNumAxes = numAxes;
+        mVelocity = new float[numAxes];
+        setDamping(damping);
+    }
+
+    public void setDamping(float damping) {
+        mDecay = (float)Math.exp(-damping * TIME_STEP);
+    }
+
+    /**
+     * @param threshold energy below which the motion stops, see
+     * {@link #getEnergy()}
+     */
+    public void setEnergyThreshold(float threshold) {
+        mEnergyThreshold = threshold;
+    }
+
+    /**
+     * Adds impulses, moving every axis by its delta in total.
+     * @param deltas one value per axis
+     */
+    public void addImpulse(final float[] deltas) {
+        // sum of v * dt * decay^i over all steps i is v * dt / (1 - decay)
+        final float scale = (1.0f - mDecay) / TIME_STEP;
+
+        for (int i = 0; i < mNumAxes; ++i) {
+            mVelocity[i] += deltas[i] * scale;
+        }
+        if (!mMoving && getEnergy() > mEnergyThreshold) {
+            mMoving = true;
+            mStarting = true;
+        }
+    }
+
+    /**
+     * Stops all motion immediately.
+     */
+    public void stop() {
+        java.util.Arrays.fill(mVelocity, 0.0f);
+        mAccumulator = 0.0f;
+        mMoving = false;
+        mStarting = false;
+    }
+
+    /**
+     * @return sum of squared velocities
+     */
+    public float getEnergy() {
+        float energy = 0.0f;
+        for (int i = 0; i < mNumAxes; ++i) {
+            energy += mVelocity[i] * mVelocity[i];
+        }
+        return energy;
+    }
+
+    /**
+     * @return true as long as the energy is above the threshold, i.e. frames
+     * have to be rendered continuously
+     */
+    public boolean isMoving() {
+        return mMoving;
+    }
+
+    /**
+     * Advances the time by the frame time.
+     * @param elapsedSeconds time since the last frame
+     * @return number of steps to take with {@link #step}
+     */
+    public int advance(float elapsedSeconds) {
+        if (!mMoving) {
+            mAccumulator = 0.0f;
+            return 0;
+        }
+
+        if (mStarting) {
+            // the time since the last frame was spent idle, respond at once
+            mStarting = false;
+            elapsedSeconds = TIME_STEP;
+        }
+
+        mAccumulator += elapsedSeconds;
+
+        int steps = (int)(mAccumulator / TIME_STEP);
+        mAccumulator -= steps * TIME_STEP;
+
+        if (steps > MAX_STEPS_PER_FRAME) {
+            steps = MAX_STEPS_PER_FRAME;
+        }
+        return steps;
+    }
+
+    /**
+     * Takes one time step.
+     * @param displacements receives the displacement of every axis
+     */
+    public void step(float[] displacements) {
+        for (int i = 0; i < mNumAxes; ++i) {
+            displacements[i] = mVelocity[i] * TIME_STEP;
+            mVelocity[i] *= mDecay;
+        }
+
+        if (getEnergy() <= mEnergyThreshold) {
+            // the remainder is negligible
+            stop();
+        }
+    }
+
+    /**
+     * @return position of the frame between the previous and the current
+     * step, in [0, 1), or 1 once the motion stopped
+     */
+    public float getAlpha() {
+        return mMoving ? mAccumulator / TIME_STEP : 1.0f;
+    }
+}
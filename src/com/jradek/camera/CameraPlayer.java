@@ -0,0 +1,144 @@
+package com.jradek.camera;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Replays a camera trace written by a {@link CameraRecorder}.
+ *
+ * The file is memory mapped and records are read in place, so even traces
+ * of several hours do not occupy the heap. Samples are looked up by binary
+ * search on their time stamps and interpolated, linearly for position,
+ * field of view and aspect ratio and spherically for the orientation.
+ *
+ * A single mapping is limited to 2 GB, i.e. roughly 45 million records.
+ */
+public class CameraPlayer {
+    private final MappedByteBuffer mData;
+    private final int mNumRecords;
+
+    private final quat mOrientation0 = new quat();
+    private final quat mOrientation1 = new quat();
+    private final vec3 mHelpPosition = new vec3(0, 0, 0);
+    private final vec3 mHelpRight = new vec3(0, 0, 0);
+    private final vec3 mHelpUp = new vec3(0, 0, 0);
+    private final vec3 mHelpLook = new vec3(0, 0, 0);
+
+    public CameraPlayer(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            // the mapping stays valid after the channel is closed
+            mData = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+        mData.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (mData.capacity() < CameraRecorder.HEADER_SIZE || mData.getInt(0) != CameraRecorder.MAGIC) {
+            throw new IOException("not a camera trace: " + file);
+        }
+        if (mData.getInt(4) != CameraRecorder.VERSION || mData.getInt(8) != CameraRecorder.RECORD_SIZE) {
+            throw new IOException("unsupported camera trace version " + mData.getInt(4) + ": " + file);
+        }
+
+        // a partially written last record is ignored
+        mNumRecords = (mData.capacity() - CameraRecorder.HEADER_SIZE) / CameraRecorder.RECORD_SIZE;
+        if (mNumRecords == 0) {
+            throw new IOException("empty camera trace: " + file);
+        }
+    }
+
+    public int getRecordCount() {
+        return mNumRecords;
+    }
+
+    public long getStartTime() {
+        return getTime(0);
+    }
+
+    public long getEndTime() {
+        return getTime(mNumRecords - 1);
+    }
+
+    private long getTime(int record) {
+        return mData.getLong(getOffset(record) + CameraRecorder.TIME);
+    }
+
+    /**
+     * @return index of the last record not after the given time, 0 if the
+     * time is before the first record
+     */
+    int findRecord(long timeNanos) {
+        int low = 0;
+        int high = mNumRecords - 1;
+
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (getTime(mid) <= timeNanos) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Computes the camera at the given time, clamped to the trace.
+     * @param timeNanos time in the clock of the trace, see {@link #getStartTime()}
+     * @param viewMatrix receives the view matrix
+     * @param projectionMatrix receives the projection matrix
+     */
+    public void sample(long timeNanos, float[] viewMatrix, float[] projectionMatrix) {
+        final int r0 = findRecord(timeNanos);
+        final int r1 = Math.min(r0 + 1, mNumRecords - 1);
+
+        final long t0 = getTime(r0);
+        final long t1 = getTime(r1);
+        final float alpha = t1 > t0
+                ? Math.max(0.0f, Math.min((float)(timeNanos - t0) / (t1 - t0), 1.0f))
+                : 0.0f;
+
+        final int o0 = getOffset(r0);
+        final int o1 = getOffset(r1);
+
+        mHelpPosition.x = interpolate(o0, o1, CameraRecorder.POSITION, alpha);
+        mHelpPosition.y = interpolate(o0, o1, CameraRecorder.POSITION + 4, alpha);
+        mHelpPosition.z = interpolate(o0, o1, CameraRecorder.POSITION + 8, alpha);
+
+        readOrientation(o0, mOrientation0);
+        readOrientation(o1, mOrientation1);
+        mOrientation0.slerp(mOrientation1, alpha);
+        mOrientation0.getAxes(mHelpRight, mHelpUp, mHelpLook);
+        mHelpLook.scale(-1);
+
+        Camera.setViewMatrix(viewMatrix, mHelpRight, mHelpUp, mHelpLook, mHelpPosition);
+
+        Matrix4f.setPerspective(projectionMatrix, 0,
+                interpolate(o0, o1, CameraRecorder.FOVY, alpha),
+                interpolate(o0, o1, CameraRecorder.ASPECT_RATIO, alpha),
+                Camera.NEAR_PLANE, Camera.FAR_PLANE);
+    }
+
+    private static int getOffset(int record) {
+        return CameraRecorder.HEADER_SIZE + record * CameraRecorder.RECORD_SIZE;
+    }
+
+    private float interpolate(int offset0, int offset1, int field, float alpha) {
+        final float a = mData.getFloat(offset0 + field);
+        final float b = mData.getFloat(offset1 + field);
+        return a + alpha * (b - a);
+    }
+
+    private void readOrientation(int offset, quat result) {
+        result.set(mData.getFloat(offset + CameraRecorder.ORIENTATION),
+                mData.getFloat(offset + CameraRecorder.ORIENTATION + 4),
+                mData.getFloat(offset + CameraRecorder.ORIENTATION + 8),
+                mData.getFloat(offset + CameraRecorder.ORIENTATION + 12));
+    }
+}
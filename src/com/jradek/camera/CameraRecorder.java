@@ -0,0 +1,130 @@
+package com.jradek.camera;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records camera states into a compact binary file, to be replayed by a
+ * {@link CameraPlayer}.
+ *
+ * The file is a header followed by records of a fixed size, all little
+ * endian:
+ *
+ * header: magic, version, record size (int each)
+ * record: time [ns] (long), position x, y, z, orientation x, y, z, w,
+ *         fovy [degree], aspect ratio (float each)
+ *
+ * Records are collected in a direct buffer and written in blocks, so
+ * recording does not allocate per sample.
+ */
+public class CameraRecorder {
+    static final int MAGIC = 0x524d4143; // "CAMR"
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 3 * 4;
+    static final int RECORD_SIZE = 8 + 9 * 4;
+
+    // offsets within a record
+    static final int TIME = 0;
+    static final int POSITION = 8;
+    static final int ORIENTATION = POSITION + 3 * 4;
+    static final int FOVY = ORIENTATION + 4 * 4;
+    static final int ASPECT_RATIO = FOVY + 4;
+
+    private static final int RECORDS_PER_BLOCK = 256;
+
+    private final FileOutputStream mStream;
+    private final FileChannel mChannel;
+    private final ByteBuffer mBlock;
+
+    private final vec3 mHelpPosition = new vec3(0, 0, 0);
+    private final quat mHelpOrientation = new quat();
+    private final vec3 mHelpRight = new vec3(0, 0, 0);
+    private final vec3 mHelpUp = new vec3(0, 0, 0);
+    private final vec3 mHelpBack = new vec3(0, 0, 0);
+
+    private int mNumRecords = 0;
+
+    public CameraRecorder(File file) throws IOException {
+        mStream = new FileOutputStream(file);
+        mChannel = mStream.getChannel();
+        mBlock = ByteBuffer.allocateDirect(RECORDS_PER_BLOCK * RECORD_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        mBlock.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE);
+    }
+
+    /**
+     * Records the camera as drawn, e.g. interpolated between two steps.
+     * @param timeNanos time of the sample, e.g. from System.nanoTime()
+     * @param viewMatrix a rigid view matrix
+     * @param projectionMatrix a projection from {@link Matrix4f#setPerspective}
+     */
+    public void record(long timeNanos, final float[] viewMatrix, final float[] projectionMatrix)
+            throws IOException {
+        final float[] m = viewMatrix;
+
+        // the rows of the rotation are the camera axes, the camera looks along -z
+        mHelpRight.x = m[0];
+        mHelpRight.y = m[4];
+        mHelpRight.z = m[8];
+        mHelpUp.x = m[1];
+        mHelpUp.y = m[5];
+        mHelpUp.z = m[9];
+        mHelpBack.x = m[2];
+        mHelpBack.y = m[6];
+        mHelpBack.z = m[10];
+        mHelpOrientation.setFromAxes(mHelpRight, mHelpUp, mHelpBack).normalize();
+
+        // the translation is the position rotated into the camera, negated
+        mHelpPosition.x = -(m[0] * m[12] + m[1] * m[13] + m[2] * m[14]);
+        mHelpPosition.y = -(m[4] * m[12] + m[5] * m[13] + m[6] * m[14]);
+        mHelpPosition.z = -(m[8] * m[12] + m[9] * m[13] + m[10] * m[14]);
+
+        final float fovyDegree = (float) Math.toDegrees(2.0 * Math.atan(1.0 / projectionMatrix[5]));
+        final float aspectRatio = projectionMatrix[5] / projectionMatrix[0];
+        record(timeNanos, mHelpPosition, mHelpOrientation, fovyDegree, aspectRatio);
+    }
+
+    public void record(long timeNanos, final vec3 position, final quat orientation,
+            float fovyDegree, float aspectRatio) throws IOException {
+        if (mBlock.remaining() < RECORD_SIZE) {
+            flush();
+        }
+
+        mBlock.putLong(timeNanos);
+        mBlock.putFloat((float)position.x).putFloat((float)position.y).putFloat((float)position.z);
+        mBlock.putFloat((float)orientation.x).putFloat((float)orientation.y)
+                .putFloat((float)orientation.z).putFloat((float)orientation.w);
+        mBlock.putFloat(fovyDegree).putFloat(aspectRatio);
+
+        ++mNumRecords;
+    }
+
+    public int getRecordCount() {
+        return mNumRecords;
+    }
+
+    /**
+     * Writes all pending records.
+     */
+    public void flush() throws IOException {
+        mBlock.flip();
+        while (mBlock.hasRemaining()) {
+            mChannel.write(mBlock);
+        }
+        mBlock.clear();
+    }
+
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            mStream.close();
+        }
+    }
+}
@@ -2,10 +2,13 @@ package com.jradek.camera;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
 
 import android.opengl.GLES20;
 
+/**
+ * Grid of lines in the x-z-plane plus the unit axes, drawn from one buffer
+ * of quantized positions and 16 bit indices.
+ */
 public class CheckerBoard {
     static final int COORDS_PER_VERTEX = 3;
 
@@ -30,17 +33,19 @@ public class CheckerBoard {
 
     private final int mNumTilesPerSide;
     private final float mTileLenght;
-    private final int mNumVertices;
+    private final int mNumBoardIndices;
 
-    private final FloatBuffer mBoardVertexBuffer;
-    private final FloatBuffer mAxisVertexBuffer;
+    private final VertexBuffer mVertexBuffer;
+    private final IndexBuffer mIndexBuffer;
+    private final BoundingBox mBounds = new BoundingBox();
+    private final PositionQuantizer mQuantizer;
 
-    private final int mShaderProgram;
-    private final int mMVPMatrixHandle;
-    private final int mPositionHandle;
-    private final int mColorHandle;
+    private final ShaderProgram mShaderProgram;
+    private final int mMVPMatrixLocation;
+    private final int mColorLocation;
+    private final int mPositionLocation;
 
-    public CheckerBoard(int numTilesPerSide, float tileLength) {
+    public CheckerBoard(GlApi gl, ShaderCache shaderCache, int numTilesPerSide, float tileLength) {
         if (numTilesPerSide < 2) {
             numTilesPerSide = 10;
         }
@@ -56,113 +61,71 @@ public class CheckerBoard {
         mNumTilesPerSide = numTilesPerSide;
         mTileLenght = tileLength;
 
-        { // board
-            final int numLines = (mNumTilesPerSide + 1) * 2;
-            mNumVertices = numLines * 2;
+        {   // board and axes
+            final float[] vertexData = CheckerBoardGeometry.createVertices(mNumTilesPerSide, mTileLenght);
+            final int numVertices = vertexData.length / COORDS_PER_VERTEX;
+            mBounds.include(vertexData, 0, numVertices, COORDS_PER_VERTEX);
 
-            float[] vertexData = new float[mNumVertices * COORDS_PER_VERTEX];
-            int offset = 0;
-
-            // lines parallel to x-axis
-            final float maxCoord = (mNumTilesPerSide / 2) * mTileLenght;
-            final float minCoord = -maxCoord;
-
-            for (int i = 0; i < (numTilesPerSide + 1); ++i) {
-                // parallel x-axis (left to right)
-                vertexData[offset++] = minCoord;
-                vertexData[offset++] = 0.0f;
-                vertexData[offset++] = minCoord + (i * mTileLenght);
-
-                vertexData[offset++] = maxCoord;
-                vertexData[offset++] = 0.0f;
-                vertexData[offset++] = minCoord + (i * mTileLenght);
-
-                // parallel z-axis (back to front)
-                vertexData[offset++] = minCoord + (i * mTileLenght);
-                vertexData[offset++] = 0.0f;
-                vertexData[offset++] = minCoord;
-
-                vertexData[offset++] = minCoord + (i * mTileLenght);
-                vertexData[offset++] = 0.0f;
-                vertexData[offset++] = maxCoord;
+            mQuantizer = new PositionQuantizer(mBounds);
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(numVertices * VertexFormat.SHORT3.getStride())
+                    .order(ByteOrder.nativeOrder());
+            for (int i = 0; i < vertexData.length; i += COORDS_PER_VERTEX) {
+                mQuantizer.put(buffer, vertexData[i], vertexData[i + 1], vertexData[i + 2]);
             }
+            buffer.flip();
 
-            mBoardVertexBuffer = ByteBuffer.allocateDirect(vertexData.length * Util.BYTES_PER_FLOAT)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-            mBoardVertexBuffer.put(vertexData);
-        }
+            mVertexBuffer = new VertexBuffer(gl, buffer, BufferObject.Usage.Static);
 
-        {   // axes
-            float[] vertexData = {
-                    // x-axis
-                    +0.0f, +0.0f, +0.0f,
-                    +1.0f, +0.0f, +0.0f,
-                    // y-axis
-                    +0.0f, +0.0f, +0.0f,
-                    +0.0f, +1.0f, +0.0f,
-                    // z-axis
-                    +0.0f, +0.0f, +0.0f,
-                    +0.0f, +0.0f, +1.0f
-            };
-
-            mAxisVertexBuffer = ByteBuffer.allocateDirect(vertexData.length * Util.BYTES_PER_FLOAT)
-                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
-            mAxisVertexBuffer.put(vertexData);
+            final int[] indices = CheckerBoardGeometry.createIndices(mNumTilesPerSide);
+            mNumBoardIndices = CheckerBoardGeometry.getBoardIndexCount(mNumTilesPerSide);
+            mIndexBuffer = new IndexBuffer(gl, indices, indices.length, numVertices, BufferObject.Usage.Static);
         }
 
         {   // shader program
-            int vertexShader = Util.loadShader(GLES20.GL_VERTEX_SHADER, vertexShaderCode);
-            int fragmentShader = Util.loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentShaderCode);
-
-            mShaderProgram = GLES20.glCreateProgram();
-            GLES20.glAttachShader(mShaderProgram, vertexShader);
-            GLES20.glAttachShader(mShaderProgram, fragmentShader);
-            GLES20.glLinkProgram(mShaderProgram);
-
-            // setup handles
-            mMVPMatrixHandle = GLES20.glGetUniformLocation(mShaderProgram, "uMVPMatrix");
-            mColorHandle = GLES20.glGetUniformLocation(mShaderProgram, "uColor");
-            mPositionHandle = GLES20.glGetAttribLocation(mShaderProgram, "aPosition");
+            mShaderProgram = shaderCache.getProgram(vertexShaderCode, fragmentShaderCode);
+
+            // resolved up front, so recording does not need the GL
+            mMVPMatrixLocation = mShaderProgram.getUniformLocation("uMVPMatrix");
+            mColorLocation = mShaderProgram.getUniformLocation("uColor");
+            mPositionLocation = mShaderProgram.getAttribLocation("aPosition");
         }
     }
 
-    public void draw(float[] mvpMatrix) {
-        GLES20.glUseProgram(mShaderProgram);
-
-        // board
-        mBoardVertexBuffer.position(0);
-        GLES20.glVertexAttribPointer(mPositionHandle, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0,
-                mBoardVertexBuffer);
-
-        GLES20.glEnableVertexAttribArray(mPositionHandle);
-
-        GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mvpMatrix, 0);
+    /**
+     * @return bounds of board and axes in world coordinates
+     */
+    public BoundingBox getBounds() {
+        return mBounds;
+    }
 
-        GLES20.glUniform4fv(mColorHandle, 1, colorGray, 0);
-        GLES20.glDrawArrays(GLES20.GL_LINES, 0, mNumVertices);
+    /**
+     * Records board and axes, drawn with the view projection matrix of the
+     * replay. The commands stay valid as long as the board exists, so they
+     * only have to be recorded once. Can be called on any thread.
+     */
+    public void record(CommandBuffer commands) {
+        commands.useProgram(mShaderProgram.getHandle())
+                .uniformViewProjectionTransformed(mMVPMatrixLocation,
+                        mQuantizer.getOffset(0), mQuantizer.getOffset(1), mQuantizer.getOffset(2),
+                        mQuantizer.getScale(0), mQuantizer.getScale(1), mQuantizer.getScale(2))
+                .enableAttrib(mPositionLocation)
+                .bindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBuffer.getHandle());
+        VertexFormat.SHORT3.attribPointer(commands, mPositionLocation)
+                .bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBuffer.getHandle());
+
+        final int type = mIndexBuffer.getType();
+        final int bytesPerIndex = mIndexBuffer.getBytesPerIndex();
 
-        GLES20.glDisableVertexAttribArray(mPositionHandle);
+        // board
+        commands.uniform4(mColorLocation, colorGray, 0)
+                .drawElements(GLES20.GL_LINES, mNumBoardIndices, type, 0);
 
         // axis
-        mAxisVertexBuffer.position(0);
-        GLES20.glVertexAttribPointer(mPositionHandle, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0,
-                mAxisVertexBuffer);
-
-        GLES20.glEnableVertexAttribArray(mPositionHandle);
-        GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mvpMatrix, 0);
-
-        // x
-        GLES20.glUniform4fv(mColorHandle, 1, colorRed, 0);
-        GLES20.glDrawArrays(GLES20.GL_LINES, 0, 2);
-
-        // y
-        GLES20.glUniform4fv(mColorHandle, 1, colorGreen, 0);
-        GLES20.glDrawArrays(GLES20.GL_LINES, 2, 2);
-
-        // z
-        GLES20.glUniform4fv(mColorHandle, 1, colorBlue, 0);
-        GLES20.glDrawArrays(GLES20.GL_LINES, 4, 2);
-
-        GLES20.glDisableVertexAttribArray(mPositionHandle);
+        commands.uniform4(mColorLocation, colorRed, 0)
+                .drawElements(GLES20.GL_LINES, 2, type, (mNumBoardIndices + 0) * bytesPerIndex)
+                .uniform4(mColorLocation, colorGreen, 0)
+                .drawElements(GLES20.GL_LINES, 2, type, (mNumBoardIndices + 2) * bytesPerIndex)
+                .uniform4(mColorLocation, colorBlue, 0)
+                .drawElements(GLES20.GL_LINES, 2, type, (mNumBoardIndices + 4) * bytesPerIndex);
     }
 }
@@ -0,0 +1,114 @@
+package com.jradek.camera;
+
+/**
+ * Vertex and index data of the {@link CheckerBoard}, x, y, z per vertex,
+ * kept free of GL so it can be generated and measured without a context.
+ *
+ * Board and axes share one indexed vertex array. The lines of the board end
+ * on its border, where every point is stored once, followed by the origin
+ * and the tips of the axes.
+ */
+final class CheckerBoardGeometry {
+    static final int COORDS_PER_VERTEX = 3;
+    static final int NUM_AXIS_VERTICES = 4;
+    /** x-, y- and z-axis as line segments */
+    static final int NUM_AXIS_INDICES = 6;
+
+    private CheckerBoardGeometry() {
+    }
+
+    static int getBoardVertexCount(int numTilesPerSide) {
+        return 4 * numTilesPerSide;
+    }
+
+    static int getBoardIndexCount(int numTilesPerSide) {
+        return 4 * (numTilesPerSide + 1);
+    }
+
+    /**
+     * @param numTilesPerSide number of tiles along x and z, even
+     * @param tileLength edge length of a tile
+     * @return border points of the board in the x-z-plane, centered at the
+     * origin, followed by the origin and the tips of the unit axes
+     */
+    static float[] createVertices(int numTilesPerSide, float tileLength) {
+        final int numVertices = getBoardVertexCount(numTilesPerSide) + NUM_AXIS_VERTICES;
+        final float[] vertexData = new float[numVertices * COORDS_PER_VERTEX];
+        int offset = 0;
+
+        final float maxCoord = (numTilesPerSide / 2) * tileLength;
+        final float minCoord = -maxCoord;
+
+        // left and right edge, with the corners
+        for (int i = 0; i < (numTilesPerSide + 1); ++i) {
+            offset = put(vertexData, offset, minCoord, 0.0f, minCoord + (i * tileLength));
+        }
+        for (int i = 0; i < (numTilesPerSide + 1); ++i) {
+            offset = put(vertexData, offset, maxCoord, 0.0f, minCoord + (i * tileLength));
+        }
+
+        // back and front edge, without the corners
+        for (int i = 1; i < numTilesPerSide; ++i) {
+            offset = put(vertexData, offset, minCoord + (i * tileLength), 0.0f, minCoord);
+        }
+        for (int i = 1; i < numTilesPerSide; ++i) {
+            offset = put(vertexData, offset, minCoord + (i * tileLength), 0.0f, maxCoord);
+        }
+
+        // axes
+        offset = put(vertexData, offset, 0.0f, 0.0f, 0.0f);
+        offset = put(vertexData, offset, 1.0f, 0.0f, 0.0f);
+        offset = put(vertexData, offset, 0.0f, 1.0f, 0.0f);
+        put(vertexData, offset, 0.0f, 0.0f, 1.0f);
+
+        return vertexData;
+    }
+
+    /**
+     * @param numTilesPerSide number of tiles along x and z, even
+     * @return line segments of the board, followed by the x-, y- and z-axis,
+     * indexing {@link #createVertices}
+     */
+    static int[] createIndices(int numTilesPerSide) {
+        final int[] indices = new int[getBoardIndexCount(numTilesPerSide) + NUM_AXIS_INDICES];
+        int offset = 0;
+
+        final int left = 0;
+        final int right = numTilesPerSide + 1;
+        final int back = 2 * (numTilesPerSide + 1);
+        final int front = back + numTilesPerSide - 1;
+
+        for (int i = 0; i < (numTilesPerSide + 1); ++i) {
+            // parallel x-axis (left to right)
+            indices[offset++] = left + i;
+            indices[offset++] = right + i;
+
+            // parallel z-axis (back to front), corners are on the left and right edge
+            if (i == 0) {
+                indices[offset++] = left;
+                indices[offset++] = left + numTilesPerSide;
+            } else if (i == numTilesPerSide) {
+                indices[offset++] = right;
+                indices[offset++] = right + numTilesPerSide;
+            } else {
+                indices[offset++] = back + i - 1;
+                indices[offset++] = front + i - 1;
+            }
+        }
+
+        final int origin = getBoardVertexCount(numTilesPerSide);
+        for (int axis = 1; axis <= 3; ++axis) {
+            indices[offset++] = origin;
+            indices[offset++] = origin + axis;
+        }
+
+        return indices;
+    }
+
+    private static int put(float[] vertexData, int offset, float x, float y, float z) {
+        vertexData[offset++] = x;
+        vertexData[offset++] = y;
+        vertexData[offset++] = z;
+        return offset;
+    }
+}
@@ -0,0 +1,285 @@
+package com.jradek.camera;
+
+/**
+ * Recorded GL commands, replayed later on the GL thread.
+ *
+ * Commands are stored as opcodes and arguments in an int array, uniform
+ * values in a float array, so recording does not allocate once the arrays
+ * have grown. Recording does not touch the GL and can be done on any
+ * thread, as long as GL objects are referred to by handles and locations
+ * resolved beforehand.
+ *
+ * The view projection matrix is passed at replay time instead of being
+ * recorded, so a buffer of static content stays valid while only the
+ * camera changes and is replayed frame after frame without re-recording.
+ *
+ * {@link #finish()} publishes the recorded commands to the replaying
+ * thread. A buffer must not be recorded while it is replayed, use two
+ * buffers and swap them to record every frame.
+ */
+public class CommandBuffer {
+    static final int USE_PROGRAM = 1;
+    static final int BIND_BUFFER = 2;
+    static final int ENABLE_ATTRIB = 3;
+    static final int DISABLE_ATTRIB = 4;
+    static final int ATTRIB_POINTER = 5;
+    static final int UNIFORM_MATRIX = 6;
+    static final int UNIFORM_VIEW_PROJECTION = 7;
+    static final int UNIFORM_VIEW_PROJECTION_TRANSFORMED = 8;
+    static final int UNIFORM_4 = 9;
+    static final int DRAW_ARRAYS = 10;
+    static final int DRAW_ELEMENTS = 11;
+
+    private int[] mCommands;
+    private int mNumInts = 0;
+    private float[] mFloats;
+    private int mNumFloats = 0;
+
+    /** length of the command stream published by {@link #finish()} */
+    private volatile int mNumPublished = 0;
+
+    private final float[] mHelpMatrix = new float[16];
+
+    public CommandBuffer() {
+        this(256);
+    }
+
+    /**
+     * @param capacity initial size of the command stream in ints
+     */
+    public CommandBuffer(int capacity) {
+        mCommands = new int[Math.max(16, capacity)];
+        mFloats = new float[Math.max(16, capacity / 2)];
+    }
+
+    /**
+     * Drops all commands to record new ones.
+     */
+    public CommandBuffer clear() {
+        mNumInts = 0;
+        mNumFloats = 0;
+        return this;
+    }
+
+    /**
+     * Makes the commands recorded since the last {@link #clear()} visible
+     * to {@link #execute}, which may run on another thread.
+     */
+    public void finish() {
+        mNumPublished = mNumInts;
+    }
+
+    public boolean isEmpty() {
+        return mNumInts == 0;
+    }
+
+    public CommandBuffer useProgram(int program) {
+        put(USE_PROGRAM, program);
+        return this;
+    }
+
+    public CommandBuffer bindBuffer(int target, int buffer) {
+        put(BIND_BUFFER, target, buffer);
+        return this;
+    }
+
+    public CommandBuffer enableAttrib(int index) {
+        put(ENABLE_ATTRIB, index);
+        return this;
+    }
+
+    public CommandBuffer disableAttrib(int index) {
+        put(DISABLE_ATTRIB, index);
+        return this;
+    }
+
+    /**
+     * Points an attribute into the bound array buffer.
+     */
+    public CommandBuffer attribPointer(int index, int size, int type, boolean normalized,
+            int stride, int offset) {
+        reserveInts(7);
+        mCommands[mNumInts++] = ATTRIB_POINTER;
+        mCommands[mNumInts++] = index;
+        mCommands[mNumInts++] = size;
+        mCommands[mNumInts++] = type;
+        mCommands[mNumInts++] = normalized ? 1 : 0;
+        mCommands[mNumInts++] = stride;
+        mCommands[mNumInts++] = offset;
+        return this;
+    }
+
+    /**
+     * Uploads a matrix, copied now.
+     */
+    public CommandBuffer uniformMatrix(int location, final float[] matrix, int offset) {
+        put(UNIFORM_MATRIX, location, putFloats(matrix, offset, 16));
+        return this;
+    }
+
+    /**
+     * Uploads the view projection matrix passed to {@link #execute}.
+     */
+    public CommandBuffer uniformViewProjection(int location) {
+        put(UNIFORM_VIEW_PROJECTION, location);
+        return this;
+    }
+
+    /**
+     * Uploads the view projection matrix passed to {@link #execute},
+     * multiplied by a translation and a scale, e.g. to dequantize positions,
+     * see {@link Matrix4f#translateScale}.
+     */
+    public CommandBuffer uniformViewProjectionTransformed(int location, float x, float y, float z,
+            float sx, float sy, float sz) {
+        reserveFloats(6);
+        final int f = mNumFloats;
+        mFloats[mNumFloats++] = x;
+        mFloats[mNumFloats++] = y;
+        mFloats[mNumFloats++] = z;
+        mFloats[mNumFloats++] = sx;
+        mFloats[mNumFloats++] = sy;
+        mFloats[mNumFloats++] = sz;
+
+        put(UNIFORM_VIEW_PROJECTION_TRANSFORMED, location, f);
+        return this;
+    }
+
+    /**
+     * Uploads a vec4, copied now.
+     */
+    public CommandBuffer uniform4(int location, final float[] value, int offset) {
+        put(UNIFORM_4, location, putFloats(value, offset, 4));
+        return this;
+    }
+
+    public CommandBuffer drawArrays(int mode, int first, int count) {
+        reserveInts(4);
+        mCommands[mNumInts++] = DRAW_ARRAYS;
+        mCommands[mNumInts++] = mode;
+        mCommands[mNumInts++] = first;
+        mCommands[mNumInts++] = count;
+        return this;
+    }
+
+    /**
+     * Draws from the bound element array buffer.
+     */
+    public CommandBuffer drawElements(int mode, int count, int type, int offset) {
+        reserveInts(5);
+        mCommands[mNumInts++] = DRAW_ELEMENTS;
+        mCommands[mNumInts++] = mode;
+        mCommands[mNumInts++] = count;
+        mCommands[mNumInts++] = type;
+        mCommands[mNumInts++] = offset;
+        return this;
+    }
+
+    /**
+     * Issues the published commands. Call on the GL thread.
+     * @param gl the GL to use
+     * @param viewProjectionMatrix matrix for the view projection uniforms
+     * @param offset offset of the matrix
+     */
+    public void execute(GlApi gl, final float[] viewProjectionMatrix, int offset) {
+        final int end = mNumPublished;
+        final int[] c = mCommands;
+        final float[] f = mFloats;
+
+        int i = 0;
+        while (i < end) {
+            switch (c[i]) {
+                case USE_PROGRAM:
+                    gl.glUseProgram(c[i + 1]);
+                    i += 2;
+                    break;
+                case BIND_BUFFER:
+                    gl.glBindBuffer(c[i + 1], c[i + 2]);
+                    i += 3;
+                    break;
+                case ENABLE_ATTRIB:
+                    gl.glEnableVertexAttribArray(c[i + 1]);
+                    i += 2;
+                    break;
+                case DISABLE_ATTRIB:
+                    gl.glDisableVertexAttribArray(c[i + 1]);
+                    i += 2;
+                    break;
+                case ATTRIB_POINTER:
+                    gl.glVertexAttribPointer(c[i + 1], c[i + 2], c[i + 3], c[i + 4] != 0, c[i + 5], c[i + 6]);
+                    i += 7;
+                    break;
+                case UNIFORM_MATRIX:
+                    gl.glUniformMatrix4fv(c[i + 1], 1, false, f, c[i + 2]);
+                    i += 3;
+                    break;
+                case UNIFORM_VIEW_PROJECTION:
+                    gl.glUniformMatrix4fv(c[i + 1], 1, false, viewProjectionMatrix, offset);
+                    i += 2;
+                    break;
+                case UNIFORM_VIEW_PROJECTION_TRANSFORMED: {
+                    final int t = c[i + 2];
+                    Matrix4f.translateScale(mHelpMatrix, 0, viewProjectionMatrix, offset,
+                            f[t], f[t + 1], f[t + 2], f[t + 3], f[t + 4], f[t + 5]);
+                    gl.glUniformMatrix4fv(c[i + 1], 1, false, mHelpMatrix, 0);
+                    i += 3;
+                    break;
+                }
+                case UNIFORM_4:
+                    gl.glUniform4fv(c[i + 1], 1, f, c[i + 2]);
+                    i += 3;
+                    break;
+                case DRAW_ARRAYS:
+                    gl.glDrawArrays(c[i + 1], c[i + 2], c[i + 3]);
+                    i += 4;
+                    break;
+                case DRAW_ELEMENTS:
+                    gl.glDrawElements(c[i + 1], c[i + 2], c[i + 3], c[i + 4]);
+                    i += 5;
+                    break;
+                default:
+                    throw new IllegalStateException("corrupt command buffer at " + i);
+            }
+        }
+    }
+
+    private void put(int opcode, int a) {
+        reserveInts(2);
+        mCommands[mNumInts++] = opcode;
+        mCommands[mNumInts++] = a;
+    }
+
+    private void put(int opcode, int a, int b) {
+        reserveInts(3);
+        mCommands[mNumInts++] = opcode;
+        mCommands[mNumInts++] = a;
+        mCommands[mNumInts++] = b;
+    }
+
+    /**
+     * @return offset of the copied values
+     */
+    private int putFloats(final float[] values, int offset, int length) {
+        reserveFloats(length);
+        final int f = mNumFloats;
+        System.arraycopy(values, offset, mFloats, f, length);
+        mNumFloats += length;
+        return f;
+    }
+
+    private void reserveInts(int n) {
+        if (mNumInts + n > mCommands.length) {
+            final int[] commands = new int[Math.max(mNumInts + n, mCommands.length * 2)];
+            System.arraycopy(mCommands, 0, commands, 0, mNumInts);
+            mCommands = commands;
+        }
+    }
+
+    private void reserveFloats(int n) {
+        if (mNumFloats + n > mFloats.length) {
+            final float[] floats = new float[Math.max(mNumFloats + n, mFloats.length * 2)];
+            System.arraycopy(mFloats, 0, floats, 0, mNumFloats);
+            mFloats = floats;
+        }
+    }
+}
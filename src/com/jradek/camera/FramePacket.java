@@ -0,0 +1,131 @@
+package com.jradek.camera;
+
+/**
+ * Everything the GL thread needs to draw one frame: per viewport the view
+ * projection matrix and the recorded draw calls. Prepared by a
+ * {@link FramePipeline} while the GL thread draws the previous packet, so it
+ * holds copies of all data the preparation keeps modifying.
+ */
+public class FramePacket {
+    /**
+     * The part of a packet for one viewport.
+     */
+    public static class View {
+        private final float[] mViewProjectionMatrix = new float[16];
+        private final RenderQueue mRenderQueue;
+        private final CommandBuffer mCommands = new CommandBuffer();
+        private final Scene.Visibility mVisibility = new Scene.Visibility();
+        private final long[] mPhaseNanos = new long[FrameStats.NUM_PHASES];
+        private boolean mCheckerBoardVisible = false;
+
+        View(GlApi gl) {
+            mRenderQueue = new RenderQueue(gl);
+        }
+
+        public float[] getViewProjectionMatrix() {
+            return mViewProjectionMatrix;
+        }
+
+        /**
+         * @return the queue the draw calls are sorted in before being
+         * recorded, including its statistics
+         */
+        public RenderQueue getRenderQueue() {
+            return mRenderQueue;
+        }
+
+        public CommandBuffer getCommands() {
+            return mCommands;
+        }
+
+        public Scene.Visibility getVisibility() {
+            return mVisibility;
+        }
+
+        public boolean isCheckerBoardVisible() {
+            return mCheckerBoardVisible;
+        }
+
+        public void setCheckerBoardVisible(boolean visible) {
+            mCheckerBoardVisible = visible;
+        }
+
+        public void addNanos(int phase, long nanos) {
+            mPhaseNanos[phase] += nanos;
+        }
+    }
+
+    private final View[] mViews;
+    private final long[] mPhaseNanos = new long[FrameStats.NUM_PHASES];
+    private boolean mTimed = false;
+    private boolean mContinuous = false;
+
+    /**
+     * @param gl the GL the packet is drawn with
+     * @param numViews number of viewports
+     */
+    public FramePacket(GlApi gl, int numViews) {
+        mViews = new View[numViews];
+        for (int i = 0; i < numViews; ++i) {
+            mViews[i] = new View(gl);
+        }
+    }
+
+    public int getViewCount() {
+        return mViews.length;
+    }
+
+    public View getView(int index) {
+        return mViews[index];
+    }
+
+    /**
+     * Starts preparing the packet.
+     * @param timed whether the preparation measures its phases
+     */
+    public void begin(boolean timed) {
+        mTimed = timed;
+        java.util.Arrays.fill(mPhaseNanos, 0);
+        for (int i = 0; i < mViews.length; ++i) {
+            java.util.Arrays.fill(mViews[i].mPhaseNanos, 0);
+        }
+    }
+
+    /**
+     * Finishes preparing the packet, summing up the times of all views.
+     */
+    public void end() {
+        for (int i = 0; i < mViews.length; ++i) {
+            for (int phase = 0; phase < FrameStats.NUM_PHASES; ++phase) {
+                mPhaseNanos[phase] += mViews[i].mPhaseNanos[phase];
+            }
+        }
+    }
+
+    public boolean isTimed() {
+        return mTimed;
+    }
+
+    public void addNanos(int phase, long nanos) {
+        mPhaseNanos[phase] += nanos;
+    }
+
+    /**
+     * @return CPU time spent preparing the phase, summed over all views
+     */
+    public long getNanos(int phase) {
+        return mPhaseNanos[phase];
+    }
+
+    /**
+     * @return whether the next frame should follow right away, e.g. because
+     * the camera is moving
+     */
+    public boolean isContinuous() {
+        return mContinuous;
+    }
+
+    public void setContinuous(boolean continuous) {
+        mContinuous = continuous;
+    }
+}
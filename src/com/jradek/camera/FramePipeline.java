@@ -0,0 +1,230 @@
+package com.jradek.camera;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prepares frames one ahead on worker threads: while the GL thread draws
+ * frame N, frame N + 1 is prepared into the other of two
+ * {@link FramePacket}s.
+ *
+ * The GL thread hands over with {@link #acquire()}, which waits for the
+ * packet prepared ahead (or prepares one right away, if there is none), and
+ * {@link #prepareAhead()}, which starts preparing the next one. The
+ * handoff is the only synchronization, a preparation and the drawing of a
+ * packet never share data.
+ *
+ * Anything the preparation reads or modifies besides the packet may only
+ * be touched by the GL thread after {@link #sync()} or {@link #cancel()}.
+ *
+ * Tasks are handed to the already running workers through a bounded queue
+ * and waited for with reusable {@link Task}s, so no frame allocates.
+ */
+public class FramePipeline {
+    /**
+     * Fills a packet, called on a worker thread or the GL thread.
+     */
+    public interface Preparer {
+        void prepareFrame(FramePacket packet);
+    }
+
+    private static final int QUEUE_CAPACITY = 16;
+
+    private final Preparer mPreparer;
+    private final ThreadPoolExecutor mExecutor;
+
+    private final FramePacket[] mPackets;
+    private final Runnable[] mTasks;
+    private final Task mPending = new Task();
+    private Task[] mForkTasks = new Task[0];
+
+    /** index of the packet drawn last */
+    private int mCurrent = 0;
+    /** index of the packet prepared ahead, -1 if there is none */
+    private int mPendingIndex = -1;
+
+    /**
+     * @param preparer fills the packets
+     * @param first one of the two packets
+     * @param second the other packet
+     * @param numThreads number of worker threads, at least 2 if preparations
+     * {@link #fork} work themselves
+     */
+    public FramePipeline(Preparer preparer, FramePacket first, FramePacket second, int numThreads) {
+        mPreparer = preparer;
+        mPackets = new FramePacket[] { first, second };
+
+        mTasks = new Runnable[2];
+        for (int i = 0; i < 2; ++i) {
+            final FramePacket packet = mPackets[i];
+            mTasks[i] = new Runnable() {
+                @Override
+                public void run() {
+                    mPreparer.prepareFrame(packet);
+                }
+            };
+        }
+
+        // a full queue runs the task on the submitting thread instead
+        mExecutor = new ThreadPoolExecutor(numThreads, numThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), new ThreadFactory() {
+            private int mNumThreads = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "FramePipeline-" + mNumThreads++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        mExecutor.prestartAllCoreThreads();
+    }
+
+    /**
+     * Waits for the packet prepared ahead, or prepares one on the calling
+     * thread if there is none. Call on the GL thread.
+     * @return the packet to draw, valid until the next call
+     */
+    public FramePacket acquire() {
+        if (mPendingIndex >= 0) {
+            mCurrent = mPendingIndex;
+            mPendingIndex = -1;
+
+            mPending.waitFor();
+        } else {
+            mCurrent = 1 - mCurrent;
+            mPreparer.prepareFrame(mPackets[mCurrent]);
+        }
+        return mPackets[mCurrent];
+    }
+
+    /**
+     * Starts preparing the next frame on a worker thread, while the packet
+     * from {@link #acquire()} is drawn. Call on the GL thread.
+     */
+    public void prepareAhead() {
+        if (mPendingIndex >= 0) {
+            return;
+        }
+        mPendingIndex = 1 - mCurrent;
+        mPending.start(mExecutor, mTasks[mPendingIndex]);
+    }
+
+    /**
+     * Waits until no preparation is running. The packet prepared ahead is
+     * kept for {@link #acquire()}.
+     */
+    public void sync() {
+        mPending.waitFor();
+    }
+
+    /**
+     * Waits until no preparation is running and drops the packet prepared
+     * ahead, e.g. because it refers to GL objects of a lost context.
+     */
+    public void cancel() {
+        sync();
+        mPendingIndex = -1;
+    }
+
+    /**
+     * Runs tasks in parallel, the first one on the calling thread, and waits
+     * for all of them. Meant to split up a preparation, so it must not be
+     * called by two threads at the same time.
+     */
+    public void fork(final Runnable[] tasks, int count) {
+        if (mForkTasks.length < count) {
+            mForkTasks = new Task[count];
+            for (int i = 0; i < count; ++i) {
+                mForkTasks[i] = new Task();
+            }
+        }
+
+        for (int i = 1; i < count; ++i) {
+            mForkTasks[i].start(mExecutor, tasks[i]);
+        }
+
+        if (count > 0) {
+            tasks[0].run();
+        }
+
+        for (int i = 1; i < count; ++i) {
+            mForkTasks[i].waitFor();
+        }
+    }
+
+    /**
+     * Stops the worker threads. The pipeline must not be used afterwards.
+     */
+    public void shutdown() {
+        cancel();
+        mExecutor.shutdown();
+    }
+
+    /**
+     * A runnable which can be started and waited for again and again,
+     * unlike a future.
+     */
+    private static final class Task implements Runnable {
+        private Runnable mRunnable;
+        private boolean mDone = true;
+        private Throwable mError;
+
+        void start(ThreadPoolExecutor executor, Runnable runnable) {
+            synchronized (this) {
+                mRunnable = runnable;
+                mDone = false;
+                mError = null;
+            }
+            executor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            final Runnable runnable;
+            synchronized (this) {
+                runnable = mRunnable;
+            }
+
+            Throwable error = null;
+            try {
+                runnable.run();
+            } catch (Throwable t) {
+                error = t;
+            }
+
+            synchronized (this) {
+                mRunnable = null;
+                mError = error;
+                mDone = true;
+                notifyAll();
+            }
+        }
+
+        synchronized void waitFor() {
+            boolean interrupted = false;
+            try {
+                while (!mDone) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // the frame has to be completed anyway
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            if (mError != null) {
+                final Throwable error = mError;
+                mError = null;
+                throw new RuntimeException("frame preparation failed", error);
+            }
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.jradek.camera;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Locale;
+
+import android.util.Log;
+
+/**
+ * Per frame instrumentation of the renderer: CPU time per phase, a
+ * histogram of frame intervals, the GL calls counted by a
+ * {@link GlCounter} and the triangles drawn and saved by levels of detail.
+ *
+ * Statistics cover the frames since the last {@link #reset()} or dump.
+ * Optionally they are appended to a file periodically, one line per period.
+ *
+ * Everything is preallocated and all methods return right away while
+ * disabled, so the instrumentation can stay in place. Not thread safe, use
+ * on the GL thread only.
+ */
+public class FrameStats {
+    private static final String TAG = "FrameStats";
+
+    // phases
+    public static final int CAMERA = 0;
+    public static final int CULLING = 1;
+    public static final int SUBMISSION = 2;
+    public static final int EXECUTION = 3;
+    public static final int NUM_PHASES = 4;
+
+    // GL counters
+    public static final int DRAW_CALLS = 0;
+    public static final int VERTICES = 1;
+    public static final int UNIFORM_UPLOADS = 2;
+    public static final int STATE_CHANGES = 3;
+    public static final int BUFFER_BYTES = 4;
+    // counters of the renderer, see addCount
+    public static final int TRIANGLES = 5;
+    public static final int TRIANGLES_SAVED = 6;
+    public static final int OBJECTS_OCCLUDED = 7;
+    public static final int NUM_COUNTERS = 8;
+
+    private static final String[] PHASE_NAMES = { "camera", "culling", "submission", "execution" };
+    private static final String[] COUNTER_NAMES =
+            { "draw calls", "vertices", "uniforms", "state changes", "buffer bytes",
+                    "triangles", "triangles saved", "objects occluded" };
+
+    /** frame interval histogram resolution, the last bucket takes all longer intervals */
+    static final long BUCKET_NANOS = 250000;
+    static final int NUM_BUCKETS = 400;
+
+    private final GlCounter mGlCounter;
+    /** read by frame preparation threads to decide whether to measure */
+    private volatile boolean mEnabled = false;
+
+    private final long[] mPhaseStart = new long[NUM_PHASES];
+    private final long[] mPhaseNanos = new long[NUM_PHASES];
+    private final long[] mPhaseTotalNanos = new long[NUM_PHASES];
+
+    private final int[] mCounts = new int[NUM_COUNTERS];
+    private final long[] mTotalCounts = new long[NUM_COUNTERS];
+
+    private final int[] mIntervalHistogram = new int[NUM_BUCKETS];
+    private int mNumIntervals = 0;
+    private long mMaxIntervalNanos = 0;
+    private long mFrameStart = 0;
+
+    private int mNumFrames = 0;
+
+    private File mDumpFile;
+    private long mDumpPeriodNanos;
+    private long mLastDumpNanos;
+
+    /**
+     * @param glCounter counter of the GL the frames are drawn with, may be null
+     */
+    public FrameStats(GlCounter glCounter) {
+        mGlCounter = glCounter;
+    }
+
+    public void setEnabled(boolean enabled) {
+        if (enabled == mEnabled) {
+            return;
+        }
+        mEnabled = enabled;
+        if (mGlCounter != null) {
+            mGlCounter.setEnabled(enabled);
+        }
+
+        reset();
+        mFrameStart = 0;
+        mLastDumpNanos = System.nanoTime();
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Appends the statistics to a file every period and resets them.
+     * @param file file to append to, null to stop dumping
+     * @param periodMillis time between two dumps
+     */
+    public void setDumpFile(File file, long periodMillis) {
+        mDumpFile = file;
+        mDumpPeriodNanos = periodMillis * 1000000L;
+        mLastDumpNanos = System.nanoTime();
+    }
+
+    public void reset() {
+        java.util.Arrays.fill(mPhaseTotalNanos, 0);
+        java.util.Arrays.fill(mTotalCounts, 0);
+        java.util.Arrays.fill(mIntervalHistogram, 0);
+        mNumIntervals = 0;
+        mMaxIntervalNanos = 0;
+        mNumFrames = 0;
+    }
+
+    public void beginFrame() {
+        if (!mEnabled) {
+            return;
+        }
+
+        final long now = System.nanoTime();
+        if (mFrameStart != 0) {
+            final long interval = now - mFrameStart;
+            ++mIntervalHistogram[(int) Math.min(interval / BUCKET_NANOS, NUM_BUCKETS - 1)];
+            mMaxIntervalNanos = Math.max(mMaxIntervalNanos, interval);
+            ++mNumIntervals;
+        }
+        mFrameStart = now;
+
+        java.util.Arrays.fill(mPhaseNanos, 0);
+        java.util.Arrays.fill(mCounts, 0);
+        if (mGlCounter != null) {
+            mGlCounter.resetCounters();
+        }
+    }
+
+    /**
+     * Excludes the time until the next frame from the intervals, e.g. when
+     * the next frame is only drawn on demand.
+     */
+    public void skipInterval() {
+        mFrameStart = 0;
+    }
+
+    /**
+     * Starts timing a phase. A phase may run several times per frame, e.g.
+     * once per viewport, its times are summed up.
+     */
+    public void begin(int phase) {
+        if (mEnabled) {
+            mPhaseStart[phase] = System.nanoTime();
+        }
+    }
+
+    public void end(int phase) {
+        if (mEnabled) {
+            mPhaseNanos[phase] += System.nanoTime() - mPhaseStart[phase];
+        }
+    }
+
+    /**
+     * Adds time measured elsewhere to a phase of the current frame, e.g. by
+     * a frame preparation thread.
+     */
+    public void add(int phase, long nanos) {
+        if (mEnabled) {
+            mPhaseNanos[phase] += nanos;
+        }
+    }
+
+    /**
+     * Adds to a counter of the current frame which is not counted by the
+     * GL, e.g. TRIANGLES.
+     */
+    public void addCount(int counter, int value) {
+        if (mEnabled) {
+            mCounts[counter] += value;
+        }
+    }
+
+    public void endFrame() {
+        if (!mEnabled) {
+            return;
+        }
+
+        for (int i = 0; i < NUM_PHASES; ++i) {
+            mPhaseTotalNanos[i] += mPhaseNanos[i];
+        }
+
+        if (mGlCounter != null) {
+            mCounts[DRAW_CALLS] = mGlCounter.getDrawCallCount();
+            mCounts[VERTICES] = mGlCounter.getVertexCount();
+            mCounts[UNIFORM_UPLOADS] = mGlCounter.getUniformUploadCount();
+            mCounts[STATE_CHANGES] = mGlCounter.getStateChangeCount();
+            mCounts[BUFFER_BYTES] = mGlCounter.getBufferUploadBytes();
+        }
+        for (int i = 0; i < NUM_COUNTERS; ++i) {
+            mTotalCounts[i] += mCounts[i];
+        }
+        ++mNumFrames;
+
+        if (mDumpFile != null && mFrameStart - mLastDumpNanos >= mDumpPeriodNanos) {
+            mLastDumpNanos = mFrameStart;
+            dump();
+            reset();
+        }
+    }
+
+    public int getFrameCount() {
+        return mNumFrames;
+    }
+
+    /**
+     * @return time spent in the phase during the last frame [ms]
+     */
+    public float getPhaseMillis(int phase) {
+        return mPhaseNanos[phase] * 1e-6f;
+    }
+
+    /**
+     * @return average time per frame spent in the phase [ms]
+     */
+    public float getAveragePhaseMillis(int phase) {
+        return mNumFrames == 0 ? 0.0f : mPhaseTotalNanos[phase] * 1e-6f / mNumFrames;
+    }
+
+    /**
+     * @return value of the counter in the last frame
+     */
+    public int getCount(int counter) {
+        return mCounts[counter];
+    }
+
+    public float getAverageCount(int counter) {
+        return mNumFrames == 0 ? 0.0f : mTotalCounts[counter] / (float) mNumFrames;
+    }
+
+    public int getIntervalCount() {
+        return mNumIntervals;
+    }
+
+    /**
+     * @param percentile in [0, 100], e.g. 50, 95 or 99
+     * @return frame interval not exceeded by the given percentage of the
+     * frames [ms], rounded up to the histogram resolution
+     */
+    public float getIntervalPercentile(float percentile) {
+        if (mNumIntervals == 0) {
+            return 0.0f;
+        }
+
+        final int rank = Math.max(1, (int) Math.ceil(percentile * 0.01 * mNumIntervals));
+        int sum = 0;
+        for (int i = 0; i < NUM_BUCKETS - 1; ++i) {
+            sum += mIntervalHistogram[i];
+            if (sum >= rank) {
+                return (i + 1) * BUCKET_NANOS * 1e-6f;
+            }
+        }
+        return mMaxIntervalNanos * 1e-6f;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "%d frames, interval p50 %.2f p95 %.2f p99 %.2f ms",
+                mNumFrames, getIntervalPercentile(50), getIntervalPercentile(95),
+                getIntervalPercentile(99)));
+
+        for (int i = 0; i < NUM_PHASES; ++i) {
+            sb.append(String.format(Locale.US, ", %s %.3f ms", PHASE_NAMES[i], getAveragePhaseMillis(i)));
+        }
+        for (int i = 0; i < NUM_COUNTERS; ++i) {
+            sb.append(String.format(Locale.US, ", %s %.1f", COUNTER_NAMES[i], getAverageCount(i)));
+        }
+        return sb.toString();
+    }
+
+    private void dump() {
+        try {
+            final FileWriter writer = new FileWriter(mDumpFile, true);
+            try {
+                writer.write(toString());
+                writer.write('\n');
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "could not write frame statistics to " + mDumpFile, e);
+            mDumpFile = null;
+        }
+    }
+}
@@ -1,19 +1,34 @@
 package com.jradek.camera;
 
-import android.opengl.Matrix;
-
 /**
  * Special camera which can be move around freely.
+ *
+ * The orientation is kept as a unit quaternion. look, up and right are
+ * derived from it on every update, so they stay orthonormal no matter how
+ * many incremental rotations are applied.
  */
 public class FreeCamera extends Camera {
     private vec3 mTranslation;
 
-    private final float[] mHelpMatrix = new float[16];
+    private final quat mOrientation = new quat();
+    private final quat mDeltaRotation = new quat();
+
+    // state before the last time step and scratch for interpolating
+    private final vec3 mPreviousPosition = new vec3(0, 0, 0);
+    private final quat mPreviousOrientation = new quat();
+    private final quat mHelpOrientation = new quat();
+    private final vec3 mHelpPosition = new vec3(0, 0, 0);
+    private final vec3 mHelpRight = new vec3(0, 0, 0);
+    private final vec3 mHelpUp = new vec3(0, 0, 0);
+    private final vec3 mHelpLook = new vec3(0, 0, 0);
 
     private float mRollAngleDegree = 0.0f;
     private float mPitchAngleDegree = 0.0f;
     private float mYawAngleDegree = 0.0f;
 
+    /** set when the camera changed other than by pending deltas */
+    private boolean mChanged = true;
+
     /**
      * Constructs a new camera.
      * @param position The position of the camera
@@ -32,12 +47,20 @@ public class FreeCamera extends Camera {
         mUp = up.clone().normalize();
 
         mRight = mLook.cross(mUp).normalize();
+        mUp = mRight.cross(mLook);
+
+        // camera space: x = right, y = up, z = -look
+        mLook.scale(-1);
+        mOrientation.setFromAxes(mRight, mUp, mLook);
+        mLook.scale(-1);
 
         mRollAngleDegree = 0.0f;
         mPitchAngleDegree = 0.0f;
         mYawAngleDegree = 0.0f;
 
+        mChanged = true;
         update();
+        storeState();
     }
 
     /**
@@ -80,41 +103,79 @@ public class FreeCamera extends Camera {
     @SuppressWarnings("unused")
     private void setPosition(vec3 position) {
         mPosition = position.clone();
+        mChanged = true;
     }
 
     @Override
     public void update() {
-        Matrix.setIdentityM(mHelpMatrix, 0);
+        if (!mChanged && mTranslation.x == 0 && mTranslation.y == 0 && mTranslation.z == 0
+                && mRollAngleDegree == 0 && mPitchAngleDegree == 0 && mYawAngleDegree == 0) {
+            // nothing pending, keep view matrix and version
+            return;
+        }
+        mChanged = false;
 
         mPosition.add(mTranslation);
         mTranslation.x = 0;
         mTranslation.y = 0;
         mTranslation.z = 0;
 
-        // TODO: find a way to combine this rotations into one
-
-        // apply roll
-        Matrix.setRotateM(mHelpMatrix, 0, mRollAngleDegree, (float)mLook.x, (float)mLook.y, (float)mLook.z);
-        rotateVector(mUp, mHelpMatrix);
-        mRight = mLook.cross(mUp).normalize();
-
-        // apply pitch
-        Matrix.setRotateM(mHelpMatrix, 0, mPitchAngleDegree, (float)mRight.x, (float)mRight.y, (float)mRight.z);
-        rotateVector(mLook, mHelpMatrix);
-        rotateVector(mUp, mHelpMatrix);
-
-        // apply yaw
-        Matrix.setRotateM(mHelpMatrix, 0, mYawAngleDegree, (float)mUp.x, (float)mUp.y, (float)mUp.z);
-        rotateVector(mLook, mHelpMatrix);
-        mRight = mLook.cross(mUp).normalize();
+        // roll, pitch and yaw are applied in this order, each around the
+        // camera axis resulting from the previous rotation, which is the
+        // same as right-multiplying them in camera space
+        setDeltaRotation(mRollAngleDegree, mPitchAngleDegree, mYawAngleDegree);
+        mOrientation.multiply(mDeltaRotation).normalize();
 
         mRollAngleDegree = 0;
         mPitchAngleDegree = 0;
         mYawAngleDegree = 0;
 
-        Matrix.setLookAtM(mViewMatrix, 0,
-                (float)mPosition.x, (float)mPosition.y, (float)mPosition.z,
-                (float)(mPosition.x + mLook.x), (float)(mPosition.y + mLook.y), (float)(mPosition.z + mLook.z),
-                (float)mUp.x, (float)mUp.y, (float)mUp.z);
+        mOrientation.getAxes(mRight, mUp, mLook);
+        mLook.scale(-1);
+
+        updateViewMatrix();
+    }
+
+    /**
+     * Combines roll (around -z), pitch (around x) and yaw (around y) into
+     * mDeltaRotation = roll * pitch * yaw.
+     */
+    private void setDeltaRotation(float rollDegree, float pitchDegree, float yawDegree) {
+        final double halfToRadian = Math.PI / 360.0;
+
+        final double r = rollDegree * halfToRadian;
+        final double p = pitchDegree * halfToRadian;
+        final double y = yawDegree * halfToRadian;
+
+        final double sr = Math.sin(r), cr = Math.cos(r);
+        final double sp = Math.sin(p), cp = Math.cos(p);
+        final double sy = Math.sin(y), cy = Math.cos(y);
+
+        mDeltaRotation.set(
+                cr*sp*cy + sr*cp*sy,
+                cr*cp*sy - sr*sp*cy,
+                cr*sp*sy - sr*cp*cy,
+                cr*cp*cy + sr*sp*sy);
+    }
+
+    @Override
+    public void storeState() {
+        mPreviousPosition.x = mPosition.x;
+        mPreviousPosition.y = mPosition.y;
+        mPreviousPosition.z = mPosition.z;
+        mPreviousOrientation.set(mOrientation);
+    }
+
+    @Override
+    public void interpolateView(float alpha, float[] viewMatrix) {
+        mHelpPosition.x = mPreviousPosition.x + alpha * (mPosition.x - mPreviousPosition.x);
+        mHelpPosition.y = mPreviousPosition.y + alpha * (mPosition.y - mPreviousPosition.y);
+        mHelpPosition.z = mPreviousPosition.z + alpha * (mPosition.z - mPreviousPosition.z);
+
+        mHelpOrientation.set(mPreviousOrientation).slerp(mOrientation, alpha);
+        mHelpOrientation.getAxes(mHelpRight, mHelpUp, mHelpLook);
+        mHelpLook.scale(-1);
+
+        setViewMatrix(viewMatrix, mHelpRight, mHelpUp, mHelpLook, mHelpPosition);
     }
 }
@@ -0,0 +1,232 @@
+package com.jradek.camera;
+
+/**
+ * View frustum given by six planes, used to reject objects which are not
+ * visible before they are drawn.
+ *
+ * Planes are stored as (a, b, c, d) with a normal pointing into the frustum,
+ * i.e. a point p is inside a plane if a*p.x + b*p.y + c*p.z + d >= 0.
+ *
+ * Every test updates the culling statistics, which are meant to be reset
+ * once per frame with {@link #resetStatistics()}.
+ */
+public class Frustum {
+    public static final int LEFT = 0;
+    public static final int RIGHT = 1;
+    public static final int BOTTOM = 2;
+    public static final int TOP = 3;
+    public static final int NEAR = 4;
+    public static final int FAR = 5;
+
+    /**
+     * results of {@link #classifyBox}
+     */
+    public static final int OUTSIDE = 0;
+    public static final int INTERSECTING = 1;
+    public static final int INSIDE = 2;
+
+    static final int NUM_PLANES = 6;
+
+    /**
+     * number of floats per sphere in {@link #cullSpheres}
+     */
+    public static final int SPHERE_STRIDE = 4;
+
+    /**
+     * number of floats per box in {@link #cullBoxes}
+     */
+    public static final int BOX_STRIDE = 6;
+
+    private final float[] mPlanes = new float[NUM_PLANES * 4];
+
+    private int mTestedCount = 0;
+    private int mVisibleCount = 0;
+
+    /**
+     * Extracts the planes from the camera's projection * view matrix.
+     */
+    public void set(final Camera camera) {
+        set(camera.getViewProjectionMatrix(), 0);
+    }
+
+    /**
+     * Extracts the planes from a column-major view projection matrix.
+     */
+    public void set(final float[] m, int offset) {
+        for (int i = 0; i < 3; ++i) {
+            // row i and row 3 of the matrix
+            final float ra = m[offset + i], rb = m[offset + 4 + i];
+            final float rc = m[offset + 8 + i], rd = m[offset + 12 + i];
+            final float wa = m[offset + 3], wb = m[offset + 7];
+            final float wc = m[offset + 11], wd = m[offset + 15];
+
+            setPlane(2 * i + 0, wa + ra, wb + rb, wc + rc, wd + rd);
+            setPlane(2 * i + 1, wa - ra, wb - rb, wc - rc, wd - rd);
+        }
+    }
+
+    private void setPlane(int plane, float a, float b, float c, float d) {
+        final float inv = 1.0f / (float)Math.sqrt(a*a + b*b + c*c);
+        final int i = plane * 4;
+        mPlanes[i + 0] = a * inv;
+        mPlanes[i + 1] = b * inv;
+        mPlanes[i + 2] = c * inv;
+        mPlanes[i + 3] = d * inv;
+    }
+
+    /**
+     * @return the planes, 4 floats each, in the order LEFT, RIGHT, BOTTOM,
+     * TOP, NEAR, FAR
+     */
+    public float[] getPlanes() {
+        return mPlanes;
+    }
+
+    public boolean intersectsSphere(float x, float y, float z, float radius) {
+        final boolean visible = testSphere(x, y, z, radius);
+        count(visible);
+        return visible;
+    }
+
+    public boolean intersectsBox(float minX, float minY, float minZ,
+            float maxX, float maxY, float maxZ) {
+        final boolean visible = testBox(minX, minY, minZ, maxX, maxY, maxZ);
+        count(visible);
+        return visible;
+    }
+
+    public boolean intersects(final BoundingBox box) {
+        return intersectsBox(box.minX, box.minY, box.minZ, box.maxX, box.maxY, box.maxZ);
+    }
+
+    /**
+     * Tests many spheres at once.
+     * @param spheres x, y, z, radius per sphere
+     * @param count number of spheres
+     * @param visible receives the indices of all visible spheres
+     * @return number of visible spheres
+     */
+    public int cullSpheres(final float[] spheres, int count, int[] visible) {
+        int numVisible = 0;
+
+        for (int i = 0, o = 0; i < count; ++i, o += SPHERE_STRIDE) {
+            if (testSphere(spheres[o], spheres[o + 1], spheres[o + 2], spheres[o + 3])) {
+                visible[numVisible++] = i;
+            }
+        }
+
+        mTestedCount += count;
+        mVisibleCount += numVisible;
+        return numVisible;
+    }
+
+    /**
+     * Tests many boxes at once.
+     * @param boxes minX, minY, minZ, maxX, maxY, maxZ per box
+     * @param count number of boxes
+     * @param visible receives the indices of all visible boxes
+     * @return number of visible boxes
+     */
+    public int cullBoxes(final float[] boxes, int count, int[] visible) {
+        int numVisible = 0;
+
+        for (int i = 0, o = 0; i < count; ++i, o += BOX_STRIDE) {
+            if (testBox(boxes[o], boxes[o + 1], boxes[o + 2],
+                    boxes[o + 3], boxes[o + 4], boxes[o + 5])) {
+                visible[numVisible++] = i;
+            }
+        }
+
+        mTestedCount += count;
+        mVisibleCount += numVisible;
+        return numVisible;
+    }
+
+    boolean testSphere(float x, float y, float z, float radius) {
+        final float[] p = mPlanes;
+
+        for (int i = 0; i < NUM_PLANES * 4; i += 4) {
+            if (p[i]*x + p[i + 1]*y + p[i + 2]*z + p[i + 3] < -radius) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean testBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        final float[] p = mPlanes;
+
+        for (int i = 0; i < NUM_PLANES * 4; i += 4) {
+            final float a = p[i], b = p[i + 1], c = p[i + 2];
+
+            // corner furthest along the plane normal
+            final float x = a >= 0 ? maxX : minX;
+            final float y = b >= 0 ? maxY : minY;
+            final float z = c >= 0 ? maxZ : minZ;
+
+            if (a*x + b*y + c*z + p[i + 3] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Classifies a box against the frustum. Allows hierarchical culling to
+     * accept whole subtrees which are completely inside without testing
+     * them any further. Does not update the statistics.
+     *
+     * @return OUTSIDE, INTERSECTING or INSIDE
+     */
+    public int classifyBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        final float[] p = mPlanes;
+        int result = INSIDE;
+
+        for (int i = 0; i < NUM_PLANES * 4; i += 4) {
+            final float a = p[i], b = p[i + 1], c = p[i + 2], d = p[i + 3];
+
+            if (a*(a >= 0 ? maxX : minX) + b*(b >= 0 ? maxY : minY) + c*(c >= 0 ? maxZ : minZ) + d < 0) {
+                return OUTSIDE;
+            }
+
+            if (a*(a >= 0 ? minX : maxX) + b*(b >= 0 ? minY : maxY) + c*(c >= 0 ? minZ : maxZ) + d < 0) {
+                result = INTERSECTING;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Accounts for objects which were culled hierarchically, e.g. by a
+     * {@link Bvh}, where most objects are never tested individually.
+     */
+    void addStatistics(int tested, int visible) {
+        mTestedCount += tested;
+        mVisibleCount += visible;
+    }
+
+    private void count(boolean visible) {
+        ++mTestedCount;
+        if (visible) {
+            ++mVisibleCount;
+        }
+    }
+
+    public void resetStatistics() {
+        mTestedCount = 0;
+        mVisibleCount = 0;
+    }
+
+    public int getTestedCount() {
+        return mTestedCount;
+    }
+
+    public int getVisibleCount() {
+        return mVisibleCount;
+    }
+
+    public int getRejectedCount() {
+        return mTestedCount - mVisibleCount;
+    }
+}
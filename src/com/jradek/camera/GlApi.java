@@ -0,0 +1,78 @@
+package com.jradek.camera;
+
+import java.nio.Buffer;
+
+/**
+ * The subset of OpenGL ES used by the renderer. Everything draws through
+ * this interface instead of calling {@link android.opengl.GLES20} directly,
+ * so the GL can be wrapped or replaced, e.g. by a recording stub when
+ * running on a plain JVM.
+ *
+ * Methods mirror the GLES20 (and GLES30) functions of the same name.
+ * GLES30 functions may only be used if {@link #getMajorVersion()} is at
+ * least 3.
+ */
+public interface GlApi {
+    /**
+     * @return major version of the context, i.e. 2 or 3
+     */
+    int getMajorVersion();
+
+    String glGetString(int name);
+
+    // shaders and programs
+    int glCreateShader(int type);
+    void glShaderSource(int shader, String source);
+    void glCompileShader(int shader);
+    int glCreateProgram();
+    void glAttachShader(int program, int shader);
+    void glLinkProgram(int program);
+    void glUseProgram(int program);
+    void glDeleteShader(int shader);
+    void glDeleteProgram(int program);
+    void glGetShaderiv(int shader, int pname, int[] params, int offset);
+    void glGetProgramiv(int program, int pname, int[] params, int offset);
+    String glGetShaderInfoLog(int shader);
+    String glGetProgramInfoLog(int program);
+    int glGetUniformLocation(int program, String name);
+    int glGetAttribLocation(int program, String name);
+
+    // program binaries, GLES30
+    void glProgramParameteri(int program, int pname, int value);
+    void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset,
+            int[] binaryFormat, int binaryFormatOffset, Buffer binary);
+    void glProgramBinary(int program, int binaryFormat, Buffer binary, int length);
+
+    // uniforms
+    void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset);
+    void glUniform4fv(int location, int count, float[] value, int offset);
+
+    // vertex attributes
+    void glEnableVertexAttribArray(int index);
+    void glDisableVertexAttribArray(int index);
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer data);
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset);
+
+    // buffer objects
+    void glGenBuffers(int n, int[] buffers, int offset);
+    void glDeleteBuffers(int n, int[] buffers, int offset);
+    void glBindBuffer(int target, int buffer);
+    void glBufferData(int target, int size, Buffer data, int usage);
+    void glBufferSubData(int target, int offset, int size, Buffer data);
+
+    // drawing
+    void glDrawArrays(int mode, int first, int count);
+    void glDrawElements(int mode, int count, int type, int offset);
+
+    // instancing, GLES30
+    void glDrawArraysInstanced(int mode, int first, int count, int instanceCount);
+    void glVertexAttribDivisor(int index, int divisor);
+
+    // framebuffer state
+    void glClearColor(float red, float green, float blue, float alpha);
+    void glClear(int mask);
+    void glEnable(int cap);
+    void glDisable(int cap);
+    void glViewport(int x, int y, int width, int height);
+    void glScissor(int x, int y, int width, int height);
+}
@@ -0,0 +1,332 @@
+package com.jradek.camera;
+
+import java.nio.Buffer;
+
+/**
+ * {@link GlApi} decorator counting the calls which reach the GL: draw calls,
+ * drawn vertices, uniform uploads, state changes and uploaded buffer bytes.
+ *
+ * Put it below a {@link GlStateCache} to count what is actually issued, or
+ * above to count what the renderer asks for. While disabled every call is
+ * forwarded after a single flag test.
+ */
+public class GlCounter implements GlApi {
+    private final GlApi mGl;
+    private boolean mEnabled = false;
+
+    private int mNumDrawCalls = 0;
+    private int mNumVertices = 0;
+    private int mNumUniformUploads = 0;
+    private int mNumStateChanges = 0;
+    private int mNumBufferBytes = 0;
+
+    public GlCounter(GlApi gl) {
+        mGl = gl;
+    }
+
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * @return number of draw calls, instanced ones count once
+     */
+    public int getDrawCallCount() {
+        return mNumDrawCalls;
+    }
+
+    /**
+     * @return number of vertices drawn, times the instance count for
+     * instanced draw calls
+     */
+    public int getVertexCount() {
+        return mNumVertices;
+    }
+
+    public int getUniformUploadCount() {
+        return mNumUniformUploads;
+    }
+
+    /**
+     * @return number of program, buffer, attribute and fixed function state
+     * changes
+     */
+    public int getStateChangeCount() {
+        return mNumStateChanges;
+    }
+
+    public int getBufferUploadBytes() {
+        return mNumBufferBytes;
+    }
+
+    public void resetCounters() {
+        mNumDrawCalls = 0;
+        mNumVertices = 0;
+        mNumUniformUploads = 0;
+        mNumStateChanges = 0;
+        mNumBufferBytes = 0;
+    }
+
+    private void countStateChange() {
+        if (mEnabled) {
+            ++mNumStateChanges;
+        }
+    }
+
+    private void countDraw(int vertices) {
+        if (mEnabled) {
+            ++mNumDrawCalls;
+            mNumVertices += vertices;
+        }
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return mGl.getMajorVersion();
+    }
+
+    @Override
+    public String glGetString(int name) {
+        return mGl.glGetString(name);
+    }
+
+    // shaders and programs
+
+    @Override
+    public int glCreateShader(int type) {
+        return mGl.glCreateShader(type);
+    }
+
+    @Override
+    public void glShaderSource(int shader, String source) {
+        mGl.glShaderSource(shader, source);
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        mGl.glCompileShader(shader);
+    }
+
+    @Override
+    public int glCreateProgram() {
+        return mGl.glCreateProgram();
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        mGl.glAttachShader(program, shader);
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        mGl.glLinkProgram(program);
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        countStateChange();
+        mGl.glUseProgram(program);
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        mGl.glDeleteShader(shader);
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        mGl.glDeleteProgram(program);
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        mGl.glGetShaderiv(shader, pname, params, offset);
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        mGl.glGetProgramiv(program, pname, params, offset);
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        return mGl.glGetShaderInfoLog(shader);
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        return mGl.glGetProgramInfoLog(program);
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        return mGl.glGetUniformLocation(program, name);
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        return mGl.glGetAttribLocation(program, name);
+    }
+
+    @Override
+    public void glProgramParameteri(int program, int pname, int value) {
+        mGl.glProgramParameteri(program, pname, value);
+    }
+
+    @Override
+    public void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset,
+            int[] binaryFormat, int binaryFormatOffset, Buffer binary) {
+        mGl.glGetProgramBinary(program, bufSize, length, lengthOffset,
+                binaryFormat, binaryFormatOffset, binary);
+    }
+
+    @Override
+    public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+        mGl.glProgramBinary(program, binaryFormat, binary, length);
+    }
+
+    // uniforms
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+        if (mEnabled) {
+            ++mNumUniformUploads;
+        }
+        mGl.glUniformMatrix4fv(location, count, transpose, value, offset);
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] value, int offset) {
+        if (mEnabled) {
+            ++mNumUniformUploads;
+        }
+        mGl.glUniform4fv(location, count, value, offset);
+    }
+
+    // vertex attributes
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        countStateChange();
+        mGl.glEnableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        countStateChange();
+        mGl.glDisableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer data) {
+        countStateChange();
+        mGl.glVertexAttribPointer(index, size, type, normalized, stride, data);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {
+        countStateChange();
+        mGl.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+    }
+
+    // buffer objects
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        mGl.glGenBuffers(n, buffers, offset);
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+        mGl.glDeleteBuffers(n, buffers, offset);
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        countStateChange();
+        mGl.glBindBuffer(target, buffer);
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        if (mEnabled && data != null) {
+            mNumBufferBytes += size;
+        }
+        mGl.glBufferData(target, size, data, usage);
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        if (mEnabled) {
+            mNumBufferBytes += size;
+        }
+        mGl.glBufferSubData(target, offset, size, data);
+    }
+
+    // drawing
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        countDraw(count);
+        mGl.glDrawArrays(mode, first, count);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        countDraw(count);
+        mGl.glDrawElements(mode, count, type, offset);
+    }
+
+    @Override
+    public void glDrawArraysInstanced(int mode, int first, int count, int instanceCount) {
+        countDraw(count * instanceCount);
+        mGl.glDrawArraysInstanced(mode, first, count, instanceCount);
+    }
+
+    @Override
+    public void glVertexAttribDivisor(int index, int divisor) {
+        countStateChange();
+        mGl.glVertexAttribDivisor(index, divisor);
+    }
+
+    // framebuffer state
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        countStateChange();
+        mGl.glClearColor(red, green, blue, alpha);
+    }
+
+    @Override
+    public void glClear(int mask) {
+        mGl.glClear(mask);
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        countStateChange();
+        mGl.glEnable(cap);
+    }
+
+    @Override
+    public void glDisable(int cap) {
+        countStateChange();
+        mGl.glDisable(cap);
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        countStateChange();
+        mGl.glViewport(x, y, width, height);
+    }
+
+    @Override
+    public void glScissor(int x, int y, int width, int height) {
+        countStateChange();
+        mGl.glScissor(x, y, width, height);
+    }
+}
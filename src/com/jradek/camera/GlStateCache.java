@@ -0,0 +1,447 @@
+package com.jradek.camera;
+
+import java.nio.Buffer;
+
+import android.opengl.GLES20;
+
+/**
+ * {@link GlApi} decorator which shadows GL state and drops calls that would
+ * not change it: the bound program, enabled vertex attributes, bound
+ * buffers, buffer based attribute pointers and uniform values.
+ *
+ * Uniform values are shadowed per program and location, so switching
+ * programs does not lose them. The counters tell how many of the shadowed
+ * calls were issued and how many were skipped.
+ *
+ * The shadow state is only valid as long as all GL calls go through this
+ * object, and has to be dropped with {@link #invalidate()} whenever a new
+ * context is created.
+ */
+public class GlStateCache implements GlApi {
+    static final int MAX_ATTRIBS = 32;
+
+    private final GlApi mGl;
+
+    private int mProgram;
+    private int mEnabledAttribs;
+    private int mArrayBuffer;
+    private int mElementArrayBuffer;
+
+    // buffer based attribute pointers, per attribute index
+    private final int[] mAttribBuffer = new int[MAX_ATTRIBS];
+    private final int[] mAttribSize = new int[MAX_ATTRIBS];
+    private final int[] mAttribType = new int[MAX_ATTRIBS];
+    private final boolean[] mAttribNormalized = new boolean[MAX_ATTRIBS];
+    private final int[] mAttribStride = new int[MAX_ATTRIBS];
+    private final int[] mAttribOffset = new int[MAX_ATTRIBS];
+
+    /** last uploaded uniform values, indexed by program and location */
+    private float[][][] mUniforms = new float[8][][];
+
+    private int mNumIssued = 0;
+    private int mNumSkipped = 0;
+
+    public GlStateCache(GlApi gl) {
+        mGl = gl;
+        invalidate();
+    }
+
+    /**
+     * Forgets all shadowed state, e.g. after the context was (re)created.
+     */
+    public void invalidate() {
+        mProgram = -1;
+        mEnabledAttribs = 0;
+        mArrayBuffer = -1;
+        mElementArrayBuffer = -1;
+
+        for (int i = 0; i < MAX_ATTRIBS; ++i) {
+            mAttribBuffer[i] = -1;
+        }
+
+        java.util.Arrays.fill(mUniforms, null);
+    }
+
+    /**
+     * @return number of shadowed calls passed to the GL
+     */
+    public int getIssuedCount() {
+        return mNumIssued;
+    }
+
+    /**
+     * @return number of shadowed calls dropped because they were redundant
+     */
+    public int getSkippedCount() {
+        return mNumSkipped;
+    }
+
+    public void resetCounters() {
+        mNumIssued = 0;
+        mNumSkipped = 0;
+    }
+
+    private boolean skip(boolean redundant) {
+        if (redundant) {
+            ++mNumSkipped;
+        } else {
+            ++mNumIssued;
+        }
+        return redundant;
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return mGl.getMajorVersion();
+    }
+
+    @Override
+    public String glGetString(int name) {
+        return mGl.glGetString(name);
+    }
+
+    // shaders and programs
+
+    @Override
+    public int glCreateShader(int type) {
+        return mGl.glCreateShader(type);
+    }
+
+    @Override
+    public void glShaderSource(int shader, String source) {
+        mGl.glShaderSource(shader, source);
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        mGl.glCompileShader(shader);
+    }
+
+    @Override
+    public int glCreateProgram() {
+        return mGl.glCreateProgram();
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        mGl.glAttachShader(program, shader);
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        // linking resets all uniforms to their defaults
+        forgetUniforms(program);
+        mGl.glLinkProgram(program);
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        if (skip(program == mProgram)) {
+            return;
+        }
+        mProgram = program;
+        mGl.glUseProgram(program);
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        mGl.glDeleteShader(shader);
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        forgetUniforms(program);
+        if (program == mProgram) {
+            mProgram = -1;
+        }
+        mGl.glDeleteProgram(program);
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        mGl.glGetShaderiv(shader, pname, params, offset);
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        mGl.glGetProgramiv(program, pname, params, offset);
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        return mGl.glGetShaderInfoLog(shader);
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        return mGl.glGetProgramInfoLog(program);
+    }
+
+    @Override
+    public void glProgramParameteri(int program, int pname, int value) {
+        mGl.glProgramParameteri(program, pname, value);
+    }
+
+    @Override
+    public void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset,
+            int[] binaryFormat, int binaryFormatOffset, Buffer binary) {
+        mGl.glGetProgramBinary(program, bufSize, length, lengthOffset,
+                binaryFormat, binaryFormatOffset, binary);
+    }
+
+    @Override
+    public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+        forgetUniforms(program);
+        mGl.glProgramBinary(program, binaryFormat, binary, length);
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        return mGl.glGetUniformLocation(program, name);
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        return mGl.glGetAttribLocation(program, name);
+    }
+
+    // uniforms
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+        if (skip(!transpose && !uniformChanged(location, value, offset, count * 16))) {
+            return;
+        }
+        mGl.glUniformMatrix4fv(location, count, transpose, value, offset);
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] value, int offset) {
+        if (skip(!uniformChanged(location, value, offset, count * 4))) {
+            return;
+        }
+        mGl.glUniform4fv(location, count, value, offset);
+    }
+
+    /**
+     * Compares a uniform of the current program with its shadow copy and
+     * updates the copy.
+     * @return true if the value differs or is unknown
+     */
+    private boolean uniformChanged(int location, float[] value, int offset, int length) {
+        if (location < 0 || mProgram < 0) {
+            return true;
+        }
+
+        if (mProgram >= mUniforms.length) {
+            final float[][][] uniforms = new float[Math.max(mProgram + 1, mUniforms.length * 2)][][];
+            System.arraycopy(mUniforms, 0, uniforms, 0, mUniforms.length);
+            mUniforms = uniforms;
+        }
+
+        float[][] locations = mUniforms[mProgram];
+        if (locations == null || location >= locations.length) {
+            final float[][] grown = new float[Math.max(location + 1, 8)][];
+            if (locations != null) {
+                System.arraycopy(locations, 0, grown, 0, locations.length);
+            }
+            mUniforms[mProgram] = locations = grown;
+        }
+
+        // uploading a part of an array leaves the rest unchanged, so the
+        // shadow copy only ever grows
+        float[] shadow = locations[location];
+        if (shadow == null || shadow.length < length) {
+            final float[] grown = new float[length];
+            if (shadow != null) {
+                System.arraycopy(shadow, 0, grown, 0, shadow.length);
+            }
+            System.arraycopy(value, offset, grown, 0, length);
+            locations[location] = grown;
+            return true;
+        }
+
+        boolean changed = false;
+        for (int i = 0; i < length; ++i) {
+            if (shadow[i] != value[offset + i]) {
+                changed = true;
+                shadow[i] = value[offset + i];
+            }
+        }
+        return changed;
+    }
+
+    private void forgetUniforms(int program) {
+        if (program >= 0 && program < mUniforms.length) {
+            mUniforms[program] = null;
+        }
+    }
+
+    // vertex attributes
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        if (index >= 0 && index < MAX_ATTRIBS) {
+            final int bit = 1 << index;
+            if (skip((mEnabledAttribs & bit) != 0)) {
+                return;
+            }
+            mEnabledAttribs |= bit;
+        }
+        mGl.glEnableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        if (index >= 0 && index < MAX_ATTRIBS) {
+            final int bit = 1 << index;
+            if (skip((mEnabledAttribs & bit) == 0)) {
+                return;
+            }
+            mEnabledAttribs &= ~bit;
+        }
+        mGl.glDisableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer data) {
+        // client side data may have changed, always pass it on
+        if (index >= 0 && index < MAX_ATTRIBS) {
+            mAttribBuffer[index] = -1;
+        }
+        mGl.glVertexAttribPointer(index, size, type, normalized, stride, data);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {
+        if (index >= 0 && index < MAX_ATTRIBS) {
+            final boolean redundant = mArrayBuffer >= 0
+                    && mAttribBuffer[index] == mArrayBuffer
+                    && mAttribSize[index] == size
+                    && mAttribType[index] == type
+                    && mAttribNormalized[index] == normalized
+                    && mAttribStride[index] == stride
+                    && mAttribOffset[index] == offset;
+
+            if (skip(redundant)) {
+                return;
+            }
+
+            mAttribBuffer[index] = mArrayBuffer;
+            mAttribSize[index] = size;
+            mAttribType[index] = type;
+            mAttribNormalized[index] = normalized;
+            mAttribStride[index] = stride;
+            mAttribOffset[index] = offset;
+        }
+        mGl.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+    }
+
+    // buffer objects
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        mGl.glGenBuffers(n, buffers, offset);
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+        // deleting a bound buffer unbinds it
+        for (int i = 0; i < n; ++i) {
+            final int buffer = buffers[offset + i];
+
+            if (buffer == mArrayBuffer) {
+                mArrayBuffer = 0;
+            }
+            if (buffer == mElementArrayBuffer) {
+                mElementArrayBuffer = 0;
+            }
+            for (int a = 0; a < MAX_ATTRIBS; ++a) {
+                if (mAttribBuffer[a] == buffer) {
+                    mAttribBuffer[a] = -1;
+                }
+            }
+        }
+        mGl.glDeleteBuffers(n, buffers, offset);
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        if (target == GLES20.GL_ARRAY_BUFFER) {
+            if (skip(buffer == mArrayBuffer)) {
+                return;
+            }
+            mArrayBuffer = buffer;
+        } else if (target == GLES20.GL_ELEMENT_ARRAY_BUFFER) {
+            if (skip(buffer == mElementArrayBuffer)) {
+                return;
+            }
+            mElementArrayBuffer = buffer;
+        }
+        mGl.glBindBuffer(target, buffer);
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        mGl.glBufferData(target, size, data, usage);
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        mGl.glBufferSubData(target, offset, size, data);
+    }
+
+    // drawing
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        mGl.glDrawArrays(mode, first, count);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        mGl.glDrawElements(mode, count, type, offset);
+    }
+
+    @Override
+    public void glDrawArraysInstanced(int mode, int first, int count, int instanceCount) {
+        mGl.glDrawArraysInstanced(mode, first, count, instanceCount);
+    }
+
+    @Override
+    public void glVertexAttribDivisor(int index, int divisor) {
+        mGl.glVertexAttribDivisor(index, divisor);
+    }
+
+    // framebuffer state
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        mGl.glClearColor(red, green, blue, alpha);
+    }
+
+    @Override
+    public void glClear(int mask) {
+        mGl.glClear(mask);
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        mGl.glEnable(cap);
+    }
+
+    @Override
+    public void glDisable(int cap) {
+        mGl.glDisable(cap);
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        mGl.glViewport(x, y, width, height);
+    }
+
+    @Override
+    public void glScissor(int x, int y, int width, int height) {
+        mGl.glScissor(x, y, width, height);
+    }
+}
@@ -0,0 +1,147 @@
+package com.jradek.camera;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+import android.opengl.GLES20;
+
+/**
+ * Buffer object holding 16 or 32 bit vertex indices. 32 bit indices need
+ * GLES30 or the OES_element_index_uint extension.
+ */
+public class IndexBuffer extends BufferObject {
+    static final int BYTES_PER_SHORT = 2;
+    static final int BYTES_PER_INT = 4;
+    /** vertices addressable by 16 bit indices */
+    static final int MAX_SHORT_VERTICES = 65536;
+
+    private static final String GLES_VERSION_PREFIX = "OpenGL ES ";
+    private static final String INT_EXTENSION = "GL_OES_element_index_uint";
+
+    private int mType = GLES20.GL_UNSIGNED_SHORT;
+    private int mNumIndices;
+
+    /**
+     * Creates the buffer and uploads the indices.
+     * @param gl the GL to use
+     * @param indices indices, uploaded from 0 to limit
+     * @param usage expected update frequency
+     */
+    public IndexBuffer(GlApi gl, ShortBuffer indices, Usage usage) {
+        super(gl, GLES20.GL_ELEMENT_ARRAY_BUFFER, usage);
+        setData(indices);
+    }
+
+    /**
+     * Creates the buffer and uploads indices in native byte order, e.g.
+     * straight from a mapped file.
+     * @param gl the GL to use
+     * @param indices indices, uploaded from 0 to limit
+     * @param type GL_UNSIGNED_SHORT or GL_UNSIGNED_INT
+     * @param usage expected update frequency
+     */
+    public IndexBuffer(GlApi gl, ByteBuffer indices, int type, Usage usage) {
+        super(gl, GLES20.GL_ELEMENT_ARRAY_BUFFER, usage);
+        setData(indices, type);
+    }
+
+    /**
+     * Creates the buffer and uploads the indices with 16 bits if they fit,
+     * with 32 bits otherwise.
+     * @param gl the GL to use
+     * @param indices indices
+     * @param count number of indices
+     * @param numVertices number of vertices indexed
+     * @param usage expected update frequency
+     */
+    public IndexBuffer(GlApi gl, final int[] indices, int count, int numVertices, Usage usage) {
+        this(gl, pack(indices, count, getType(numVertices)), getType(numVertices), usage);
+    }
+
+    /**
+     * @return the smallest index type for a number of vertices
+     */
+    public static int getType(int numVertices) {
+        return numVertices <= MAX_SHORT_VERTICES ? GLES20.GL_UNSIGNED_SHORT : GLES20.GL_UNSIGNED_INT;
+    }
+
+    /**
+     * @return GL_UNSIGNED_SHORT for 2 bytes per index, GL_UNSIGNED_INT for 4
+     */
+    public static int getTypeOfSize(int bytesPerIndex) {
+        return bytesPerIndex == BYTES_PER_INT ? GLES20.GL_UNSIGNED_INT : GLES20.GL_UNSIGNED_SHORT;
+    }
+
+    /**
+     * @return whether the GL can draw 32 bit indices, i.e. is GLES30 or
+     * newer or has the OES_element_index_uint extension. Call on the GL thread.
+     */
+    public static boolean isIntSupported(GlApi gl) {
+        // e.g. "OpenGL ES 3.0 <vendor specific>"
+        final String version = gl.glGetString(GLES20.GL_VERSION);
+        final int major = GLES_VERSION_PREFIX.length();
+        if (version != null && version.startsWith(GLES_VERSION_PREFIX) && version.length() > major
+                && version.charAt(major) >= '3' && version.charAt(major) <= '9') {
+            return true;
+        }
+
+        final String extensions = gl.glGetString(GLES20.GL_EXTENSIONS);
+        return extensions != null && (" " + extensions + " ").contains(" " + INT_EXTENSION + " ");
+    }
+
+    private static ByteBuffer pack(final int[] indices, int count, int type) {
+        final boolean shorts = type == GLES20.GL_UNSIGNED_SHORT;
+        final ByteBuffer data = ByteBuffer.allocateDirect(count * (shorts ? BYTES_PER_SHORT : BYTES_PER_INT))
+                .order(ByteOrder.nativeOrder());
+        for (int i = 0; i < count; ++i) {
+            if (shorts) {
+                data.putShort((short) indices[i]);
+            } else {
+                data.putInt(indices[i]);
+            }
+        }
+        data.flip();
+        return data;
+    }
+
+    public void setData(ShortBuffer indices) {
+        mType = GLES20.GL_UNSIGNED_SHORT;
+        mNumIndices = indices.limit();
+        upload(indices, mNumIndices * BYTES_PER_SHORT);
+        unbind();
+    }
+
+    public void setData(ByteBuffer indices, int type) {
+        mType = type;
+        mNumIndices = indices.limit() / getBytesPerIndex();
+        upload(indices, mNumIndices * getBytesPerIndex());
+        unbind();
+    }
+
+    public int getNumIndices() {
+        return mNumIndices;
+    }
+
+    /**
+     * @return GL_UNSIGNED_SHORT or GL_UNSIGNED_INT
+     */
+    public int getType() {
+        return mType;
+    }
+
+    public int getBytesPerIndex() {
+        return mType == GLES20.GL_UNSIGNED_INT ? BYTES_PER_INT : BYTES_PER_SHORT;
+    }
+
+    /**
+     * Draws a range of indices. Binds the buffer and leaves it bound.
+     * @param mode primitive type, e.g. GL_TRIANGLES
+     * @param first first index
+     * @param count number of indices
+     */
+    public void draw(int mode, int first, int count) {
+        bind();
+        mGl.glDrawElements(mode, count, mType, first * getBytesPerIndex());
+    }
+}
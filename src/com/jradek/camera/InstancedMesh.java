@@ -0,0 +1,248 @@
+package com.jradek.camera;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Draws many copies of a small mesh, each with its own offset, scale and
+ * color, with as few draw calls as possible.
+ *
+ * On GLES3 all copies are drawn with one glDrawArraysInstanced call, with
+ * offset/scale and color as per-instance attributes. On GLES2 the mesh is
+ * replicated BATCH_SIZE times in the vertex buffer, every replica tagged
+ * with its index, and the instance data is passed in uniform arrays, i.e.
+ * one draw call per BATCH_SIZE copies.
+ *
+ * Instance data lives in preallocated arrays and is only uploaded when it
+ * changed, so refilling it every frame does not allocate.
+ */
+public class InstancedMesh {
+    /**
+     * copies per draw call on GLES2, limited by the 128 vertex uniform
+     * vectors GLES2 guarantees (2 per instance + mvp)
+     */
+    static final int BATCH_SIZE = 48;
+
+    static final int COORDS_PER_VERTEX = 3;
+    static final int FLOATS_PER_INSTANCE = 4;
+
+    private static final String instancedVertexShaderCode =
+            "uniform mat4 uMVPMatrix;" +
+            "attribute vec4 aPosition;" +
+            "attribute vec4 aInstanceOffset;" +
+            "attribute vec4 aInstanceColor;" +
+            "varying vec4 vColor;" +
+            "void main() {" +
+            "  vColor = aInstanceColor;" +
+            "  gl_Position = uMVPMatrix * vec4(aPosition.xyz * aInstanceOffset.w + aInstanceOffset.xyz, 1.0);" +
+            "}";
+
+    private static final String batchedVertexShaderCode =
+            "uniform mat4 uMVPMatrix;" +
+            "uniform vec4 uInstanceOffset[" + BATCH_SIZE + "];" +
+            "uniform vec4 uInstanceColor[" + BATCH_SIZE + "];" +
+            // w holds the index of the replica
+            "attribute vec4 aPosition;" +
+            "varying vec4 vColor;" +
+            "void main() {" +
+            "  int i = int(aPosition.w);" +
+            "  vColor = uInstanceColor[i];" +
+            "  gl_Position = uMVPMatrix * vec4(aPosition.xyz * uInstanceOffset[i].w + uInstanceOffset[i].xyz, 1.0);" +
+            "}";
+
+    private static final String fragmentShaderCode =
+            "precision mediump float;" +
+            "varying vec4 vColor;" +
+            "void main() {" +
+            "  gl_FragColor = vColor;" +
+            "}";
+
+    private final GlApi mGl;
+    private final boolean mInstanced;
+    private final int mMode;
+    private final int mNumVertices;
+    private final int mMaxInstances;
+
+    private final ShaderProgram mShaderProgram;
+    private final int mMVPMatrixHandle;
+    private final int mPositionHandle;
+    private final int mOffsetHandle;
+    private final int mColorHandle;
+
+    private final VertexBuffer mMeshBuffer;
+
+    // instance data: x, y, z, scale and r, g, b, a
+    private int mNumInstances = 0;
+    private final float[] mOffsets;
+    private final float[] mColors;
+    private boolean mInstancesChanged = false;
+
+    // GLES3 only: offsets of all instances followed by their colors
+    private final FloatBuffer mInstanceData;
+    private final VertexBuffer mInstanceBuffer;
+
+    /**
+     * @param gl the GL to use
+     * @param shaderCache cache to get the program from
+     * @param positions x, y, z per vertex of the mesh
+     * @param mode primitive type, GL_TRIANGLES, GL_LINES or GL_POINTS
+     * @param maxInstances maximum number of copies
+     */
+    public InstancedMesh(GlApi gl, ShaderCache shaderCache, float[] positions, int mode, int maxInstances) {
+        mGl = gl;
+        mInstanced = gl.getMajorVersion() >= 3;
+        mMode = mode;
+        mNumVertices = positions.length / COORDS_PER_VERTEX;
+        mMaxInstances = maxInstances;
+
+        mOffsets = new float[maxInstances * FLOATS_PER_INSTANCE];
+        mColors = new float[maxInstances * FLOATS_PER_INSTANCE];
+
+        if (mInstanced) {
+            mMeshBuffer = new VertexBuffer(gl, toFloatBuffer(positions), BufferObject.Usage.Static);
+
+            mInstanceData = ByteBuffer.allocateDirect(2 * mOffsets.length * Util.BYTES_PER_FLOAT)
+                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
+            mInstanceBuffer = new VertexBuffer(gl, mInstanceData, BufferObject.Usage.Stream);
+
+            mShaderProgram = shaderCache.getProgram(instancedVertexShaderCode, fragmentShaderCode);
+            mOffsetHandle = mShaderProgram.getAttribLocation("aInstanceOffset");
+            mColorHandle = mShaderProgram.getAttribLocation("aInstanceColor");
+        } else {
+            // replicate the mesh, w is the replica index
+            final float[] replicated = new float[BATCH_SIZE * mNumVertices * 4];
+            int offset = 0;
+
+            for (int b = 0; b < BATCH_SIZE; ++b) {
+                for (int v = 0; v < mNumVertices; ++v) {
+                    replicated[offset++] = positions[v * COORDS_PER_VERTEX + 0];
+                    replicated[offset++] = positions[v * COORDS_PER_VERTEX + 1];
+                    replicated[offset++] = positions[v * COORDS_PER_VERTEX + 2];
+                    replicated[offset++] = b;
+                }
+            }
+
+            mMeshBuffer = new VertexBuffer(gl, toFloatBuffer(replicated), BufferObject.Usage.Static);
+            mInstanceData = null;
+            mInstanceBuffer = null;
+
+            mShaderProgram = shaderCache.getProgram(batchedVertexShaderCode, fragmentShaderCode);
+            mOffsetHandle = mShaderProgram.getUniformLocation("uInstanceOffset");
+            mColorHandle = mShaderProgram.getUniformLocation("uInstanceColor");
+        }
+
+        mMVPMatrixHandle = mShaderProgram.getUniformLocation("uMVPMatrix");
+        mPositionHandle = mShaderProgram.getAttribLocation("aPosition");
+    }
+
+    private static FloatBuffer toFloatBuffer(float[] data) {
+        final FloatBuffer buffer = ByteBuffer.allocateDirect(data.length * Util.BYTES_PER_FLOAT)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        buffer.put(data);
+        return buffer;
+    }
+
+    /**
+     * @return true if hardware instancing (GLES3) is used
+     */
+    public boolean isInstanced() {
+        return mInstanced;
+    }
+
+    public int getInstanceCount() {
+        return mNumInstances;
+    }
+
+    /**
+     * Removes all copies.
+     */
+    public void clear() {
+        mNumInstances = 0;
+        mInstancesChanged = true;
+    }
+
+    /**
+     * Adds a copy of the mesh, scaled and then moved.
+     * @return false if maxInstances is reached
+     */
+    public boolean add(float x, float y, float z, float scale, final float[] color) {
+        if (mNumInstances == mMaxInstances) {
+            return false;
+        }
+
+        final int o = mNumInstances * FLOATS_PER_INSTANCE;
+        mOffsets[o + 0] = x;
+        mOffsets[o + 1] = y;
+        mOffsets[o + 2] = z;
+        mOffsets[o + 3] = scale;
+        System.arraycopy(color, 0, mColors, o, FLOATS_PER_INSTANCE);
+
+        ++mNumInstances;
+        mInstancesChanged = true;
+        return true;
+    }
+
+    public void draw(float[] mvpMatrix) {
+        if (mNumInstances == 0) {
+            return;
+        }
+
+        mShaderProgram.use();
+        mGl.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mvpMatrix, 0);
+
+        if (mInstanced) {
+            drawInstanced();
+        } else {
+            drawBatched();
+        }
+    }
+
+    private void drawInstanced() {
+        final int instanceFloats = mNumInstances * FLOATS_PER_INSTANCE;
+
+        if (mInstancesChanged) {
+            mInstanceData.clear();
+            mInstanceData.put(mOffsets, 0, instanceFloats);
+            mInstanceData.put(mColors, 0, instanceFloats);
+            mInstanceData.flip();
+
+            mInstanceBuffer.setData(mInstanceData);
+            mInstancesChanged = false;
+        }
+
+        mMeshBuffer.setAttribPointer(mPositionHandle, COORDS_PER_VERTEX, 0, 0);
+        mGl.glEnableVertexAttribArray(mPositionHandle);
+
+        mInstanceBuffer.setAttribPointer(mOffsetHandle, FLOATS_PER_INSTANCE, 0, 0);
+        mInstanceBuffer.setAttribPointer(mColorHandle, FLOATS_PER_INSTANCE, 0,
+                instanceFloats * Util.BYTES_PER_FLOAT);
+        mGl.glEnableVertexAttribArray(mOffsetHandle);
+        mGl.glEnableVertexAttribArray(mColorHandle);
+        mGl.glVertexAttribDivisor(mOffsetHandle, 1);
+        mGl.glVertexAttribDivisor(mColorHandle, 1);
+
+        mGl.glDrawArraysInstanced(mMode, 0, mNumVertices, mNumInstances);
+
+        // divisors are not part of the program, don't leak them into other draws
+        mGl.glVertexAttribDivisor(mOffsetHandle, 0);
+        mGl.glVertexAttribDivisor(mColorHandle, 0);
+        mGl.glDisableVertexAttribArray(mOffsetHandle);
+        mGl.glDisableVertexAttribArray(mColorHandle);
+    }
+
+    private void drawBatched() {
+        mMeshBuffer.setAttribPointer(mPositionHandle, 4, 0, 0);
+        mGl.glEnableVertexAttribArray(mPositionHandle);
+
+        for (int first = 0; first < mNumInstances; first += BATCH_SIZE) {
+            final int count = Math.min(BATCH_SIZE, mNumInstances - first);
+
+            mGl.glUniform4fv(mOffsetHandle, count, mOffsets, first * FLOATS_PER_INSTANCE);
+            mGl.glUniform4fv(mColorHandle, count, mColors, first * FLOATS_PER_INSTANCE);
+            mGl.glDrawArrays(mMode, 0, count * mNumVertices);
+        }
+
+        mInstancesChanged = false;
+    }
+}
@@ -0,0 +1,332 @@
+package com.jradek.camera;
+
+/**
+ * Allocation free 4x4 float matrix math in plain Java, replacing
+ * android.opengl.Matrix for the camera code so it runs on any JVM.
+ *
+ * Matrices are column-major float[16] at an offset, like in
+ * android.opengl.Matrix, and the general functions give the same results.
+ * Besides those there are fast paths for the matrices a camera deals with:
+ * affine transforms, rigid (view) transforms and symmetric perspective
+ * projections.
+ *
+ * Unless noted otherwise the result must not overlap any input.
+ */
+public final class Matrix4f {
+    private Matrix4f() {
+    }
+
+    public static void setIdentity(float[] m, int offset) {
+        for (int i = 0; i < 16; ++i) {
+            m[offset + i] = 0;
+        }
+        m[offset + 0] = 1;
+        m[offset + 5] = 1;
+        m[offset + 10] = 1;
+        m[offset + 15] = 1;
+    }
+
+    /**
+     * Symmetric perspective projection, same as Matrix.perspectiveM.
+     */
+    public static void setPerspective(float[] m, int offset, float fovyDegree, float aspectRatio,
+            float near, float far) {
+        final float f = 1.0f / (float) Math.tan(fovyDegree * (Math.PI / 360.0));
+        final float rangeReciprocal = 1.0f / (near - far);
+
+        for (int i = 0; i < 16; ++i) {
+            m[offset + i] = 0;
+        }
+        m[offset + 0] = f / aspectRatio;
+        m[offset + 5] = f;
+        m[offset + 10] = (far + near) * rangeReciprocal;
+        m[offset + 11] = -1.0f;
+        m[offset + 14] = 2.0f * far * near * rangeReciprocal;
+    }
+
+    /**
+     * General perspective projection, same as Matrix.frustumM.
+     */
+    public static void setFrustum(float[] m, int offset, float left, float right, float bottom, float top,
+            float near, float far) {
+        if (left == right || bottom == top || near == far || near <= 0.0f || far <= 0.0f) {
+            throw new IllegalArgumentException("degenerate frustum");
+        }
+
+        final float widthReciprocal = 1.0f / (right - left);
+        final float heightReciprocal = 1.0f / (top - bottom);
+        final float depthReciprocal = 1.0f / (near - far);
+
+        for (int i = 0; i < 16; ++i) {
+            m[offset + i] = 0;
+        }
+        m[offset + 0] = 2.0f * (near * widthReciprocal);
+        m[offset + 5] = 2.0f * (near * heightReciprocal);
+        m[offset + 8] = (right + left) * widthReciprocal;
+        m[offset + 9] = (top + bottom) * heightReciprocal;
+        m[offset + 10] = (far + near) * depthReciprocal;
+        m[offset + 11] = -1.0f;
+        m[offset + 14] = 2.0f * (far * near * depthReciprocal);
+    }
+
+    /**
+     * View matrix of an eye looking at a center, same as Matrix.setLookAtM.
+     * The up vector need not be orthogonal to the look direction.
+     */
+    public static void setLookAt(float[] m, int offset, float eyeX, float eyeY, float eyeZ,
+            float centerX, float centerY, float centerZ, float upX, float upY, float upZ) {
+        float fx = centerX - eyeX;
+        float fy = centerY - eyeY;
+        float fz = centerZ - eyeZ;
+        final float fl = 1.0f / (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+        fx *= fl;
+        fy *= fl;
+        fz *= fl;
+
+        // side = forward x up
+        float sx = fy * upZ - fz * upY;
+        float sy = fz * upX - fx * upZ;
+        float sz = fx * upY - fy * upX;
+        final float sl = 1.0f / (float) Math.sqrt(sx * sx + sy * sy + sz * sz);
+        sx *= sl;
+        sy *= sl;
+        sz *= sl;
+
+        // up = side x forward, already unit length
+        final float ux = sy * fz - sz * fy;
+        final float uy = sz * fx - sx * fz;
+        final float uz = sx * fy - sy * fx;
+
+        m[offset + 0] = sx;
+        m[offset + 1] = ux;
+        m[offset + 2] = -fx;
+        m[offset + 3] = 0;
+        m[offset + 4] = sy;
+        m[offset + 5] = uy;
+        m[offset + 6] = -fy;
+        m[offset + 7] = 0;
+        m[offset + 8] = sz;
+        m[offset + 9] = uz;
+        m[offset + 10] = -fz;
+        m[offset + 11] = 0;
+        m[offset + 12] = 0;
+        m[offset + 13] = 0;
+        m[offset + 14] = 0;
+        m[offset + 15] = 1;
+
+        translate(m, offset, m, offset, -eyeX, -eyeY, -eyeZ);
+    }
+
+    /**
+     * result = lhs * rhs
+     */
+    public static void multiply(float[] result, int resultOffset, final float[] lhs, int lhsOffset,
+            final float[] rhs, int rhsOffset) {
+        for (int j = 0; j < 4; ++j) {
+            final int c = rhsOffset + j * 4;
+            final float r0 = rhs[c], r1 = rhs[c + 1], r2 = rhs[c + 2], r3 = rhs[c + 3];
+
+            for (int i = 0; i < 4; ++i) {
+                result[resultOffset + j * 4 + i] = lhs[lhsOffset + i] * r0
+                        + lhs[lhsOffset + 4 + i] * r1
+                        + lhs[lhsOffset + 8 + i] * r2
+                        + lhs[lhsOffset + 12 + i] * r3;
+            }
+        }
+    }
+
+    /**
+     * result = lhs * rhs, for two affine matrices, i.e. matrices with a
+     * last row of (0, 0, 0, 1).
+     */
+    public static void multiplyAffine(float[] result, int resultOffset, final float[] lhs, int lhsOffset,
+            final float[] rhs, int rhsOffset) {
+        for (int j = 0; j < 4; ++j) {
+            final int c = rhsOffset + j * 4;
+            final float r0 = rhs[c], r1 = rhs[c + 1], r2 = rhs[c + 2];
+
+            for (int i = 0; i < 3; ++i) {
+                result[resultOffset + j * 4 + i] = lhs[lhsOffset + i] * r0
+                        + lhs[lhsOffset + 4 + i] * r1
+                        + lhs[lhsOffset + 8 + i] * r2;
+            }
+            result[resultOffset + j * 4 + 3] = 0;
+        }
+
+        // translation column
+        result[resultOffset + 12] += lhs[lhsOffset + 12];
+        result[resultOffset + 13] += lhs[lhsOffset + 13];
+        result[resultOffset + 14] += lhs[lhsOffset + 14];
+        result[resultOffset + 15] = 1;
+    }
+
+    /**
+     * result = projection * view, for a projection from
+     * {@link #setPerspective} and an affine view matrix. Uses 16 instead of
+     * 64 multiplications.
+     */
+    public static void multiplyPerspectiveAffine(float[] result, int resultOffset,
+            final float[] projection, int projectionOffset, final float[] view, int viewOffset) {
+        final float sx = projection[projectionOffset + 0];
+        final float sy = projection[projectionOffset + 5];
+        final float a = projection[projectionOffset + 10];
+        final float b = projection[projectionOffset + 14];
+
+        for (int j = 0; j < 4; ++j) {
+            final int c = viewOffset + j * 4;
+            final int r = resultOffset + j * 4;
+            final float w = (j == 3) ? 1.0f : 0.0f;
+
+            result[r + 0] = sx * view[c + 0];
+            result[r + 1] = sy * view[c + 1];
+            result[r + 2] = a * view[c + 2] + b * w;
+            result[r + 3] = -view[c + 2];
+        }
+    }
+
+    /**
+     * result = m * v, for 4 component vectors. Same as Matrix.multiplyMV.
+     */
+    public static void multiplyVector(float[] result, int resultOffset, final float[] m, int matrixOffset,
+            final float[] v, int vectorOffset) {
+        final float x = v[vectorOffset], y = v[vectorOffset + 1];
+        final float z = v[vectorOffset + 2], w = v[vectorOffset + 3];
+
+        for (int i = 0; i < 4; ++i) {
+            result[resultOffset + i] = m[matrixOffset + i] * x
+                    + m[matrixOffset + 4 + i] * y
+                    + m[matrixOffset + 8 + i] * z
+                    + m[matrixOffset + 12 + i] * w;
+        }
+    }
+
+    /**
+     * result = m * translation(x, y, z), same as Matrix.translateM. result
+     * may be m.
+     */
+    public static void translate(float[] result, int resultOffset, final float[] m, int matrixOffset,
+            float x, float y, float z) {
+        if (result != m || resultOffset != matrixOffset) {
+            System.arraycopy(m, matrixOffset, result, resultOffset, 12);
+        }
+
+        for (int i = 0; i < 4; ++i) {
+            result[resultOffset + 12 + i] = m[matrixOffset + i] * x
+                    + m[matrixOffset + 4 + i] * y
+                    + m[matrixOffset + 8 + i] * z
+                    + m[matrixOffset + 12 + i];
+        }
+    }
+
+    /**
+     * result = m * translation(x, y, z) * scale(sx, sy, sz), e.g. the mvp
+     * matrix of quantized positions. result may be m.
+     */
+    public static void translateScale(float[] result, int resultOffset, final float[] m, int matrixOffset,
+            float x, float y, float z, float sx, float sy, float sz) {
+        translate(result, resultOffset, m, matrixOffset, x, y, z);
+
+        for (int i = 0; i < 4; ++i) {
+            result[resultOffset + i] = m[matrixOffset + i] * sx;
+            result[resultOffset + 4 + i] = m[matrixOffset + 4 + i] * sy;
+            result[resultOffset + 8 + i] = m[matrixOffset + 8 + i] * sz;
+        }
+    }
+
+    /**
+     * General inverse, same as Matrix.invertM.
+     * @return false if m is singular, result is unchanged then
+     */
+    public static boolean invert(float[] result, int resultOffset, final float[] m, int matrixOffset) {
+        final int o = matrixOffset;
+        final float m00 = m[o], m01 = m[o + 4], m02 = m[o + 8], m03 = m[o + 12];
+        final float m10 = m[o + 1], m11 = m[o + 5], m12 = m[o + 9], m13 = m[o + 13];
+        final float m20 = m[o + 2], m21 = m[o + 6], m22 = m[o + 10], m23 = m[o + 14];
+        final float m30 = m[o + 3], m31 = m[o + 7], m32 = m[o + 11], m33 = m[o + 15];
+
+        // 2x2 determinants of the upper and lower two rows
+        final float s0 = m00 * m11 - m10 * m01;
+        final float s1 = m00 * m12 - m10 * m02;
+        final float s2 = m00 * m13 - m10 * m03;
+        final float s3 = m01 * m12 - m11 * m02;
+        final float s4 = m01 * m13 - m11 * m03;
+        final float s5 = m02 * m13 - m12 * m03;
+
+        final float c5 = m22 * m33 - m32 * m23;
+        final float c4 = m21 * m33 - m31 * m23;
+        final float c3 = m21 * m32 - m31 * m22;
+        final float c2 = m20 * m33 - m30 * m23;
+        final float c1 = m20 * m32 - m30 * m22;
+        final float c0 = m20 * m31 - m30 * m21;
+
+        final float det = s0 * c5 - s1 * c4 + s2 * c3 + s3 * c2 - s4 * c1 + s5 * c0;
+        if (det == 0.0f) {
+            return false;
+        }
+        final float inv = 1.0f / det;
+        final int r = resultOffset;
+
+        result[r + 0] = (m11 * c5 - m12 * c4 + m13 * c3) * inv;
+        result[r + 4] = (-m01 * c5 + m02 * c4 - m03 * c3) * inv;
+        result[r + 8] = (m31 * s5 - m32 * s4 + m33 * s3) * inv;
+        result[r + 12] = (-m21 * s5 + m22 * s4 - m23 * s3) * inv;
+
+        result[r + 1] = (-m10 * c5 + m12 * c2 - m13 * c1) * inv;
+        result[r + 5] = (m00 * c5 - m02 * c2 + m03 * c1) * inv;
+        result[r + 9] = (-m30 * s5 + m32 * s2 - m33 * s1) * inv;
+        result[r + 13] = (m20 * s5 - m22 * s2 + m23 * s1) * inv;
+
+        result[r + 2] = (m10 * c4 - m11 * c2 + m13 * c0) * inv;
+        result[r + 6] = (-m00 * c4 + m01 * c2 - m03 * c0) * inv;
+        result[r + 10] = (m30 * s4 - m31 * s2 + m33 * s0) * inv;
+        result[r + 14] = (-m20 * s4 + m21 * s2 - m23 * s0) * inv;
+
+        result[r + 3] = (-m10 * c3 + m11 * c1 - m12 * c0) * inv;
+        result[r + 7] = (m00 * c3 - m01 * c1 + m02 * c0) * inv;
+        result[r + 11] = (-m30 * s3 + m31 * s1 - m32 * s0) * inv;
+        result[r + 15] = (m20 * s3 - m21 * s1 + m22 * s0) * inv;
+        return true;
+    }
+
+    /**
+     * Inverse of a rotation plus translation, e.g. a view matrix: the
+     * transposed rotation and the back rotated negative translation.
+     */
+    public static void invertRigid(float[] result, int resultOffset, final float[] m, int matrixOffset) {
+        final int o = matrixOffset;
+        final int r = resultOffset;
+
+        for (int i = 0; i < 3; ++i) {
+            for (int j = 0; j < 3; ++j) {
+                result[r + j * 4 + i] = m[o + i * 4 + j];
+            }
+            result[r + i * 4 + 3] = 0;
+        }
+
+        final float tx = m[o + 12], ty = m[o + 13], tz = m[o + 14];
+        result[r + 12] = -(m[o + 0] * tx + m[o + 1] * ty + m[o + 2] * tz);
+        result[r + 13] = -(m[o + 4] * tx + m[o + 5] * ty + m[o + 6] * tz);
+        result[r + 14] = -(m[o + 8] * tx + m[o + 9] * ty + m[o + 10] * tz);
+        result[r + 15] = 1;
+    }
+
+    /**
+     * Inverse of a projection from {@link #setPerspective}.
+     */
+    public static void invertPerspective(float[] result, int resultOffset,
+            final float[] projection, int projectionOffset) {
+        final float sx = projection[projectionOffset + 0];
+        final float sy = projection[projectionOffset + 5];
+        final float a = projection[projectionOffset + 10];
+        final float b = projection[projectionOffset + 14];
+
+        for (int i = 0; i < 16; ++i) {
+            result[resultOffset + i] = 0;
+        }
+        result[resultOffset + 0] = 1.0f / sx;
+        result[resultOffset + 5] = 1.0f / sy;
+        result[resultOffset + 11] = 1.0f / b;
+        result[resultOffset + 14] = -1.0f;
+        result[resultOffset + 15] = a / b;
+    }
+}
@@ -0,0 +1,416 @@
+package com.jradek.camera;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Compact binary mesh, laid out so it can be memory mapped and uploaded to
+ * buffer objects without any conversion. Written by {@link #write}, e.g.
+ * from an OBJ file by {@link ObjConverter}.
+ *
+ * The file is little endian, which is the native byte order of all Android
+ * devices:
+ *
+ * header: magic, version, attributes, vertex stride [bytes], vertex count,
+ *         index count, bytes per index (2 or 4), part count (int each),
+ *         bounds min x, y, z, max x, y, z (float each), level count (int)
+ * parts:  first index, index count (int each), bounds (6 floats), then
+ *         per coarser level first index, index count (int each) and
+ *         error (float)
+ * vertex data, index data, both starting at a multiple of 4
+ *
+ * Every vertex starts with its position (3 floats), followed by the other
+ * attributes. Parts are ranges of triangles, e.g. the objects of an OBJ file.
+ *
+ * Every part has the same number of levels of detail, level 0 being the full
+ * part. Coarser levels are further index ranges over the same vertices,
+ * their error is the largest distance a vertex moved in object units, see
+ * {@link MeshSimplifier}.
+ *
+ * Quantized meshes store positions as normalized shorts within the mesh
+ * bounds, see {@link PositionQuantizer}, padded to 8 bytes, and normals as
+ * normalized bytes padded to 4 bytes. That shrinks a vertex with normal
+ * from 24 to 12 bytes.
+ */
+public class MeshFile {
+    static final int MAGIC = 0x4853454d; // "MESH"
+    static final int VERSION = 2;
+
+    /** attribute flags */
+    public static final int POSITION = 1;
+    public static final int NORMAL = 2;
+    /** positions and normals are quantized */
+    public static final int QUANTIZED = 4;
+
+    static final int QUANTIZED_POSITION_SIZE = 4 * 2;
+    static final int QUANTIZED_NORMAL_SIZE = 4;
+
+    /** offset of the bounds in the header */
+    static final int BOUNDS = 8 * 4;
+    static final int LEVELS = BOUNDS + 6 * 4;
+    static final int HEADER_SIZE = LEVELS + 4;
+    static final int PART_SIZE = 2 * 4 + 6 * 4;
+    static final int LEVEL_SIZE = 3 * 4;
+
+    /** vertices addressable by 16 bit indices */
+    static final int MAX_SHORT_VERTICES = 65536;
+
+    private final MappedByteBuffer mData;
+
+    private final int mAttributes;
+    private final int mStride;
+    private final int mNumVertices;
+    private final int mNumIndices;
+    private final int mBytesPerIndex;
+    private final int mNumParts;
+    private final int mNumLevels;
+    private final int mPartSize;
+
+    private final int mVertexOffset;
+    private final int mIndexOffset;
+    /** null if the positions are floats */
+    private final PositionQuantizer mQuantizer;
+
+    /**
+     * Maps a mesh file.
+     */
+    public MeshFile(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            // the mapping stays valid after the channel is closed
+            mData = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+        mData.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) {
+            throw new IOException("mesh files can only be used on little endian devices");
+        }
+        if (mData.capacity() < HEADER_SIZE || mData.getInt(0) != MAGIC) {
+            throw new IOException("not a mesh: " + file);
+        }
+        if (mData.getInt(4) != VERSION) {
+            throw new IOException("unsupported mesh version " + mData.getInt(4) + ": " + file);
+        }
+
+        mAttributes = mData.getInt(8);
+        mStride = mData.getInt(12);
+        mNumVertices = mData.getInt(16);
+        mNumIndices = mData.getInt(20);
+        mBytesPerIndex = mData.getInt(24);
+        mNumParts = mData.getInt(28);
+        mNumLevels = mData.getInt(LEVELS);
+
+        final long partSize = PART_SIZE + (mNumLevels - 1L) * LEVEL_SIZE;
+        final long vertexOffset = HEADER_SIZE + (long) mNumParts * partSize;
+        final long indexOffset = (vertexOffset + (long) mNumVertices * mStride + 3) & ~3L;
+        final long size = indexOffset + (long) mNumIndices * mBytesPerIndex;
+
+        final int minStride = isQuantized() ? QUANTIZED_POSITION_SIZE : 3 * Util.BYTES_PER_FLOAT;
+        if ((mAttributes & POSITION) == 0 || mStride < minStride
+                || (mBytesPerIndex != 2 && mBytesPerIndex != 4)
+                || mNumParts < 0 || mNumVertices < 0 || mNumIndices < 0 || mNumLevels < 1
+                || partSize > mData.capacity() || size > mData.capacity()) {
+            throw new IOException("corrupt mesh: " + file);
+        }
+        mPartSize = (int) partSize;
+        mVertexOffset = (int) vertexOffset;
+        mIndexOffset = (int) indexOffset;
+        mQuantizer = isQuantized() ? new PositionQuantizer(getBounds(new BoundingBox())) : null;
+
+        // whatever reads the mesh, the GL included, relies on the ranges
+        validateParts(file);
+        validateIndices(file);
+    }
+
+    /**
+     * Checks that every level of every part is a range of whole triangles
+     * within the indices.
+     */
+    private void validateParts(File file) throws IOException {
+        for (int part = 0; part < mNumParts; ++part) {
+            for (int level = 0; level < mNumLevels; ++level) {
+                final int first = getPartFirstIndex(part, level);
+                final int count = getPartIndexCount(part, level);
+                if (first < 0 || count < 0 || count % 3 != 0 || (long) first + count > mNumIndices) {
+                    throw new IOException("corrupt mesh, part " + part + " level " + level
+                            + " indexes " + first + ".." + ((long) first + count) + " of "
+                            + mNumIndices + ": " + file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that every index refers to a vertex.
+     */
+    private void validateIndices(File file) throws IOException {
+        for (int i = 0; i < mNumIndices; ++i) {
+            final int index = getIndex(i);
+            if (index < 0 || index >= mNumVertices) {
+                throw new IOException("corrupt mesh, index " + i + " refers to vertex " + index
+                        + " of " + mNumVertices + ": " + file);
+            }
+        }
+    }
+
+    private static int align(int offset) {
+        return (offset + 3) & ~3;
+    }
+
+    public int getAttributes() {
+        return mAttributes;
+    }
+
+    public boolean isQuantized() {
+        return (mAttributes & QUANTIZED) != 0;
+    }
+
+    /**
+     * @return distance between two vertices in bytes
+     */
+    public int getStride() {
+        return mStride;
+    }
+
+    public int getVertexCount() {
+        return mNumVertices;
+    }
+
+    public int getIndexCount() {
+        return mNumIndices;
+    }
+
+    /**
+     * @return 2 or 4
+     */
+    public int getBytesPerIndex() {
+        return mBytesPerIndex;
+    }
+
+    /**
+     * @return the vertex data, a view of the mapping
+     */
+    public ByteBuffer getVertexData() {
+        return slice(mVertexOffset, mNumVertices * mStride);
+    }
+
+    /**
+     * @return the index data, a view of the mapping
+     */
+    public ByteBuffer getIndexData() {
+        return slice(mIndexOffset, mNumIndices * mBytesPerIndex);
+    }
+
+    /**
+     * @return an index, for reading a few triangles on the CPU
+     */
+    public int getIndex(int i) {
+        final int offset = mIndexOffset + i * mBytesPerIndex;
+        return mBytesPerIndex == 4 ? mData.getInt(offset) : mData.getShort(offset) & 0xffff;
+    }
+
+    /**
+     * Reads the position of a vertex, dequantized if need be.
+     * @param dest receives x, y, z
+     */
+    public void getPosition(int vertex, float[] dest, int offset) {
+        final int v = mVertexOffset + vertex * mStride;
+        if (mQuantizer != null) {
+            for (int i = 0; i < 3; ++i) {
+                dest[offset + i] = mQuantizer.dequantize(i, mData.getShort(v + i * 2));
+            }
+        } else {
+            for (int i = 0; i < 3; ++i) {
+                dest[offset + i] = mData.getFloat(v + i * Util.BYTES_PER_FLOAT);
+            }
+        }
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        final ByteBuffer data = mData.duplicate();
+        data.position(offset);
+        data.limit(offset + length);
+        return data.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public BoundingBox getBounds(BoundingBox dest) {
+        return getBox(BOUNDS, dest);
+    }
+
+    public int getPartCount() {
+        return mNumParts;
+    }
+
+    /**
+     * @return number of levels of detail of every part, at least 1
+     */
+    public int getLevelCount() {
+        return mNumLevels;
+    }
+
+    public int getPartFirstIndex(int part) {
+        return getPartFirstIndex(part, 0);
+    }
+
+    public int getPartIndexCount(int part) {
+        return getPartIndexCount(part, 0);
+    }
+
+    public int getPartFirstIndex(int part, int level) {
+        return mData.getInt(getLevelOffset(part, level));
+    }
+
+    public int getPartIndexCount(int part, int level) {
+        return mData.getInt(getLevelOffset(part, level) + 4);
+    }
+
+    /**
+     * @return largest distance a vertex of the level moved from its
+     * position in the full part, 0 for level 0
+     */
+    public float getPartError(int part, int level) {
+        return level == 0 ? 0.0f : mData.getFloat(getLevelOffset(part, level) + 8);
+    }
+
+    public BoundingBox getPartBounds(int part, BoundingBox dest) {
+        return getBox(HEADER_SIZE + part * mPartSize + 8, dest);
+    }
+
+    private int getLevelOffset(int part, int level) {
+        final int offset = HEADER_SIZE + part * mPartSize;
+        return level == 0 ? offset : offset + PART_SIZE + (level - 1) * LEVEL_SIZE;
+    }
+
+    private BoundingBox getBox(int offset, BoundingBox dest) {
+        dest.minX = mData.getFloat(offset);
+        dest.minY = mData.getFloat(offset + 4);
+        dest.minZ = mData.getFloat(offset + 8);
+        dest.maxX = mData.getFloat(offset + 12);
+        dest.maxY = mData.getFloat(offset + 16);
+        dest.maxZ = mData.getFloat(offset + 20);
+        return dest;
+    }
+
+    /**
+     * Writes a mesh file. Indices are stored with 16 bits if there are at
+     * most 65536 vertices.
+     * @param file file to write
+     * @param attributes attribute flags, POSITION at least, QUANTIZED to
+     * quantize the vertices
+     * @param floatsPerVertex number of floats of a vertex, position first,
+     * followed by the normal if NORMAL is set
+     * @param vertices vertex data
+     * @param numVertices number of vertices
+     * @param indices triangle indices
+     * @param numIndices number of indices
+     * @param partFirstIndex first index of every level of every part, at
+     * part * numLevels + level
+     * @param partIndexCount number of indices of every level of every part
+     * @param partError error of every level of every part, ignored for level 0
+     * @param numParts number of parts
+     * @param numLevels number of levels of detail per part, at least 1
+     */
+    public static void write(File file, int attributes, int floatsPerVertex,
+            final float[] vertices, int numVertices, final int[] indices, int numIndices,
+            final int[] partFirstIndex, final int[] partIndexCount, final float[] partError,
+            int numParts, int numLevels) throws IOException {
+        final boolean quantized = (attributes & QUANTIZED) != 0;
+        final boolean normals = (attributes & NORMAL) != 0;
+        final int bytesPerIndex = numVertices <= MAX_SHORT_VERTICES ? 2 : 4;
+        final int stride = !quantized ? floatsPerVertex * Util.BYTES_PER_FLOAT
+                : QUANTIZED_POSITION_SIZE + (normals ? QUANTIZED_NORMAL_SIZE : 0);
+        final int partSize = PART_SIZE + (numLevels - 1) * LEVEL_SIZE;
+        final int vertexOffset = HEADER_SIZE + numParts * partSize;
+        final int indexOffset = align(vertexOffset + numVertices * stride);
+        final int size = indexOffset + numIndices * bytesPerIndex;
+
+        final ByteBuffer data = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+
+        data.putInt(MAGIC).putInt(VERSION).putInt(attributes | POSITION).putInt(stride)
+                .putInt(numVertices).putInt(numIndices).putInt(bytesPerIndex).putInt(numParts);
+        final BoundingBox bounds = getBounds(vertices, floatsPerVertex, indices, 0, numIndices);
+        putBox(data, bounds);
+        data.putInt(numLevels);
+
+        for (int i = 0; i < numParts; ++i) {
+            final int l = i * numLevels;
+            data.putInt(partFirstIndex[l]).putInt(partIndexCount[l]);
+            putBox(data, getBounds(vertices, floatsPerVertex, indices, partFirstIndex[l], partIndexCount[l]));
+
+            for (int level = 1; level < numLevels; ++level) {
+                data.putInt(partFirstIndex[l + level]).putInt(partIndexCount[l + level])
+                        .putFloat(partError[l + level]);
+            }
+        }
+
+        if (quantized) {
+            final PositionQuantizer quantizer = new PositionQuantizer(bounds);
+            for (int v = 0; v < numVertices * floatsPerVertex; v += floatsPerVertex) {
+                quantizer.put(data, vertices[v], vertices[v + 1], vertices[v + 2]);
+                if (normals) {
+                    data.put(toByte(vertices[v + 3])).put(toByte(vertices[v + 4])).put(toByte(vertices[v + 5]))
+                            .put((byte) 0);
+                }
+            }
+        } else {
+            data.asFloatBuffer().put(vertices, 0, numVertices * floatsPerVertex);
+        }
+
+        data.position(indexOffset);
+        for (int i = 0; i < numIndices; ++i) {
+            if (bytesPerIndex == 2) {
+                data.putShort((short) indices[i]);
+            } else {
+                data.putInt(indices[i]);
+            }
+        }
+        data.flip();
+
+        final FileOutputStream stream = new FileOutputStream(file);
+        try {
+            final FileChannel channel = stream.getChannel();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * @return a normalized component, e.g. of a normal, as a normalized byte
+     */
+    private static byte toByte(float value) {
+        return (byte) Math.round(Math.max(-1.0f, Math.min(1.0f, value)) * 127);
+    }
+
+    /**
+     * @return bounds of the vertices referred to by a range of indices
+     */
+    private static BoundingBox getBounds(final float[] vertices, int floatsPerVertex,
+            final int[] indices, int first, int count) {
+        final BoundingBox box = new BoundingBox();
+        if (count == 0) {
+            box.set(0, 0, 0, 0, 0, 0);
+        }
+        for (int i = first; i < first + count; ++i) {
+            final int v = indices[i] * floatsPerVertex;
+            box.include(vertices[v], vertices[v + 1], vertices[v + 2]);
+        }
+        return box;
+    }
+
+    private static void putBox(ByteBuffer data, final BoundingBox box) {
+        data.putFloat(box.minX).putFloat(box.minY).putFloat(box.minZ)
+                .putFloat(box.maxX).putFloat(box.maxY).putFloat(box.maxZ);
+    }
+}
@@ -0,0 +1,181 @@
+package com.jradek.camera;
+
+import java.util.HashMap;
+
+/**
+ * Builds coarser levels of detail of triangles by vertex clustering: space
+ * is divided into cubic cells, all vertices of a cell are replaced by the
+ * one closest to their average, and triangles collapsing to a line or a
+ * point are dropped.
+ *
+ * The levels only consist of indices into the original vertices, so they
+ * cost no vertex memory. Robust for any input, but less faithful than edge
+ * collapse, meant for distant objects. Free of GL, so it runs on the device
+ * as well as on the command line.
+ */
+final class MeshSimplifier {
+    private final float[] mVertices;
+    private final int mFloatsPerVertex;
+
+    private final HashMap<Long, Integer> mCells = new HashMap<Long, Integer>();
+    private int[] mVertexCluster = new int[0];
+    private float[] mClusterSums = new float[0];
+    private int[] mClusterCounts = new int[0];
+    private int[] mClusterVertex = new int[0];
+    private float[] mClusterDistance = new float[0];
+
+    /** error of the last {@link #simplify} */
+    private float mError;
+
+    /**
+     * @param vertices vertex data, position first
+     * @param floatsPerVertex number of floats of a vertex
+     */
+    MeshSimplifier(final float[] vertices, int floatsPerVertex) {
+        mVertices = vertices;
+        mFloatsPerVertex = floatsPerVertex;
+    }
+
+    /**
+     * @return average edge length of a range of triangles, a starting point
+     * for the cell size
+     */
+    float getAverageEdgeLength(final int[] indices, int first, int count) {
+        if (count < 3) {
+            return 0.0f;
+        }
+
+        double sum = 0;
+        for (int i = first; i + 2 < first + count; i += 3) {
+            sum += distance(indices[i], indices[i + 1])
+                    + distance(indices[i + 1], indices[i + 2])
+                    + distance(indices[i + 2], indices[i]);
+        }
+        return (float) (sum / (count / 3 * 3));
+    }
+
+    /**
+     * Simplifies a range of triangles.
+     * @param indices triangle indices
+     * @param first first index of the range
+     * @param count number of indices of the range
+     * @param cellSize edge length of the cells
+     * @param dest receives the indices of the remaining triangles, needs
+     * room for count indices
+     * @param destOffset offset in dest
+     * @return number of indices written to dest
+     */
+    int simplify(final int[] indices, int first, int count, float cellSize, int[] dest, int destOffset) {
+        final int numVertices = mVertices.length / mFloatsPerVertex;
+        if (mVertexCluster.length < numVertices) {
+            mVertexCluster = new int[numVertices];
+        }
+        mCells.clear();
+
+        // clusters of the vertices used and their average position
+        final float scale = 1.0f / cellSize;
+        int numClusters = 0;
+        for (int i = first; i < first + count; ++i) {
+            final int v = indices[i] * mFloatsPerVertex;
+            final Long key = Long.valueOf(cellKey(
+                    (int) Math.floor(mVertices[v] * scale),
+                    (int) Math.floor(mVertices[v + 1] * scale),
+                    (int) Math.floor(mVertices[v + 2] * scale)));
+
+            Integer cluster = mCells.get(key);
+            if (cluster == null) {
+                cluster = Integer.valueOf(numClusters++);
+                mCells.put(key, cluster);
+                ensureClusters(numClusters);
+
+                final int c = cluster.intValue();
+                mClusterSums[c * 3] = mClusterSums[c * 3 + 1] = mClusterSums[c * 3 + 2] = 0;
+                mClusterCounts[c] = 0;
+                mClusterVertex[c] = -1;
+            }
+
+            // shared vertices count several times, weighting the average by use
+            final int c = cluster.intValue();
+            mVertexCluster[indices[i]] = c;
+            mClusterSums[c * 3] += mVertices[v];
+            mClusterSums[c * 3 + 1] += mVertices[v + 1];
+            mClusterSums[c * 3 + 2] += mVertices[v + 2];
+            ++mClusterCounts[c];
+        }
+
+        // the vertex of every cluster closest to the average represents it
+        for (int i = first; i < first + count; ++i) {
+            final int c = mVertexCluster[indices[i]];
+            final int v = indices[i] * mFloatsPerVertex;
+            final float dx = mVertices[v] - mClusterSums[c * 3] / mClusterCounts[c];
+            final float dy = mVertices[v + 1] - mClusterSums[c * 3 + 1] / mClusterCounts[c];
+            final float dz = mVertices[v + 2] - mClusterSums[c * 3 + 2] / mClusterCounts[c];
+            final float distance = dx * dx + dy * dy + dz * dz;
+
+            if (mClusterVertex[c] < 0 || distance < mClusterDistance[c]) {
+                mClusterVertex[c] = indices[i];
+                mClusterDistance[c] = distance;
+            }
+        }
+
+        float maxDistance = 0.0f;
+        for (int i = first; i < first + count; ++i) {
+            maxDistance = Math.max(maxDistance, distance(indices[i], mClusterVertex[mVertexCluster[indices[i]]]));
+        }
+        mError = maxDistance;
+
+        int n = destOffset;
+        for (int i = first; i + 2 < first + count; i += 3) {
+            final int a = mClusterVertex[mVertexCluster[indices[i]]];
+            final int b = mClusterVertex[mVertexCluster[indices[i + 1]]];
+            final int c = mClusterVertex[mVertexCluster[indices[i + 2]]];
+            if (a != b && b != c && c != a) {
+                dest[n++] = a;
+                dest[n++] = b;
+                dest[n++] = c;
+            }
+        }
+        return n - destOffset;
+    }
+
+    /**
+     * @return largest distance a vertex moved in the last {@link #simplify}
+     */
+    float getError() {
+        return mError;
+    }
+
+    private static long cellKey(int x, int y, int z) {
+        // 21 bits per axis, plenty for cells of a single part
+        return ((long) (x & 0x1fffff) << 42) | ((long) (y & 0x1fffff) << 21) | (z & 0x1fffff);
+    }
+
+    private float distance(int a, int b) {
+        final int va = a * mFloatsPerVertex;
+        final int vb = b * mFloatsPerVertex;
+        final float dx = mVertices[va] - mVertices[vb];
+        final float dy = mVertices[va + 1] - mVertices[vb + 1];
+        final float dz = mVertices[va + 2] - mVertices[vb + 2];
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    private void ensureClusters(int count) {
+        if (count <= mClusterCounts.length) {
+            return;
+        }
+
+        final int capacity = Math.max(count, mClusterCounts.length * 2);
+        final float[] sums = new float[capacity * 3];
+        final int[] counts = new int[capacity];
+        final int[] vertex = new int[capacity];
+        final float[] distance = new float[capacity];
+        System.arraycopy(mClusterSums, 0, sums, 0, mClusterSums.length);
+        System.arraycopy(mClusterCounts, 0, counts, 0, mClusterCounts.length);
+        System.arraycopy(mClusterVertex, 0, vertex, 0, mClusterVertex.length);
+        System.arraycopy(mClusterDistance, 0, distance, 0, mClusterDistance.length);
+        mClusterSums = sums;
+        mClusterCounts = counts;
+        mClusterVertex = vertex;
+        mClusterDistance = distance;
+    }
+}
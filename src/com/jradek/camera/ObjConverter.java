@@ -0,0 +1,340 @@
+package com.jradek.camera;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Converts Wavefront OBJ files into {@link MeshFile}s, so meshes are parsed
+ * once at build time instead of on every start.
+ *
+ * Supported are vertices (v), normals (vn) and polygonal faces (f), which
+ * are triangulated as fans. Every object or group (o, g) becomes a part of
+ * the mesh. Texture coordinates, materials and everything else are ignored.
+ *
+ * Every part gets coarser levels of detail, see {@link MeshSimplifier}, each
+ * with twice the cell size of the previous one. The triangles of every
+ * level are reordered for the vertex cache, see
+ * {@link VertexCacheOptimizer}, and the vertices in order of use.
+ *
+ * Plain Java, so it runs on the device as well as on the command line.
+ * The benchmark module builds it for the latter:
+ * <pre>
+ * cd benchmark && mvn -B compile
+ * java -cp target/classes com.jradek.camera.ObjConverter [-normals] [-quantize] [-levels n] input.obj output.mesh
+ * </pre>
+ */
+public class ObjConverter {
+    /** cache simulated for the statistics, typical of mobile GPUs */
+    static final int STATS_CACHE_SIZE = 16;
+
+    static final int DEFAULT_LEVELS = 4;
+    /** a level has to drop this share of triangles, otherwise the previous one is repeated */
+    static final float MIN_REDUCTION = 0.1f;
+
+    private final boolean mNormals;
+    private final boolean mQuantize;
+    private final int mNumLevels;
+
+    private float[] mPositions = new float[3 * 1024];
+    private int mNumPositions = 0;
+    private float[] mNormalData = new float[3 * 1024];
+    private int mNumNormals = 0;
+
+    private float[] mVertices = new float[6 * 1024];
+    private int mNumVertices = 0;
+    /** vertex of a position and normal index pair, with normals only */
+    private final HashMap<Long, Integer> mVertexMap = new HashMap<Long, Integer>();
+
+    private int[] mIndices = new int[3 * 1024];
+    private int mNumIndices = 0;
+
+    private int[] mPartFirst = new int[16];
+    private int[] mPartCount = new int[16];
+    private int mNumParts = 0;
+
+    // levels of detail of every part, at part * mNumLevels + level
+    private int[] mLevelFirst;
+    private int[] mLevelCount;
+    private float[] mLevelError;
+    private int mNumFullIndices;
+
+    private final int[] mFace = new int[3];
+
+    /** average cache misses per triangle before and after optimizing */
+    private float mAcmrBefore;
+    private float mAcmrAfter;
+
+    /**
+     * @param normals whether the vertices get normals besides positions
+     */
+    public ObjConverter(boolean normals) {
+        this(normals, false, DEFAULT_LEVELS);
+    }
+
+    /**
+     * @param normals whether the vertices get normals besides positions
+     * @param quantize whether to quantize the vertices, see {@link MeshFile}
+     * @param numLevels number of levels of detail, 1 for the full parts only
+     */
+    public ObjConverter(boolean normals, boolean quantize, int numLevels) {
+        mNormals = normals;
+        mQuantize = quantize;
+        mNumLevels = Math.max(1, numLevels);
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean normals = false;
+        boolean quantize = false;
+        int numLevels = DEFAULT_LEVELS;
+        int arg = 0;
+        for (; arg < args.length && args[arg].startsWith("-"); ++arg) {
+            if (args[arg].equals("-normals")) {
+                normals = true;
+            } else if (args[arg].equals("-quantize")) {
+                quantize = true;
+            } else if (args[arg].equals("-levels") && arg + 1 < args.length) {
+                numLevels = Integer.parseInt(args[++arg]);
+            } else {
+                break;
+            }
+        }
+        if (args.length - arg != 2) {
+            System.err.println("usage: ObjConverter [-normals] [-quantize] [-levels n] input.obj output.mesh");
+            System.exit(1);
+        }
+
+        final long start = System.nanoTime();
+        final ObjConverter converter = new ObjConverter(normals, quantize, numLevels);
+        converter.convert(new File(args[arg]), new File(args[arg + 1]));
+
+        System.out.println(converter.getVertexCount() + " vertices, " + converter.mNumFullIndices / 3
+                + " triangles, " + converter.mNumParts + " parts in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        for (int level = 1; level < converter.mNumLevels; ++level) {
+            int numIndices = 0;
+            float error = 0.0f;
+            for (int i = 0; i < converter.mNumParts; ++i) {
+                numIndices += converter.mLevelCount[i * converter.mNumLevels + level];
+                error = Math.max(error, converter.mLevelError[i * converter.mNumLevels + level]);
+            }
+            System.out.println(String.format(Locale.US, "level %d: %d triangles, error up to %.4f",
+                    level, numIndices / 3, error));
+        }
+        System.out.println(String.format(Locale.US,
+                "cache misses per triangle %.3f, optimized %.3f", converter.mAcmrBefore, converter.mAcmrAfter));
+    }
+
+    public void convert(File obj, File mesh) throws IOException {
+        read(obj);
+
+        final float[] vertices = mNormals ? mVertices : mPositions;
+        final int floatsPerVertex = mNormals ? 6 : 3;
+        buildLevels(vertices, floatsPerVertex);
+        optimize(vertices, floatsPerVertex);
+
+        int attributes = MeshFile.POSITION;
+        if (mNormals) {
+            attributes |= MeshFile.NORMAL;
+        }
+        if (mQuantize) {
+            attributes |= MeshFile.QUANTIZED;
+        }
+        MeshFile.write(mesh, attributes, floatsPerVertex, vertices, getVertexCount(),
+                mIndices, mNumIndices, mLevelFirst, mLevelCount, mLevelError, mNumParts, mNumLevels);
+    }
+
+    private int getVertexCount() {
+        return mNormals ? mNumVertices : mNumPositions;
+    }
+
+    /**
+     * Appends the coarser levels of all parts to the indices, after the
+     * full parts.
+     */
+    private void buildLevels(float[] vertices, int floatsPerVertex) {
+        mNumFullIndices = mNumIndices;
+        mLevelFirst = new int[mNumParts * mNumLevels];
+        mLevelCount = new int[mNumParts * mNumLevels];
+        mLevelError = new float[mNumParts * mNumLevels];
+
+        final MeshSimplifier simplifier = new MeshSimplifier(vertices, floatsPerVertex);
+        for (int i = 0; i < mNumParts; ++i) {
+            final int l = i * mNumLevels;
+            mLevelFirst[l] = mPartFirst[i];
+            mLevelCount[l] = mPartCount[i];
+
+            float cellSize = simplifier.getAverageEdgeLength(mIndices, mPartFirst[i], mPartCount[i]);
+            for (int level = 1; level < mNumLevels; ++level) {
+                cellSize *= 2.0f;
+
+                // always from the full part, so the error is measured against it
+                mIndices = ensure(mIndices, mNumIndices + mPartCount[i]);
+                final int count = cellSize > 0.0f
+                        ? simplifier.simplify(mIndices, mPartFirst[i], mPartCount[i], cellSize, mIndices, mNumIndices)
+                        : mPartCount[i];
+
+                if (count > 0 && count <= mLevelCount[l + level - 1] * (1.0f - MIN_REDUCTION)) {
+                    mLevelFirst[l + level] = mNumIndices;
+                    mLevelCount[l + level] = count;
+                    mLevelError[l + level] = simplifier.getError();
+                    mNumIndices += count;
+                } else {
+                    mLevelFirst[l + level] = mLevelFirst[l + level - 1];
+                    mLevelCount[l + level] = mLevelCount[l + level - 1];
+                    mLevelError[l + level] = mLevelError[l + level - 1];
+                }
+            }
+        }
+    }
+
+    private void optimize(float[] vertices, int floatsPerVertex) {
+        mAcmrBefore = VertexCacheOptimizer.getAverageCacheMissRatio(mIndices, 0, mNumFullIndices, STATS_CACHE_SIZE);
+
+        for (int i = 0; i < mNumParts * mNumLevels; ++i) {
+            // repeated levels share their range with the previous one
+            if (i % mNumLevels == 0 || mLevelFirst[i] != mLevelFirst[i - 1]) {
+                VertexCacheOptimizer.optimize(mIndices, mLevelFirst[i], mLevelCount[i], getVertexCount());
+            }
+        }
+        VertexCacheOptimizer.reorderVertices(mIndices, mNumIndices, vertices, floatsPerVertex, getVertexCount());
+
+        mAcmrAfter = VertexCacheOptimizer.getAverageCacheMissRatio(mIndices, 0, mNumFullIndices, STATS_CACHE_SIZE);
+    }
+
+    private void read(File obj) throws IOException {
+        final BufferedReader reader = new BufferedReader(new FileReader(obj));
+        try {
+            int lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                ++lineNumber;
+                try {
+                    parseLine(line.trim());
+                } catch (RuntimeException e) {
+                    throw new IOException(obj + ":" + lineNumber + ": cannot parse '" + line + "'", e);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        endPart();
+    }
+
+    private void parseLine(String line) {
+        if (line.startsWith("v ")) {
+            final String[] tokens = line.split("\\s+");
+            mPositions = ensure(mPositions, mNumPositions * 3 + 3);
+            for (int i = 0; i < 3; ++i) {
+                mPositions[mNumPositions * 3 + i] = Float.parseFloat(tokens[i + 1]);
+            }
+            ++mNumPositions;
+        } else if (line.startsWith("vn ")) {
+            final String[] tokens = line.split("\\s+");
+            mNormalData = ensure(mNormalData, mNumNormals * 3 + 3);
+            for (int i = 0; i < 3; ++i) {
+                mNormalData[mNumNormals * 3 + i] = Float.parseFloat(tokens[i + 1]);
+            }
+            ++mNumNormals;
+        } else if (line.startsWith("f ")) {
+            final String[] tokens = line.split("\\s+");
+            if (tokens.length < 4) {
+                throw new IllegalArgumentException("face with less than 3 vertices");
+            }
+
+            // fan around the first vertex
+            mFace[0] = getVertex(tokens[1]);
+            mFace[1] = getVertex(tokens[2]);
+            for (int i = 3; i < tokens.length; ++i) {
+                mFace[2] = getVertex(tokens[i]);
+
+                mIndices = ensure(mIndices, mNumIndices + 3);
+                mIndices[mNumIndices++] = mFace[0];
+                mIndices[mNumIndices++] = mFace[1];
+                mIndices[mNumIndices++] = mFace[2];
+
+                mFace[1] = mFace[2];
+            }
+        } else if (line.startsWith("o ") || line.startsWith("g ")) {
+            endPart();
+        }
+    }
+
+    /**
+     * @param token v, v/vt, v//vn or v/vt/vn, indices are 1 based or
+     * negative for relative ones
+     * @return index of the vertex in the mesh
+     */
+    private int getVertex(String token) {
+        final String[] indices = token.split("/", -1);
+        final int position = resolve(indices[0], mNumPositions);
+
+        if (!mNormals) {
+            return position;
+        }
+
+        final int normal = indices.length == 3 && indices[2].length() > 0
+                ? resolve(indices[2], mNumNormals) : -1;
+
+        final Long key = Long.valueOf(((long) position << 32) | (normal & 0xffffffffL));
+        final Integer existing = mVertexMap.get(key);
+        if (existing != null) {
+            return existing.intValue();
+        }
+
+        mVertices = ensure(mVertices, mNumVertices * 6 + 6);
+        final int v = mNumVertices * 6;
+        System.arraycopy(mPositions, position * 3, mVertices, v, 3);
+        if (normal >= 0) {
+            System.arraycopy(mNormalData, normal * 3, mVertices, v + 3, 3);
+        } else {
+            mVertices[v + 3] = mVertices[v + 4] = mVertices[v + 5] = 0;
+        }
+
+        mVertexMap.put(key, mNumVertices);
+        return mNumVertices++;
+    }
+
+    private static int resolve(String index, int count) {
+        final int i = Integer.parseInt(index);
+        final int resolved = i < 0 ? count + i : i - 1;
+        if (resolved < 0 || resolved >= count) {
+            throw new IndexOutOfBoundsException("index " + i + " of " + count);
+        }
+        return resolved;
+    }
+
+    private void endPart() {
+        final int first = mNumParts == 0 ? 0 : mPartFirst[mNumParts - 1] + mPartCount[mNumParts - 1];
+        if (mNumIndices == first) {
+            return;
+        }
+
+        mPartFirst = ensure(mPartFirst, mNumParts + 1);
+        mPartCount = ensure(mPartCount, mNumParts + 1);
+        mPartFirst[mNumParts] = first;
+        mPartCount[mNumParts] = mNumIndices - first;
+        ++mNumParts;
+    }
+
+    private static float[] ensure(float[] array, int size) {
+        if (size <= array.length) {
+            return array;
+        }
+        final float[] grown = new float[Math.max(size, array.length * 2)];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private static int[] ensure(int[] array, int size) {
+        if (size <= array.length) {
+            return array;
+        }
+        final int[] grown = new int[Math.max(size, array.length * 2)];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
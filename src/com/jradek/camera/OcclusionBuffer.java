@@ -0,0 +1,412 @@
+package com.jradek.camera;
+
+/**
+ * Low resolution depth buffer for occlusion culling on the CPU: a few
+ * occluder triangles are rasterized with the view projection matrix of a
+ * view, then bounding boxes are tested against a hierarchical-Z pyramid of
+ * the depths, whose texels hold the farthest depth of the pixels they
+ * cover. A box is occluded if its nearest point is behind the farthest
+ * occluder depth everywhere in its screen rectangle.
+ *
+ * Depths are normalized device z, 1 where no occluder was drawn. Triangles
+ * are sampled at pixel centers, which leaves no gaps between triangles
+ * sharing an edge, then the coverage is shrunk by a pixel: every pixel gets
+ * the farthest depth of its 3x3 neighborhood. So an occluder does not hide
+ * more than it does on screen along its outline, boxes are tested
+ * conservatively as well.
+ *
+ * The buffer is split into bands of {@link #TILE_HEIGHT} rows, rasterized
+ * with a row of the neighboring bands each and reduced independently: {@link #rasterize(int)} may run on several
+ * threads, one per tile. Triangles are kept as plain float arrays and the
+ * inner loops are branch free apart from the coverage test. Free of GL, so
+ * it runs headless.
+ */
+public class OcclusionBuffer {
+    /** rows per tile, the coarsest level has one row per tile */
+    public static final int TILE_HEIGHT = 32;
+    /** levels of the pyramid, level 0 being the full resolution */
+    public static final int NUM_LEVELS = 6;
+
+    static final float CLEAR_DEPTH = 1.0f;
+    /** screen rectangle of a box, in texels of the level tested, at most */
+    static final int MAX_TEST_TEXELS = 4;
+
+    /** occluders are moved back by that much, against rounding errors */
+    static final float DEPTH_BIAS = 1e-5f;
+
+    private static final int FLOATS_PER_TRIANGLE = 11;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final float[][] mLevels = new float[NUM_LEVELS][];
+    /** depths sampled per tile, with a row of the neighboring tiles above and below */
+    private final float[][] mSamples;
+
+    private final float[] mViewProjection = new float[16];
+
+    /**
+     * triangles in screen space, x, y, z per corner followed by the y
+     * range, counter clockwise
+     */
+    private float[] mTriangles = new float[64 * FLOATS_PER_TRIANGLE];
+    private int mNumTriangles = 0;
+
+    // near plane clipping scratch, x, y, z, w per corner
+    private final float[] mClipIn = new float[3 * 4];
+    private final float[] mClipOut = new float[4 * 4];
+
+    /**
+     * @param width width in pixels, a multiple of 2^(NUM_LEVELS - 1)
+     * @param height height in pixels, a multiple of TILE_HEIGHT
+     */
+    public OcclusionBuffer(int width, int height) {
+        if (width % (1 << (NUM_LEVELS - 1)) != 0 || height % TILE_HEIGHT != 0) {
+            throw new IllegalArgumentException("unsupported size " + width + "x" + height);
+        }
+
+        mWidth = width;
+        mHeight = height;
+        for (int level = 0; level < NUM_LEVELS; ++level) {
+            mLevels[level] = new float[(width >> level) * (height >> level)];
+            java.util.Arrays.fill(mLevels[level], CLEAR_DEPTH);
+        }
+
+        mSamples = new float[height / TILE_HEIGHT][(TILE_HEIGHT + 2) * width];
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getTileCount() {
+        return mHeight / TILE_HEIGHT;
+    }
+
+    /**
+     * Drops the occluders of the previous frame.
+     * @param viewProjection matrix occluders are drawn and boxes tested with
+     */
+    public void begin(final float[] viewProjection, int offset) {
+        System.arraycopy(viewProjection, offset, mViewProjection, 0, 16);
+        mNumTriangles = 0;
+    }
+
+    /**
+     * Transforms occluder triangles to the screen, clipped by the near
+     * plane. Call on one thread between {@link #begin} and rasterizing.
+     * @param positions x, y, z per corner, 3 corners per triangle
+     * @param offset offset of the first triangle
+     * @param count number of triangles
+     * @param tx translation applied to the positions
+     */
+    public void addTriangles(final float[] positions, int offset, int count, float tx, float ty, float tz) {
+        final float[] m = mViewProjection;
+        final float[] in = mClipIn;
+
+        for (int t = 0; t < count; ++t) {
+            boolean clipped = false;
+            for (int k = 0; k < 3; ++k) {
+                final int p = offset + (t * 3 + k) * 3;
+                final float x = positions[p] + tx;
+                final float y = positions[p + 1] + ty;
+                final float z = positions[p + 2] + tz;
+
+                final int c = k * 4;
+                in[c] = m[0] * x + m[4] * y + m[8] * z + m[12];
+                in[c + 1] = m[1] * x + m[5] * y + m[9] * z + m[13];
+                in[c + 2] = m[2] * x + m[6] * y + m[10] * z + m[14];
+                in[c + 3] = m[3] * x + m[7] * y + m[11] * z + m[15];
+                clipped |= in[c + 2] < -in[c + 3];
+            }
+
+            if (!clipped) {
+                addClipTriangle(in, 0, 4, 8);
+                continue;
+            }
+
+            // the part in front of the near plane, z >= -w, has up to 4 corners
+            final int numCorners = clipNear(in, 3, mClipOut);
+            for (int k = 2; k < numCorners; ++k) {
+                addClipTriangle(mClipOut, 0, (k - 1) * 4, k * 4);
+            }
+        }
+    }
+
+    private int clipNear(final float[] in, int numIn, float[] out) {
+        int numOut = 0;
+        for (int k = 0; k < numIn; ++k) {
+            final int a = k * 4;
+            final int b = ((k + 1) % numIn) * 4;
+            final float da = in[a + 2] + in[a + 3];
+            final float db = in[b + 2] + in[b + 3];
+
+            if (da >= 0) {
+                System.arraycopy(in, a, out, numOut++ * 4, 4);
+            }
+            if ((da >= 0) != (db >= 0)) {
+                final float s = da / (da - db);
+                final int o = numOut++ * 4;
+                for (int i = 0; i < 4; ++i) {
+                    out[o + i] = in[a + i] + (in[b + i] - in[a + i]) * s;
+                }
+            }
+        }
+        return numOut;
+    }
+
+    private void addClipTriangle(final float[] clip, int a, int b, int c) {
+        if (clip[a + 3] <= 0 || clip[b + 3] <= 0 || clip[c + 3] <= 0) {
+            // degenerate remains of clipping
+            return;
+        }
+
+        if ((mNumTriangles + 1) * FLOATS_PER_TRIANGLE > mTriangles.length) {
+            final float[] triangles = new float[mTriangles.length * 2];
+            System.arraycopy(mTriangles, 0, triangles, 0, mNumTriangles * FLOATS_PER_TRIANGLE);
+            mTriangles = triangles;
+        }
+
+        final float[] tri = mTriangles;
+        final int o = mNumTriangles * FLOATS_PER_TRIANGLE;
+        toScreen(clip, a, tri, o);
+        toScreen(clip, b, tri, o + 3);
+        toScreen(clip, c, tri, o + 6);
+
+        final float area = (tri[o + 3] - tri[o]) * (tri[o + 7] - tri[o + 1])
+                - (tri[o + 6] - tri[o]) * (tri[o + 4] - tri[o + 1]);
+        if (area == 0) {
+            return;
+        }
+        if (area < 0) {
+            // both windings occlude, make it counter clockwise
+            for (int i = 0; i < 3; ++i) {
+                final float swap = tri[o + 3 + i];
+                tri[o + 3 + i] = tri[o + 6 + i];
+                tri[o + 6 + i] = swap;
+            }
+        }
+
+        tri[o + 9] = Math.min(tri[o + 1], Math.min(tri[o + 4], tri[o + 7]));
+        tri[o + 10] = Math.max(tri[o + 1], Math.max(tri[o + 4], tri[o + 7]));
+        ++mNumTriangles;
+    }
+
+    private void toScreen(final float[] clip, int c, float[] dest, int d) {
+        final float invW = 1.0f / clip[c + 3];
+        dest[d] = (clip[c] * invW * 0.5f + 0.5f) * mWidth;
+        dest[d + 1] = (clip[c + 1] * invW * 0.5f + 0.5f) * mHeight;
+        dest[d + 2] = clip[c + 2] * invW;
+    }
+
+    /**
+     * Rasterizes all tiles on the calling thread.
+     */
+    public void rasterize() {
+        for (int tile = 0; tile < getTileCount(); ++tile) {
+            rasterize(tile);
+        }
+    }
+
+    /**
+     * Clears a tile, rasterizes the occluders into it and builds its part
+     * of the pyramid. Tiles may be rasterized concurrently.
+     */
+    public void rasterize(int tile) {
+        final float[] samples = mSamples[tile];
+        java.util.Arrays.fill(samples, CLEAR_DEPTH);
+
+        // the rows of the tile and the ones next to it, sample row 0 is the
+        // one above the tile
+        final int firstRow = tile * TILE_HEIGHT - 1;
+        final int rowBegin = Math.max(0, firstRow);
+        final int rowEnd = Math.min(mHeight, firstRow + TILE_HEIGHT + 2);
+
+        final float[] tri = mTriangles;
+        for (int t = 0; t < mNumTriangles; ++t) {
+            final int o = t * FLOATS_PER_TRIANGLE;
+            // rows whose centers the triangle may cover
+            final int y0 = Math.max(rowBegin, (int) Math.ceil(tri[o + 9] - 0.5f));
+            final int y1 = Math.min(rowEnd - 1, (int) Math.floor(tri[o + 10] - 0.5f));
+            if (y0 > y1) {
+                continue;
+            }
+            rasterizeTriangle(tri, o, y0, y1, samples, firstRow);
+        }
+
+        shrink(tile);
+        buildPyramid(tile);
+    }
+
+    /**
+     * Writes the farthest sample of the 3x3 neighborhood of every pixel of a
+     * tile to level 0. Pixels off screen do not count, boxes are only tested
+     * on screen.
+     */
+    private void shrink(int tile) {
+        final float[] samples = mSamples[tile];
+        final float[] depth = mLevels[0];
+        final int last = mWidth - 1;
+
+        // horizontally in place, first row above to last row below
+        for (int row = 0; row < TILE_HEIGHT + 2; ++row) {
+            final int r = row * mWidth;
+            float previous = samples[r];
+            for (int x = 0; x < last; ++x) {
+                final float current = samples[r + x];
+                samples[r + x] = Math.max(previous, Math.max(current, samples[r + x + 1]));
+                previous = current;
+            }
+            samples[r + last] = Math.max(previous, samples[r + last]);
+        }
+
+        // then vertically
+        final int firstRow = tile * TILE_HEIGHT;
+        for (int row = 1; row <= TILE_HEIGHT; ++row) {
+            final int y = firstRow + row - 1;
+            final int above = y > 0 ? row - 1 : row;
+            final int below = y < mHeight - 1 ? row + 1 : row;
+            final int a = above * mWidth, r = row * mWidth, b = below * mWidth;
+            final int d = y * mWidth;
+            for (int x = 0; x < mWidth; ++x) {
+                depth[d + x] = Math.max(samples[r + x], Math.max(samples[a + x], samples[b + x]));
+            }
+        }
+    }
+
+    /**
+     * @param samples receives the depths, its first row being firstRow
+     */
+    private void rasterizeTriangle(final float[] tri, int o, int y0, int y1, float[] samples, int firstRow) {
+        final float ax = tri[o], ay = tri[o + 1], az = tri[o + 2];
+        final float bx = tri[o + 3], by = tri[o + 4], bz = tri[o + 5];
+        final float cx = tri[o + 6], cy = tri[o + 7], cz = tri[o + 8];
+
+        final int x0 = Math.max(0, (int) Math.ceil(Math.min(ax, Math.min(bx, cx)) - 0.5f));
+        final int x1 = Math.min(mWidth - 1, (int) Math.floor(Math.max(ax, Math.max(bx, cx)) - 0.5f));
+        if (x0 > x1) {
+            return;
+        }
+
+        // edge functions, positive inside, and their steps along x
+        final float e0dx = -(cy - by), e1dx = -(ay - cy), e2dx = -(by - ay);
+        final float e0dy = cx - bx, e1dy = ax - cx, e2dy = bx - ax;
+
+        // depth plane
+        final float area = e2dy * (cy - ay) - (cx - ax) * (by - ay);
+        final float zdx = ((bz - az) * (cy - ay) - (cz - az) * (by - ay)) / area;
+        final float zdy = ((cz - az) * (bx - ax) - (bz - az) * (cx - ax)) / area;
+
+        final float px = x0 + 0.5f;
+        for (int y = y0; y <= y1; ++y) {
+            final float py = y + 0.5f;
+            float e0 = e0dy * (py - by) + e0dx * (px - bx);
+            float e1 = e1dy * (py - cy) + e1dx * (px - cx);
+            float e2 = e2dy * (py - ay) + e2dx * (px - ax);
+            float z = az + zdx * (px - ax) + zdy * (py - ay) + DEPTH_BIAS;
+
+            final int row = (y - firstRow) * mWidth;
+            for (int x = x0; x <= x1; ++x) {
+                // sign bits of all edges clear means inside
+                if ((Float.floatToRawIntBits(e0) | Float.floatToRawIntBits(e1) | Float.floatToRawIntBits(e2)) >= 0) {
+                    samples[row + x] = Math.min(samples[row + x], z);
+                }
+                e0 += e0dx;
+                e1 += e1dx;
+                e2 += e2dx;
+                z += zdx;
+            }
+        }
+    }
+
+    private void buildPyramid(int tile) {
+        for (int level = 1; level < NUM_LEVELS; ++level) {
+            final float[] src = mLevels[level - 1];
+            final float[] dst = mLevels[level];
+            final int srcWidth = mWidth >> (level - 1);
+            final int width = mWidth >> level;
+            final int rowBegin = (tile * TILE_HEIGHT) >> level;
+            final int rowEnd = ((tile + 1) * TILE_HEIGHT) >> level;
+
+            for (int y = rowBegin; y < rowEnd; ++y) {
+                final int s0 = 2 * y * srcWidth;
+                final int s1 = s0 + srcWidth;
+                final int d = y * width;
+                for (int x = 0; x < width; ++x) {
+                    dst[d + x] = Math.max(Math.max(src[s0 + 2 * x], src[s0 + 2 * x + 1]),
+                            Math.max(src[s1 + 2 * x], src[s1 + 2 * x + 1]));
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests a box against the occluders rasterized. Boxes reaching behind
+     * the near plane are always visible. Can be called concurrently once
+     * all tiles are rasterized.
+     * @return false if the box is certainly hidden by occluders
+     */
+    public boolean isVisible(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        final float[] m = mViewProjection;
+
+        float sx0 = Float.MAX_VALUE, sy0 = Float.MAX_VALUE, sx1 = -Float.MAX_VALUE, sy1 = -Float.MAX_VALUE;
+        float nearest = Float.MAX_VALUE;
+        for (int corner = 0; corner < 8; ++corner) {
+            final float x = (corner & 1) == 0 ? minX : maxX;
+            final float y = (corner & 2) == 0 ? minY : maxY;
+            final float z = (corner & 4) == 0 ? minZ : maxZ;
+
+            final float cw = m[3] * x + m[7] * y + m[11] * z + m[15];
+            final float cz = m[2] * x + m[6] * y + m[10] * z + m[14];
+            if (cz < -cw || cw <= 0) {
+                return true;
+            }
+
+            final float invW = 1.0f / cw;
+            final float nx = (m[0] * x + m[4] * y + m[8] * z + m[12]) * invW;
+            final float ny = (m[1] * x + m[5] * y + m[9] * z + m[13]) * invW;
+            sx0 = Math.min(sx0, nx);
+            sx1 = Math.max(sx1, nx);
+            sy0 = Math.min(sy0, ny);
+            sy1 = Math.max(sy1, ny);
+            nearest = Math.min(nearest, cz * invW);
+        }
+
+        // covered pixels, rounded outwards
+        final int x0 = Math.max(0, (int) Math.floor((sx0 * 0.5f + 0.5f) * mWidth));
+        final int x1 = Math.min(mWidth - 1, (int) Math.floor((sx1 * 0.5f + 0.5f) * mWidth));
+        final int y0 = Math.max(0, (int) Math.floor((sy0 * 0.5f + 0.5f) * mHeight));
+        final int y1 = Math.min(mHeight - 1, (int) Math.floor((sy1 * 0.5f + 0.5f) * mHeight));
+        if (x0 > x1 || y0 > y1) {
+            // off screen, left to frustum culling
+            return true;
+        }
+
+        // the finest level at which the rectangle spans few texels
+        int level = 0;
+        while (level + 1 < NUM_LEVELS && Math.max(x1 - x0, y1 - y0) >> level >= MAX_TEST_TEXELS) {
+            ++level;
+        }
+
+        final float[] depth = mLevels[level];
+        final int width = mWidth >> level;
+        for (int y = y0 >> level; y <= y1 >> level; ++y) {
+            for (int x = x0 >> level; x <= x1 >> level; ++x) {
+                if (depth[y * width + x] >= nearest) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the depth of a texel of a level, for debugging
+     */
+    public float getDepth(int level, int x, int y) {
+        return mLevels[level][y * (mWidth >> level) + x];
+    }
+}
@@ -0,0 +1,70 @@
+package com.jradek.camera;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Maps positions within a bounding box to normalized shorts and back. A
+ * component is stored as round((v - center) / halfExtent * 32767), so the
+ * precision is the box size / 65534 along each axis.
+ *
+ * The GPU maps the shorts back to [-1, 1], the {@link #getScale scale} and
+ * {@link #getOffset offset} restore object coordinates and are meant to be
+ * folded into the model matrix: model * translate(offset) * scale(scale).
+ * GLES 2 normalizes slightly differently than GLES 3, which costs less than
+ * one step of precision.
+ */
+public class PositionQuantizer {
+    static final int SHORT_MAX = 32767;
+
+    private final float[] mOffset = new float[3];
+    private final float[] mScale = new float[3];
+
+    /**
+     * @param bounds box containing all positions to quantize
+     */
+    public PositionQuantizer(final BoundingBox bounds) {
+        set(0, bounds.minX, bounds.maxX);
+        set(1, bounds.minY, bounds.maxY);
+        set(2, bounds.minZ, bounds.maxZ);
+    }
+
+    private void set(int axis, float min, float max) {
+        mOffset[axis] = (min + max) * 0.5f;
+        // flat boxes still need a scale to divide by
+        mScale[axis] = max > min ? (max - min) * 0.5f : 1.0f;
+    }
+
+    /**
+     * @return the offset along the axis, i.e. the center of the box
+     */
+    public float getOffset(int axis) {
+        return mOffset[axis];
+    }
+
+    /**
+     * @return the scale along the axis, i.e. half the extent of the box
+     */
+    public float getScale(int axis) {
+        return mScale[axis];
+    }
+
+    /**
+     * @return the component quantized, clamped to the box
+     */
+    public short quantize(int axis, float value) {
+        final float t = (value - mOffset[axis]) / mScale[axis];
+        return (short) Math.round(Math.max(-1.0f, Math.min(1.0f, t)) * SHORT_MAX);
+    }
+
+    public float dequantize(int axis, short value) {
+        return mOffset[axis] + value * (1.0f / SHORT_MAX) * mScale[axis];
+    }
+
+    /**
+     * Puts a position in {@link VertexFormat#SHORT3} layout: x, y, z and a
+     * short of padding.
+     */
+    public void put(ByteBuffer dest, float x, float y, float z) {
+        dest.putShort(quantize(0, x)).putShort(quantize(1, y)).putShort(quantize(2, z)).putShort((short) 0);
+    }
+}
@@ -0,0 +1,131 @@
+package com.jradek.camera;
+
+/**
+ * Ray for picking, a unit direction from an origin up to a maximum
+ * distance. Tracing shrinks the maximum distance to the nearest hit, so
+ * anything farther is skipped from then on.
+ */
+public class Ray {
+    public float originX;
+    public float originY;
+    public float originZ;
+    public float directionX;
+    public float directionY;
+    public float directionZ;
+    /** distance beyond which intersections are ignored, the hit distance after tracing */
+    public float maxDistance;
+
+    // reciprocal direction for box tests, finite even for axis parallel rays
+    float mInverseX;
+    float mInverseY;
+    float mInverseZ;
+
+    /**
+     * Sets the ray, the direction is normalized.
+     */
+    public Ray set(float originX, float originY, float originZ,
+            float directionX, float directionY, float directionZ, float maxDistance) {
+        final float length = (float) Math.sqrt(directionX * directionX + directionY * directionY
+                + directionZ * directionZ);
+        this.originX = originX;
+        this.originY = originY;
+        this.originZ = originZ;
+        this.directionX = directionX / length;
+        this.directionY = directionY / length;
+        this.directionZ = directionZ / length;
+        this.maxDistance = maxDistance;
+
+        mInverseX = inverse(this.directionX);
+        mInverseY = inverse(this.directionY);
+        mInverseZ = inverse(this.directionZ);
+        return this;
+    }
+
+    /**
+     * Copies a ray with its origin moved by -(x, y, z), e.g. into the
+     * coordinates of an object at (x, y, z). Distances stay the same.
+     */
+    public Ray setTranslated(final Ray other, float x, float y, float z) {
+        originX = other.originX - x;
+        originY = other.originY - y;
+        originZ = other.originZ - z;
+        directionX = other.directionX;
+        directionY = other.directionY;
+        directionZ = other.directionZ;
+        maxDistance = other.maxDistance;
+
+        mInverseX = other.mInverseX;
+        mInverseY = other.mInverseY;
+        mInverseZ = other.mInverseZ;
+        return this;
+    }
+
+    /**
+     * Sets the ray through a point on the screen, from the near to the far
+     * plane.
+     * @param inverseViewProjection inverse of projection * view, e.g.
+     * {@link Camera#getInverseViewProjectionMatrix()}
+     * @param x normalized device x, -1 at the left edge
+     * @param y normalized device y, -1 at the bottom edge
+     */
+    public Ray unproject(final float[] inverseViewProjection, int offset, float x, float y) {
+        final float[] m = inverseViewProjection;
+        final int o = offset;
+
+        // the points at depth -1 and 1, i.e. on the near and far plane
+        final float nw = 1.0f / (m[o + 3] * x + m[o + 7] * y - m[o + 11] + m[o + 15]);
+        final float nx = (m[o + 0] * x + m[o + 4] * y - m[o + 8] + m[o + 12]) * nw;
+        final float ny = (m[o + 1] * x + m[o + 5] * y - m[o + 9] + m[o + 13]) * nw;
+        final float nz = (m[o + 2] * x + m[o + 6] * y - m[o + 10] + m[o + 14]) * nw;
+
+        final float fw = 1.0f / (m[o + 3] * x + m[o + 7] * y + m[o + 11] + m[o + 15]);
+        final float fx = (m[o + 0] * x + m[o + 4] * y + m[o + 8] + m[o + 12]) * fw;
+        final float fy = (m[o + 1] * x + m[o + 5] * y + m[o + 9] + m[o + 13]) * fw;
+        final float fz = (m[o + 2] * x + m[o + 6] * y + m[o + 10] + m[o + 14]) * fw;
+
+        final float dx = fx - nx;
+        final float dy = fy - ny;
+        final float dz = fz - nz;
+        return set(nx, ny, nz, dx, dy, dz, (float) Math.sqrt(dx * dx + dy * dy + dz * dz));
+    }
+
+    /**
+     * @param dest receives the point at a distance along the ray, x, y, z
+     */
+    public void getPoint(float distance, float[] dest, int offset) {
+        dest[offset + 0] = originX + directionX * distance;
+        dest[offset + 1] = originY + directionY * distance;
+        dest[offset + 2] = originZ + directionZ * distance;
+    }
+
+    /**
+     * @return distance at which the ray enters a box, clipped to the ray,
+     * or infinity if it misses the box
+     */
+    float intersectBox(final float[] boxes, int o) {
+        float near = 0.0f;
+        float far = maxDistance;
+
+        final float x0 = (boxes[o + 0] - originX) * mInverseX;
+        final float x1 = (boxes[o + 3] - originX) * mInverseX;
+        near = Math.max(near, Math.min(x0, x1));
+        far = Math.min(far, Math.max(x0, x1));
+
+        final float y0 = (boxes[o + 1] - originY) * mInverseY;
+        final float y1 = (boxes[o + 4] - originY) * mInverseY;
+        near = Math.max(near, Math.min(y0, y1));
+        far = Math.min(far, Math.max(y0, y1));
+
+        final float z0 = (boxes[o + 2] - originZ) * mInverseZ;
+        final float z1 = (boxes[o + 5] - originZ) * mInverseZ;
+        near = Math.max(near, Math.min(z0, z1));
+        far = Math.min(far, Math.max(z0, z1));
+
+        return near <= far ? near : Float.POSITIVE_INFINITY;
+    }
+
+    private static float inverse(float d) {
+        // a huge value instead of infinity, which gives NaN on the slab planes
+        return 1.0f / (Math.abs(d) > 1e-20f ? d : (d < 0 ? -1e-20f : 1e-20f));
+    }
+}
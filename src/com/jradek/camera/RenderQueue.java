@@ -0,0 +1,445 @@
+package com.jradek.camera;
+
+import android.opengl.GLES20;
+
+/**
+ * Collects the draw submissions of one frame, sorts them by state and issues
+ * them with as few GL calls as possible.
+ *
+ * Every item carries a 64 bit sort key, see {@link #makeKey}. After a radix
+ * sort, state (program, buffer, matrix, color) is only changed between items
+ * which differ, and adjacent items with identical state and consecutive
+ * vertex ranges are merged into a single draw call.
+ *
+ * Programs are expected to provide uMVPMatrix, uColor and aPosition.
+ * Use together with a {@link GlStateCache}, which drops the state changes
+ * repeated from the previous frame.
+ * All storage is reused from frame to frame, so submitting does not
+ * allocate once the queue has grown to the scene size.
+ *
+ * Instead of drawing right away the sorted items can be recorded into a
+ * {@link CommandBuffer}, which does not need the GL and can be done on
+ * another thread.
+ */
+public class RenderQueue {
+    static final int PROGRAM_SHIFT = 48;
+    static final int BUFFER_SHIFT = 32;
+    static final int MATERIAL_SHIFT = 16;
+    static final long FIELD_MASK = 0xffff;
+
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX_SIZE = 1 << RADIX_BITS;
+
+    private final GlApi mGl;
+
+    private int mNumItems = 0;
+    private long[] mKeys;
+    private int[] mOrder;
+    private ShaderProgram[] mPrograms;
+    private VertexBuffer[] mBuffers;
+    private VertexFormat[] mFormats;
+    private IndexBuffer[] mIndexBuffers;
+    private int[] mModes;
+    private int[] mFirsts;
+    private int[] mCounts;
+    private int[] mMatrices;
+    private float[] mColors;
+
+    private int mNumMatrices = 0;
+    private float[] mMatrixPool;
+
+    // radix sort scratch
+    private long[] mSortKeys;
+    private long[] mSortKeysTmp;
+    private int[] mSortOrder;
+    private final int[] mHistogram = new int[RADIX_SIZE];
+
+    private final CommandBuffer mCommands = new CommandBuffer();
+
+    private int mNumDrawCalls = 0;
+    private int mNumStateChanges = 0;
+
+    public RenderQueue(GlApi gl) {
+        this(gl, 64);
+    }
+
+    /**
+     * @param gl the GL to use
+     * @param capacity initial number of items
+     */
+    public RenderQueue(GlApi gl, int capacity) {
+        mGl = gl;
+        allocateItems(Math.max(1, capacity));
+        mMatrixPool = new float[16 * 8];
+    }
+
+    /**
+     * Packs a sort key. Items are sorted by program first, then buffer,
+     * material and finally depth.
+     *
+     * @param program program id, see {@link ShaderProgram#getId()}
+     * @param buffer buffer handle
+     * @param material material id, e.g. from {@link #colorToMaterial}
+     * @param depth normalized depth in [0, 1], smaller is drawn first
+     */
+    public static long makeKey(int program, int buffer, int material, float depth) {
+        final long quantizedDepth = (long)(Math.max(0.0f, Math.min(depth, 1.0f)) * FIELD_MASK);
+
+        return ((program & FIELD_MASK) << PROGRAM_SHIFT)
+                | ((buffer & FIELD_MASK) << BUFFER_SHIFT)
+                | ((material & FIELD_MASK) << MATERIAL_SHIFT)
+                | quantizedDepth;
+    }
+
+    /**
+     * @return the color quantized to 4 bits per channel, usable as material id
+     */
+    public static int colorToMaterial(final float[] rgba) {
+        int material = 0;
+
+        for (int i = 0; i < 4; ++i) {
+            final int channel = (int)(Math.max(0.0f, Math.min(rgba[i], 1.0f)) * 15.0f + 0.5f);
+            material = (material << 4) | channel;
+        }
+        return material;
+    }
+
+    /**
+     * Starts a new frame.
+     */
+    public void clear() {
+        mNumItems = 0;
+        mNumMatrices = 0;
+
+        // drop references, so released objects can be collected
+        java.util.Arrays.fill(mPrograms, null);
+        java.util.Arrays.fill(mBuffers, null);
+        java.util.Arrays.fill(mFormats, null);
+        java.util.Arrays.fill(mIndexBuffers, null);
+    }
+
+    /**
+     * Copies a matrix into the queue.
+     * @return index of the matrix for {@link #submit}
+     */
+    public int addMatrix(final float[] matrix, int offset) {
+        if ((mNumMatrices + 1) * 16 > mMatrixPool.length) {
+            final float[] pool = new float[mMatrixPool.length * 2];
+            System.arraycopy(mMatrixPool, 0, pool, 0, mNumMatrices * 16);
+            mMatrixPool = pool;
+        }
+
+        System.arraycopy(matrix, offset, mMatrixPool, mNumMatrices * 16, 16);
+        return mNumMatrices++;
+    }
+
+    /**
+     * Adds a queued matrix multiplied by a translation, e.g. the mvp matrix
+     * of an object at the given position.
+     * @param matrix index of a matrix from {@link #addMatrix}
+     * @return index of the new matrix for {@link #submit}
+     */
+    public int addTranslatedMatrix(int matrix, float x, float y, float z) {
+        if ((mNumMatrices + 1) * 16 > mMatrixPool.length) {
+            final float[] pool = new float[mMatrixPool.length * 2];
+            System.arraycopy(mMatrixPool, 0, pool, 0, mNumMatrices * 16);
+            mMatrixPool = pool;
+        }
+
+        Matrix4f.translate(mMatrixPool, mNumMatrices * 16, mMatrixPool, matrix * 16, x, y, z);
+        return mNumMatrices++;
+    }
+
+    /**
+     * Adds a queued matrix multiplied by a translation and a scale, e.g. the
+     * mvp matrix of quantized positions, see {@link PositionQuantizer}.
+     * @param matrix index of a matrix from {@link #addMatrix}
+     * @return index of the new matrix for {@link #submit}
+     */
+    public int addTransformedMatrix(int matrix, float x, float y, float z, float sx, float sy, float sz) {
+        if ((mNumMatrices + 1) * 16 > mMatrixPool.length) {
+            final float[] pool = new float[mMatrixPool.length * 2];
+            System.arraycopy(mMatrixPool, 0, pool, 0, mNumMatrices * 16);
+            mMatrixPool = pool;
+        }
+
+        Matrix4f.translateScale(mMatrixPool, mNumMatrices * 16, mMatrixPool, matrix * 16, x, y, z, sx, sy, sz);
+        return mNumMatrices++;
+    }
+
+    /**
+     * Adds a draw call, drawn by index if indices are given.
+     * @param key sort key, see {@link #makeKey}
+     * @param program program to draw with
+     * @param buffer buffer holding the positions
+     * @param format layout of the positions in the buffer
+     * @param indices index buffer, null to draw vertices in order
+     * @param mode primitive type, e.g. GL_TRIANGLES
+     * @param first first index, or first vertex without indices
+     * @param count number of indices or vertices
+     * @param matrix mvp matrix index from {@link #addMatrix}
+     * @param color rgba color, copied
+     */
+    public void submit(long key, ShaderProgram program, VertexBuffer buffer, VertexFormat format,
+            IndexBuffer indices, int mode, int first, int count, int matrix, final float[] color) {
+        if (mNumItems == mKeys.length) {
+            growItems();
+        }
+
+        final int i = mNumItems++;
+        mKeys[i] = key;
+        mPrograms[i] = program;
+        mBuffers[i] = buffer;
+        mFormats[i] = format;
+        mIndexBuffers[i] = indices;
+        mModes[i] = mode;
+        mFirsts[i] = first;
+        mCounts[i] = count;
+        mMatrices[i] = matrix;
+        System.arraycopy(color, 0, mColors, i * 4, 4);
+    }
+
+    public int size() {
+        return mNumItems;
+    }
+
+    /**
+     * @return number of draw calls issued by the last {@link #execute()} or
+     * {@link #record}
+     */
+    public int getDrawCallCount() {
+        return mNumDrawCalls;
+    }
+
+    /**
+     * @return number of program, buffer, matrix and color changes issued by
+     * the last {@link #execute()} or {@link #record}
+     */
+    public int getStateChangeCount() {
+        return mNumStateChanges;
+    }
+
+    /**
+     * Sorts and draws all items of the frame.
+     */
+    public void execute() {
+        record(mCommands.clear());
+        mCommands.finish();
+        mCommands.execute(mGl, mMatrixPool, 0);
+    }
+
+    /**
+     * Sorts all items of the frame and appends their draw calls to a command
+     * buffer. Does not need the GL, the locations come from those the
+     * programs looked up when they were created.
+     */
+    public void record(CommandBuffer commands) {
+        mNumDrawCalls = 0;
+        mNumStateChanges = 0;
+
+        if (mNumItems == 0) {
+            return;
+        }
+
+        sort();
+
+        ShaderProgram program = null;
+        VertexBuffer buffer = null;
+        VertexFormat format = null;
+        IndexBuffer indices = null;
+        int matrix = -1;
+        int colorItem = -1;
+
+        int mvpLocation = -1;
+        int colorLocation = -1;
+        int positionLocation = -1;
+
+        int n = 0;
+        while (n < mNumItems) {
+            final int item = mOrder[n];
+
+            // merge following items which only extend the vertex range
+            int count = mCounts[item];
+            int next = n + 1;
+            while (next < mNumItems && canMerge(item, mOrder[next], mFirsts[item] + count)) {
+                count += mCounts[mOrder[next]];
+                ++next;
+            }
+
+            if (mPrograms[item] != program) {
+                if (program != null) {
+                    commands.disableAttrib(positionLocation);
+                }
+
+                program = mPrograms[item];
+                commands.useProgram(program.getHandle());
+
+                mvpLocation = program.getMVPMatrixLocation();
+                colorLocation = program.getColorLocation();
+                positionLocation = program.getPositionLocation();
+                commands.enableAttrib(positionLocation);
+
+                // uniforms are per program
+                buffer = null;
+                format = null;
+                matrix = -1;
+                colorItem = -1;
+                ++mNumStateChanges;
+            }
+
+            if (mBuffers[item] != buffer || mFormats[item] != format) {
+                buffer = mBuffers[item];
+                format = mFormats[item];
+                format.attribPointer(commands.bindBuffer(GLES20.GL_ARRAY_BUFFER, buffer.getHandle()),
+                        positionLocation);
+                ++mNumStateChanges;
+            }
+
+            if (mIndexBuffers[item] != null && mIndexBuffers[item] != indices) {
+                indices = mIndexBuffers[item];
+                commands.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indices.getHandle());
+                ++mNumStateChanges;
+            }
+
+            if (mMatrices[item] != matrix) {
+                matrix = mMatrices[item];
+                commands.uniformMatrix(mvpLocation, mMatrixPool, matrix * 16);
+                ++mNumStateChanges;
+            }
+
+            if (colorItem < 0 || !sameColor(colorItem, item)) {
+                colorItem = item;
+                commands.uniform4(colorLocation, mColors, item * 4);
+                ++mNumStateChanges;
+            }
+
+            if (mIndexBuffers[item] != null) {
+                commands.drawElements(mModes[item], count, indices.getType(),
+                        mFirsts[item] * indices.getBytesPerIndex());
+            } else {
+                commands.drawArrays(mModes[item], mFirsts[item], count);
+            }
+            ++mNumDrawCalls;
+
+            n = next;
+        }
+
+        // program, buffer and attribute stay bound, so the next frame does not
+        // have to change them again if its first item uses the same state
+    }
+
+    private boolean canMerge(int a, int b, int end) {
+        return mPrograms[a] == mPrograms[b]
+                && mBuffers[a] == mBuffers[b]
+                && mFormats[a] == mFormats[b]
+                && mIndexBuffers[a] == mIndexBuffers[b]
+                && mModes[a] == mModes[b]
+                && mMatrices[a] == mMatrices[b]
+                && mFirsts[b] == end
+                && sameColor(a, b)
+                // strips and fans can not be concatenated
+                && (mModes[a] == GLES20.GL_TRIANGLES || mModes[a] == GLES20.GL_LINES
+                        || mModes[a] == GLES20.GL_POINTS);
+    }
+
+    private boolean sameColor(int a, int b) {
+        final int oa = a * 4;
+        final int ob = b * 4;
+        return mColors[oa] == mColors[ob] && mColors[oa + 1] == mColors[ob + 1]
+                && mColors[oa + 2] == mColors[ob + 2] && mColors[oa + 3] == mColors[ob + 3];
+    }
+
+    /**
+     * LSD radix sort of the keys, 8 bits per pass. Stable, so items with equal
+     * keys keep their submission order. Passes in which all keys share the
+     * same digit are skipped.
+     */
+    private void sort() {
+        long[] keys = mSortKeys;
+        int[] order = mSortOrder;
+        long[] tmpKeys = mSortKeysTmp;
+        int[] tmpOrder = mOrder;
+
+        System.arraycopy(mKeys, 0, keys, 0, mNumItems);
+        for (int i = 0; i < mNumItems; ++i) {
+            order[i] = i;
+        }
+
+        for (int shift = 0; shift < 64; shift += RADIX_BITS) {
+            java.util.Arrays.fill(mHistogram, 0);
+
+            for (int i = 0; i < mNumItems; ++i) {
+                ++mHistogram[(int)((keys[i] >>> shift) & (RADIX_SIZE - 1))];
+            }
+
+            if (mHistogram[(int)((keys[0] >>> shift) & (RADIX_SIZE - 1))] == mNumItems) {
+                continue;
+            }
+
+            int sum = 0;
+            for (int d = 0; d < RADIX_SIZE; ++d) {
+                final int c = mHistogram[d];
+                mHistogram[d] = sum;
+                sum += c;
+            }
+
+            for (int i = 0; i < mNumItems; ++i) {
+                final int dst = mHistogram[(int)((keys[i] >>> shift) & (RADIX_SIZE - 1))]++;
+                tmpKeys[dst] = keys[i];
+                tmpOrder[dst] = order[i];
+            }
+
+            long[] swapKeys = keys; keys = tmpKeys; tmpKeys = swapKeys;
+            int[] swapOrder = order; order = tmpOrder; tmpOrder = swapOrder;
+        }
+
+        // the sorted order has to end up in mOrder
+        if (order != mOrder) {
+            System.arraycopy(order, 0, mOrder, 0, mNumItems);
+        }
+    }
+
+    private void allocateItems(int capacity) {
+        mKeys = new long[capacity];
+        mOrder = new int[capacity];
+        mPrograms = new ShaderProgram[capacity];
+        mBuffers = new VertexBuffer[capacity];
+        mFormats = new VertexFormat[capacity];
+        mIndexBuffers = new IndexBuffer[capacity];
+        mModes = new int[capacity];
+        mFirsts = new int[capacity];
+        mCounts = new int[capacity];
+        mMatrices = new int[capacity];
+        mColors = new float[capacity * 4];
+        mSortKeys = new long[capacity];
+        mSortKeysTmp = new long[capacity];
+        mSortOrder = new int[capacity];
+    }
+
+    private void growItems() {
+        final int n = mNumItems;
+        final long[] keys = mKeys;
+        final ShaderProgram[] programs = mPrograms;
+        final VertexBuffer[] buffers = mBuffers;
+        final VertexFormat[] formats = mFormats;
+        final IndexBuffer[] indexBuffers = mIndexBuffers;
+        final int[] modes = mModes;
+        final int[] firsts = mFirsts;
+        final int[] counts = mCounts;
+        final int[] matrices = mMatrices;
+        final float[] colors = mColors;
+
+        allocateItems(n * 2);
+
+        System.arraycopy(keys, 0, mKeys, 0, n);
+        System.arraycopy(programs, 0, mPrograms, 0, n);
+        System.arraycopy(buffers, 0, mBuffers, 0, n);
+        System.arraycopy(formats, 0, mFormats, 0, n);
+        System.arraycopy(indexBuffers, 0, mIndexBuffers, 0, n);
+        System.arraycopy(modes, 0, mModes, 0, n);
+        System.arraycopy(firsts, 0, mFirsts, 0, n);
+        System.arraycopy(counts, 0, mCounts, 0, n);
+        System.arraycopy(matrices, 0, mMatrices, 0, n);
+        System.arraycopy(colors, 0, mColors, 0, n * 4);
+    }
+}
@@ -3,12 +3,52 @@ package com.jradek.camera;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
 
 import android.opengl.GLES20;
 
+/**
+ * Scene consisting of objects, each being a range of triangles with its own
+ * color and position. Objects are indexed by a {@link Bvh}, so drawing only
+ * visits subtrees which intersect the view frustum.
+ *
+ * The triangles are either two built in ones or loaded from a
+ * {@link MeshFile}, one object per part. Quantized positions of a mesh are
+ * mapped to object coordinates by the mvp matrix of every object.
+ *
+ * Objects of a mesh have levels of detail. {@link #selectLevels} picks the
+ * coarsest level of every visible object whose error covers at most
+ * {@link LevelState#setMaxPixelError a pixel} on screen, switching to a
+ * coarser level only with some margin, so objects do not flicker between
+ * two levels.
+ *
+ * Objects with few triangles at full detail are occluders as well:
+ * {@link #addOccluders} draws the visible ones into an
+ * {@link OcclusionBuffer} and {@link #cullOccluded} drops the objects they
+ * hide. Coarser levels are never used as occluders, they are not strictly
+ * inside the full object and could hide objects which are visible.
+ *
+ * {@link #pick} finds the object a ray hits first: the ray traverses the bvh
+ * of the objects and then a {@link TriangleBvh} of the full detail
+ * triangles of every object it reaches, built on the first pick reaching
+ * the object. The triangles of a mesh are read from its mapping then, so
+ * loading does not copy anything for picking.
+ */
 public class Scene {
     static final int COORDS_PER_VERTEX = 3;
 
+    /**
+     * share of the allowed screen space error a coarser level must stay
+     * below, against switching back and forth at the threshold
+     */
+    static final float LEVEL_HYSTERESIS = 0.75f;
+
+    /** most triangles of an occluder at full detail, larger objects do not occlude */
+    static final int MAX_OCCLUDER_TRIANGLES = 512;
+    /** most triangles of all occluders, the largest objects are chosen first */
+    static final int MAX_SCENE_OCCLUDER_TRIANGLES = 4096;
+
     private final String vertexShaderCode =
             "uniform mat4 uMVPMatrix;" +
             "attribute vec4 aPosition;" +
@@ -26,64 +66,591 @@ public class Scene {
     static final float[] colorRed = { 1.0f, 0.0f, 0.0f, 0.0f };
     static final float[] colorGreen = { 0.0f, 1.0f, 0.0f, 0.0f };
 
-    private final FloatBuffer mVertexBuffer;
-    private final int mShaderProgram;
-    private final int mMVPMatrixHandle;
-    private final int mPositionHandle;
-    private final int mColorHandle;
+    /** colors of the objects loaded from a mesh, in turn */
+    static final float[][] MESH_COLORS = {
+            { 0.9f, 0.3f, 0.2f, 1.0f },
+            { 0.3f, 0.8f, 0.3f, 1.0f },
+            { 0.2f, 0.5f, 0.9f, 1.0f },
+            { 0.9f, 0.8f, 0.2f, 1.0f },
+            { 0.7f, 0.3f, 0.8f, 1.0f },
+            { 0.2f, 0.8f, 0.8f, 1.0f } };
+
+    private final VertexBuffer mVertexBuffer;
+    /** null if the objects are vertex ranges */
+    private final IndexBuffer mIndexBuffer;
+    private final VertexFormat mVertexFormat;
+    /** maps quantized positions to object coordinates, null for floats */
+    private final PositionQuantizer mQuantizer;
+    private final BoundingBox mBounds = new BoundingBox();
+
+    // objects, stored as parallel arrays
+    private final int mNumObjects;
+    /** levels of detail per object, the same for all objects */
+    private final int mNumLevels;
+    /** first index (or first vertex without index buffer) per level, at object * mNumLevels + level */
+    private final int[] mObjectFirst;
+    private final int[] mObjectCount;
+    /** largest distance a vertex moved per level */
+    private final float[] mObjectError;
+    private final float[][] mObjectColor;
+    /** bounds in object coordinates */
+    private final float[] mObjectLocalBounds;
+    private final float[] mObjectPosition;
+    /** bounds in world coordinates, as used by the bvh */
+    private final float[] mObjectBounds;
+
+    /** occluder triangles in object coordinates, 3 corners of x, y, z each */
+    private final float[] mOccluderTriangles;
+    /** first occluder triangle and their number per object, 0 for objects not occluding */
+    private final int[] mOccluderFirst;
+    private final int[] mOccluderCount;
+
+    /** mesh the pick triangles are read from, null for the built in triangles */
+    private final MeshFile mMesh;
+    /** 0, 1, 2, ..., as the pick triangles do not share corners */
+    private int[] mPickIndices = new int[0];
+    /** triangles of every object, null until a pick reaches the object */
+    private final TriangleBvh[] mPickTriangles;
+    private final Ray mPickRay = new Ray();
+    private int[] mPickStack = new int[0];
+
+    private final Bvh.RayIntersector mObjectIntersector = new Bvh.RayIntersector() {
+        @Override
+        public boolean intersect(int object, Ray ray) {
+            final int p = object * 3;
+            final Ray local = mPickRay.setTranslated(ray,
+                    mObjectPosition[p + 0], mObjectPosition[p + 1], mObjectPosition[p + 2]);
+            if (getPickTriangles(object).raycast(local) < 0) {
+                return false;
+            }
+            ray.maxDistance = local.maxDistance;
+            return true;
+        }
+    };
+
+    private final Bvh mBvh = new Bvh();
+    private boolean mObjectsMoved = false;
+
+    private final ShaderProgram mShaderProgram;
+
+    /**
+     * Creates the scene of two built in triangles.
+     */
+    public Scene(GlApi gl, ShaderCache shaderCache) {
+        float[] triangle1 = {
+                -0.5f, +0.5f, +0.0f,
+                +0.5f, -0.5f, +0.0f,
+                +0.5f, +0.5f, +0.0f
+        };
+
+        float[] triangle2 = {
+                -0.4f, +0.5f, -0.5f,
+                +0.6f, -0.5f, -0.5f,
+                +0.6f, +0.5f, -0.5f
+        };
+
+        FloatBuffer vertexData = ByteBuffer.allocateDirect((triangle1.length + triangle2.length) * Util.BYTES_PER_FLOAT)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        vertexData.put(triangle1);
+        vertexData.put(triangle2);
+
+        mVertexBuffer = new VertexBuffer(gl, vertexData, BufferObject.Usage.Static);
+        mIndexBuffer = null;
+        mVertexFormat = VertexFormat.FLOAT3;
+        mQuantizer = null;
+
+        mNumObjects = 2;
+        mNumLevels = 1;
+        mObjectFirst = new int[] { 0, 3 };
+        mObjectCount = new int[] { 3, 3 };
+        mObjectError = new float[] { 0, 0 };
+        mObjectColor = new float[][] { colorRed, colorGreen };
+
+        mObjectLocalBounds = new float[mNumObjects * Bvh.BOX_STRIDE];
+        mObjectPosition = new float[mNumObjects * 3];
+        mObjectBounds = new float[mNumObjects * Bvh.BOX_STRIDE];
+
+        setLocalBounds(0, new BoundingBox().include(triangle1, 0, 3, COORDS_PER_VERTEX));
+        setLocalBounds(1, new BoundingBox().include(triangle2, 0, 3, COORDS_PER_VERTEX));
+
+        mOccluderTriangles = new float[triangle1.length + triangle2.length];
+        System.arraycopy(triangle1, 0, mOccluderTriangles, 0, triangle1.length);
+        System.arraycopy(triangle2, 0, mOccluderTriangles, triangle1.length, triangle2.length);
+        mOccluderFirst = new int[] { 0, 1 };
+        mOccluderCount = new int[] { 1, 1 };
+
+        mMesh = null;
+        mPickTriangles = new TriangleBvh[mNumObjects];
+
+        buildBvh();
+
+        mShaderProgram = shaderCache.getProgram(vertexShaderCode, fragmentShaderCode);
+    }
+
+    /**
+     * Creates a scene of the parts of a mesh. Vertices and indices are
+     * uploaded straight from the mapped file, the mesh is kept for picking.
+     */
+    public Scene(GlApi gl, ShaderCache shaderCache, MeshFile mesh) {
+        mVertexBuffer = new VertexBuffer(gl, mesh.getVertexData(), BufferObject.Usage.Static);
+        mIndexBuffer = new IndexBuffer(gl, mesh.getIndexData(),
+                IndexBuffer.getTypeOfSize(mesh.getBytesPerIndex()), BufferObject.Usage.Static);
+        // quantized positions are mapped by a quantizer of the mesh bounds
+        mVertexFormat = mesh.isQuantized()
+                ? new VertexFormat(3, GLES20.GL_SHORT, true, mesh.getStride())
+                : new VertexFormat(3, GLES20.GL_FLOAT, false, mesh.getStride());
+        mQuantizer = mesh.isQuantized() ? new PositionQuantizer(mesh.getBounds(new BoundingBox())) : null;
+
+        mNumObjects = mesh.getPartCount();
+        mNumLevels = mesh.getLevelCount();
+        mObjectFirst = new int[mNumObjects * mNumLevels];
+        mObjectCount = new int[mNumObjects * mNumLevels];
+        mObjectError = new float[mNumObjects * mNumLevels];
+        mObjectColor = new float[mNumObjects][];
+
+        mObjectLocalBounds = new float[mNumObjects * Bvh.BOX_STRIDE];
+        mObjectPosition = new float[mNumObjects * 3];
+        mObjectBounds = new float[mNumObjects * Bvh.BOX_STRIDE];
+
+        final BoundingBox box = new BoundingBox();
+        for (int i = 0; i < mNumObjects; ++i) {
+            for (int level = 0; level < mNumLevels; ++level) {
+                mObjectFirst[i * mNumLevels + level] = mesh.getPartFirstIndex(i, level);
+                mObjectCount[i * mNumLevels + level] = mesh.getPartIndexCount(i, level);
+                mObjectError[i * mNumLevels + level] = mesh.getPartError(i, level);
+            }
+            mObjectColor[i] = MESH_COLORS[i % MESH_COLORS.length];
+            setLocalBounds(i, mesh.getPartBounds(i, box));
+        }
+
+        mOccluderFirst = new int[mNumObjects];
+        mOccluderCount = new int[mNumObjects];
+        mOccluderTriangles = readOccluders(mesh);
+
+        mMesh = mesh;
+        mPickTriangles = new TriangleBvh[mNumObjects];
 
-    public Scene() {
-        {   // shape
-            float[] triangle1 = {
-                    -0.5f, +0.5f, +0.0f,
-                    +0.5f, -0.5f, +0.0f,
-                    +0.5f, +0.5f, +0.0f
-            };
+        buildBvh();
 
-            float[] triangle2 = {
-                    -0.4f, +0.5f, -0.5f,
-                    +0.6f, -0.5f, -0.5f,
-                    +0.6f, +0.5f, -0.5f
-            };
+        mShaderProgram = shaderCache.getProgram(vertexShaderCode, fragmentShaderCode);
+    }
 
-            mVertexBuffer = ByteBuffer.allocateDirect((triangle1.length + triangle2.length) * Util.BYTES_PER_FLOAT)
-                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
-            mVertexBuffer.put(triangle1);
-            mVertexBuffer.put(triangle2);
+    /**
+     * Chooses the occluders, largest objects first, and reads their
+     * triangles from the mesh.
+     */
+    private float[] readOccluders(MeshFile mesh) {
+        final Integer[] objects = new Integer[mNumObjects];
+        for (int i = 0; i < mNumObjects; ++i) {
+            objects[i] = Integer.valueOf(i);
         }
+        Arrays.sort(objects, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Float.compare(getLocalDiagonal(b.intValue()), getLocalDiagonal(a.intValue()));
+            }
+        });
+
+        // chosen before reading to size the array
+        int numTriangles = 0;
+        for (int n = 0; n < mNumObjects; ++n) {
+            final int object = objects[n].intValue();
+            final int count = mObjectCount[object * mNumLevels] / 3;
+            if (count > MAX_OCCLUDER_TRIANGLES || numTriangles + count > MAX_SCENE_OCCLUDER_TRIANGLES) {
+                continue;
+            }
 
-        {   // shader program
-            int vertexShader = Util.loadShader(GLES20.GL_VERTEX_SHADER, vertexShaderCode);
-            int fragmentShader = Util.loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentShaderCode);
+            mOccluderFirst[object] = numTriangles;
+            mOccluderCount[object] = count;
+            numTriangles += count;
+        }
+
+        final float[] triangles = new float[numTriangles * 9];
+        for (int object = 0; object < mNumObjects; ++object) {
+            final int l = object * mNumLevels;
+            for (int i = 0; i < mOccluderCount[object] * 3; ++i) {
+                mesh.getPosition(mesh.getIndex(mObjectFirst[l] + i), triangles,
+                        (mOccluderFirst[object] * 3 + i) * 3);
+            }
+        }
+        return triangles;
+    }
 
-            mShaderProgram = GLES20.glCreateProgram();
-            GLES20.glAttachShader(mShaderProgram, vertexShader);
-            GLES20.glAttachShader(mShaderProgram, fragmentShader);
-            GLES20.glLinkProgram(mShaderProgram);
+    private float getLocalDiagonal(int object) {
+        final int o = object * Bvh.BOX_STRIDE;
+        final float dx = mObjectLocalBounds[o + 3] - mObjectLocalBounds[o + 0];
+        final float dy = mObjectLocalBounds[o + 4] - mObjectLocalBounds[o + 1];
+        final float dz = mObjectLocalBounds[o + 5] - mObjectLocalBounds[o + 2];
+        return dx * dx + dy * dy + dz * dz;
+    }
 
-            // setup handles
-            mMVPMatrixHandle = GLES20.glGetUniformLocation(mShaderProgram, "uMVPMatrix");
-            mColorHandle = GLES20.glGetUniformLocation(mShaderProgram, "uColor");
-            mPositionHandle = GLES20.glGetAttribLocation(mShaderProgram, "aPosition");
+    private void buildBvh() {
+        for (int i = 0; i < mNumObjects; ++i) {
+            updateObjectBounds(i);
         }
+
+        mBvh.build(mObjectBounds, mNumObjects);
+        mBvh.getBounds(mBounds);
     }
 
-    public void draw(float[] mvpMatrix) {
-        GLES20.glUseProgram(mShaderProgram);
+    private void setLocalBounds(int object, final BoundingBox box) {
+        final int o = object * Bvh.BOX_STRIDE;
+        mObjectLocalBounds[o + 0] = box.minX;
+        mObjectLocalBounds[o + 1] = box.minY;
+        mObjectLocalBounds[o + 2] = box.minZ;
+        mObjectLocalBounds[o + 3] = box.maxX;
+        mObjectLocalBounds[o + 4] = box.maxY;
+        mObjectLocalBounds[o + 5] = box.maxZ;
+    }
 
-        mVertexBuffer.position(0);
-        GLES20.glVertexAttribPointer(mPositionHandle, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0,
-                mVertexBuffer);
+    private void updateObjectBounds(int object) {
+        final int o = object * Bvh.BOX_STRIDE;
+        final int p = object * 3;
 
-        GLES20.glEnableVertexAttribArray(mPositionHandle);
+        for (int i = 0; i < 3; ++i) {
+            mObjectBounds[o + i] = mObjectLocalBounds[o + i] + mObjectPosition[p + i];
+            mObjectBounds[o + 3 + i] = mObjectLocalBounds[o + 3 + i] + mObjectPosition[p + i];
+        }
+    }
 
-        GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mvpMatrix, 0);
+    public int getObjectCount() {
+        return mNumObjects;
+    }
 
-        GLES20.glUniform4fv(mColorHandle, 1, colorRed, 0);
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 3);
-        GLES20.glUniform4fv(mColorHandle, 1, colorGreen, 0);
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 3, 3);
+    /**
+     * Moves an object. The bvh is refitted (or rebuilt, if refitting
+     * degraded it too much) on the next draw.
+     */
+    public void setObjectPosition(int object, float x, float y, float z) {
+        final int p = object * 3;
+        mObjectPosition[p + 0] = x;
+        mObjectPosition[p + 1] = y;
+        mObjectPosition[p + 2] = z;
+
+        updateObjectBounds(object);
+        mObjectsMoved = true;
+    }
+
+    /**
+     * @return bounds of the scene in world coordinates
+     */
+    public BoundingBox getBounds() {
+        update();
+        return mBounds;
+    }
+
+    /**
+     * Refits the bvh to moved objects. Has to be called before culling from
+     * several threads concurrently.
+     */
+    public void update() {
+        if (mObjectsMoved) {
+            mBvh.update(mObjectBounds);
+            mBvh.getBounds(mBounds);
+            mObjectsMoved = false;
+        }
+    }
+
+    /**
+     * The objects found visible by {@link Scene#cull}. One per thread
+     * culling concurrently, reused from frame to frame.
+     */
+    public static class Visibility {
+        private int[] mObjects = new int[0];
+        /** level of detail per visible object */
+        private int[] mLevels = new int[0];
+        private int[] mStack = new int[0];
+        private int mCount = 0;
+
+        private int mNumTriangles = 0;
+        private int mNumTrianglesSaved = 0;
+        private int mNumOccluded = 0;
+
+        public int getCount() {
+            return mCount;
+        }
+
+        /**
+         * @return number of objects in the frustum dropped by
+         * {@link Scene#cullOccluded}
+         */
+        public int getOccludedCount() {
+            return mNumOccluded;
+        }
 
-        GLES20.glDisableVertexAttribArray(mPositionHandle);
+        /**
+         * @return number of triangles of the visible objects at their level
+         * of detail
+         */
+        public int getTriangleCount() {
+            return mNumTriangles;
+        }
+
+        /**
+         * @return number of triangles the levels of detail save compared to
+         * drawing all visible objects in full
+         */
+        public int getSavedTriangleCount() {
+            return mNumTrianglesSaved;
+        }
+    }
+
+    /**
+     * The levels of detail last chosen for the objects of one view, kept
+     * from frame to frame for hysteresis. One per view, used by one thread
+     * at a time.
+     */
+    public static class LevelState {
+        private int[] mLevels = new int[0];
+        private float mMaxPixelError = 1.0f;
+
+        /**
+         * @param pixels the screen space error allowed, 0 draws everything
+         * in full detail
+         */
+        public LevelState setMaxPixelError(float pixels) {
+            mMaxPixelError = pixels;
+            return this;
+        }
+
+        public float getMaxPixelError() {
+            return mMaxPixelError;
+        }
+    }
+
+    /**
+     * Finds the objects intersecting the frustum. Expects the bvh to be up
+     * to date, see {@link #update()}, and may then run on several threads
+     * concurrently, each with its own frustum and visibility.
+     * @return number of visible objects
+     */
+    public int cull(Frustum frustum, Visibility visibility) {
+        if (visibility.mObjects.length < mNumObjects) {
+            visibility.mObjects = new int[mNumObjects];
+            visibility.mLevels = new int[mNumObjects];
+        }
+        if (visibility.mStack.length < mBvh.getStackSize()) {
+            visibility.mStack = new int[mBvh.getStackSize()];
+        }
+
+        visibility.mCount = mBvh.query(frustum, visibility.mObjects, visibility.mStack);
+
+        // full detail until levels are selected
+        int numTriangles = 0;
+        for (int i = 0; i < visibility.mCount; ++i) {
+            visibility.mLevels[i] = 0;
+            numTriangles += mObjectCount[visibility.mObjects[i] * mNumLevels] / 3;
+        }
+        visibility.mNumTriangles = numTriangles;
+        visibility.mNumTrianglesSaved = 0;
+        visibility.mNumOccluded = 0;
+
+        return visibility.mCount;
+    }
+
+    /**
+     * Adds the occluders among the objects found by {@link #cull} to an
+     * occlusion buffer, begun with the view projection matrix of the
+     * culled frustum. Can run concurrently like {@link #cull}, each view
+     * with its own buffer.
+     */
+    public void addOccluders(OcclusionBuffer buffer, final Visibility visibility) {
+        for (int i = 0; i < visibility.mCount; ++i) {
+            final int object = visibility.mObjects[i];
+            if (mOccluderCount[object] == 0) {
+                continue;
+            }
+
+            final int p = object * 3;
+            buffer.addTriangles(mOccluderTriangles, mOccluderFirst[object] * 9, mOccluderCount[object],
+                    mObjectPosition[p + 0], mObjectPosition[p + 1], mObjectPosition[p + 2]);
+        }
+    }
+
+    /**
+     * Drops the objects found by {@link #cull} which are hidden in an
+     * occlusion buffer, rasterized after {@link #addOccluders}. Occluders
+     * never hide themselves, as their bounds are in front of their
+     * triangles. Can run concurrently like {@link #cull}.
+     * @return number of visible objects left
+     */
+    public int cullOccluded(Visibility visibility, final OcclusionBuffer buffer) {
+        int count = 0;
+        int numTriangles = 0;
+        int numTrianglesSaved = 0;
+        for (int i = 0; i < visibility.mCount; ++i) {
+            final int object = visibility.mObjects[i];
+            final int o = object * Bvh.BOX_STRIDE;
+            if (!buffer.isVisible(mObjectBounds[o + 0], mObjectBounds[o + 1], mObjectBounds[o + 2],
+                    mObjectBounds[o + 3], mObjectBounds[o + 4], mObjectBounds[o + 5])) {
+                continue;
+            }
+
+            final int l = object * mNumLevels;
+            final int level = visibility.mLevels[i];
+            numTriangles += mObjectCount[l + level] / 3;
+            numTrianglesSaved += (mObjectCount[l] - mObjectCount[l + level]) / 3;
+
+            visibility.mObjects[count] = object;
+            visibility.mLevels[count] = level;
+            ++count;
+        }
+
+        visibility.mNumOccluded += visibility.mCount - count;
+        visibility.mCount = count;
+        visibility.mNumTriangles = numTriangles;
+        visibility.mNumTrianglesSaved = numTrianglesSaved;
+        return count;
+    }
+
+    /**
+     * Selects the level of detail of the objects found by {@link #cull},
+     * by the size their error would have on screen. Can run concurrently
+     * like {@link #cull}, each view with its own state.
+     * @param visibility the visible objects, receives their levels
+     * @param state levels of the previous frame of the same view
+     * @param eye x, y, z of the eye the view is drawn from
+     * @param pixelsPerUnit pixels covered by one unit at distance one, see
+     * {@link Viewport#getPixelsPerUnit()}
+     */
+    public void selectLevels(Visibility visibility, LevelState state, final float[] eye, float pixelsPerUnit) {
+        if (state.mLevels.length < mNumObjects) {
+            state.mLevels = new int[mNumObjects];
+        }
+
+        final float maxError = state.mMaxPixelError / pixelsPerUnit;
+        final float ex = eye[0];
+        final float ey = eye[1];
+        final float ez = eye[2];
+
+        int numTriangles = 0;
+        int numTrianglesSaved = 0;
+        for (int i = 0; i < visibility.mCount; ++i) {
+            final int object = visibility.mObjects[i];
+            final int l = object * mNumLevels;
+
+            // closest point of the bounds, objects are never closer than the near plane
+            final int o = object * Bvh.BOX_STRIDE;
+            final float dx = Math.max(0.0f, Math.max(mObjectBounds[o + 0] - ex, ex - mObjectBounds[o + 3]));
+            final float dy = Math.max(0.0f, Math.max(mObjectBounds[o + 1] - ey, ey - mObjectBounds[o + 4]));
+            final float dz = Math.max(0.0f, Math.max(mObjectBounds[o + 2] - ez, ez - mObjectBounds[o + 5]));
+            final float distance = Math.max(Camera.NEAR_PLANE, (float) Math.sqrt(dx * dx + dy * dy + dz * dz));
+            final float allowed = maxError * distance;
+
+            // a scene loaded since may have fewer levels
+            int level = Math.min(state.mLevels[object], mNumLevels - 1);
+            while (level > 0 && mObjectError[l + level] > allowed) {
+                --level;
+            }
+            while (level + 1 < mNumLevels && mObjectError[l + level + 1] <= allowed * LEVEL_HYSTERESIS) {
+                ++level;
+            }
+
+            state.mLevels[object] = level;
+            visibility.mLevels[i] = level;
+            numTriangles += mObjectCount[l + level] / 3;
+            numTrianglesSaved += (mObjectCount[l] - mObjectCount[l + level]) / 3;
+        }
+        visibility.mNumTriangles = numTriangles;
+        visibility.mNumTrianglesSaved = numTrianglesSaved;
+    }
+
+    /**
+     * Submits the objects found by {@link #cull}.
+     * @param queue queue of the current frame
+     * @param mvpMatrix view projection matrix of the culled frustum
+     * @param matrix index of mvpMatrix in the queue, used for objects at the origin
+     * @param visibility the visible objects
+     */
+    public void submitVisible(RenderQueue queue, float[] mvpMatrix, int matrix, final Visibility visibility) {
+        for (int i = 0; i < visibility.mCount; ++i) {
+            final int object = visibility.mObjects[i];
+            final int p = object * 3;
+            final float x = mObjectPosition[p + 0];
+            final float y = mObjectPosition[p + 1];
+            final float z = mObjectPosition[p + 2];
+
+            int objectMatrix = matrix;
+            if (mQuantizer != null) {
+                objectMatrix = queue.addTransformedMatrix(matrix,
+                        x + mQuantizer.getOffset(0), y + mQuantizer.getOffset(1), z + mQuantizer.getOffset(2),
+                        mQuantizer.getScale(0), mQuantizer.getScale(1), mQuantizer.getScale(2));
+            } else if (x != 0 || y != 0 || z != 0) {
+                objectMatrix = queue.addTranslatedMatrix(matrix, x, y, z);
+            }
+
+            // clip space w of the bounds center is its view space depth
+            final int o = object * Bvh.BOX_STRIDE;
+            final float cx = (mObjectBounds[o + 0] + mObjectBounds[o + 3]) * 0.5f;
+            final float cy = (mObjectBounds[o + 1] + mObjectBounds[o + 4]) * 0.5f;
+            final float cz = (mObjectBounds[o + 2] + mObjectBounds[o + 5]) * 0.5f;
+            final float depth = mvpMatrix[3]*cx + mvpMatrix[7]*cy + mvpMatrix[11]*cz + mvpMatrix[15];
+
+            final float[] color = mObjectColor[object];
+            final long key = RenderQueue.makeKey(mShaderProgram.getId(), mVertexBuffer.getHandle(),
+                    RenderQueue.colorToMaterial(color), depth / Camera.FAR_PLANE);
+
+            final int l = object * mNumLevels + visibility.mLevels[i];
+            queue.submit(key, mShaderProgram, mVertexBuffer, mVertexFormat, mIndexBuffer,
+                    GLES20.GL_TRIANGLES, mObjectFirst[l], mObjectCount[l], objectMatrix, color);
+        }
+    }
+
+    /**
+     * Finds the object a ray hits first, by its full detail triangles.
+     * Picks of several threads take turns. Uses the bvh as of the last
+     * {@link #update()}, so it can run while views are culled, but not
+     * concurrently with moving objects.
+     * @param ray ray in world coordinates, its max distance becomes the
+     * distance of the hit
+     * @return the object hit, -1 if none
+     */
+    public synchronized int pick(Ray ray) {
+        if (mPickStack.length < mBvh.getRayStackSize()) {
+            mPickStack = new int[mBvh.getRayStackSize()];
+        }
+        return mBvh.raycast(ray, mObjectIntersector, mPickStack);
+    }
+
+    /**
+     * Picks with several rays at once, see {@link #pick(Ray)}.
+     * @param objects receives the object hit per ray, -1 if none
+     * @return number of rays which hit an object
+     */
+    public synchronized int pick(final Ray[] rays, int count, int[] objects) {
+        int numHits = 0;
+        for (int i = 0; i < count; ++i) {
+            objects[i] = pick(rays[i]);
+            if (objects[i] >= 0) {
+                ++numHits;
+            }
+        }
+        return numHits;
+    }
+
+    private TriangleBvh getPickTriangles(int object) {
+        if (mPickTriangles[object] == null) {
+            final int first = mObjectFirst[object * mNumLevels];
+            final int count = mObjectCount[object * mNumLevels];
+            if (mPickIndices.length < count) {
+                mPickIndices = new int[count];
+                for (int i = 0; i < count; ++i) {
+                    mPickIndices[i] = i;
+                }
+            }
+
+            final float[] positions = new float[count * 3];
+            if (mMesh != null) {
+                // only the full detail triangles of this object
+                for (int i = 0; i < count; ++i) {
+                    mMesh.getPosition(mMesh.getIndex(first + i), positions, i * 3);
+                }
+            } else {
+                // the built in objects are vertex ranges of the occluder triangles
+                System.arraycopy(mOccluderTriangles, first * 3, positions, 0, count * 3);
+            }
+            mPickTriangles[object] = new TriangleBvh(positions, mPickIndices, 0, count);
+        }
+        return mPickTriangles[object];
     }
 }
@@ -1,72 +1,613 @@
 package com.jradek.camera;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
 import android.content.Context;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView.Renderer;
-import android.opengl.Matrix;
+import android.util.Log;
+
+/**
+ * Draws the scene through several viewports.
+ *
+ * Frames are pipelined: camera update, culling and sorting of frame N + 1
+ * run on worker threads, one per viewport, while the GL thread draws frame
+ * N from a {@link FramePacket}. Only the handoff between the two is
+ * synchronized. While the camera rests, frames are drawn on demand and
+ * prepared right before drawing.
+ */
+public class SceneRenderer implements Renderer, FramePipeline.Preparer {
+    private static final String TAG = "SceneRenderer";
+
+    /** resolution of the occlusion buffers, independent of the viewports */
+    static final int OCCLUSION_WIDTH = 256;
+    static final int OCCLUSION_HEIGHT = 128;
+
+    /**
+     * Notified on the GL thread whenever frames have to be rendered
+     * continuously (while the camera moves) or only on demand.
+     */
+    public interface RenderModeListener {
+        void onContinuousRenderingChanged(boolean continuous);
+    }
 
-public class SceneRenderer implements Renderer {
     private Scene mScene;
     private CheckerBoard mCheckerBoard;
+    /** the checker board, recorded once and replayed for every view */
+    private final CommandBuffer mCheckerBoardCommands = new CommandBuffer();
+    private InstancedMesh mMarkers;
+
+    private final GlApi mGl;
+    private final GlCounter mGlCounter;
+    private final GlStateCache mStateCache;
+    private final ShaderCache mShaderCache;
 
-    private final float[] mMVPMatrix = new float[16];
     private final FreeCamera mFreeCamera;
+    private final TargetCamera mOverviewCamera;
+
+    /**
+     * all viewports, drawn in this order. The first one shows the free
+     * camera, the second one is a top down overview.
+     */
+    private final List<Viewport> mViewports = new ArrayList<Viewport>();
+    private final Viewport mMainViewport;
+    private final Viewport mOverviewViewport;
+
+    private final FrameStats mFrameStats;
+
+    /** mesh drawn instead of the built in scene if it exists, may be null */
+    private final File mMeshFile;
+
+    private final FramePipeline mPipeline;
+    private FramePacket mPacket;
+    /** packet being prepared, read by the view tasks */
+    private FramePacket mPreparingPacket;
+    private final Runnable[] mViewTasks;
+    /** levels of detail per view, only touched by the view's task */
+    private final Scene.LevelState[] mLevelStates;
+    /** occlusion buffer per view, only touched by the view's task */
+    private final OcclusionBuffer[] mOcclusionBuffers;
+
+    // picking scratch, used on the GL thread
+    private final float[] mPickMatrices;
+    private Ray[] mPickRays = new Ray[0];
+    private int[] mPickPoints = new int[0];
+    private int[] mPickObjects = new int[0];
+
+    private final CameraInput mCameraInput = new CameraInput();
+    private final float[] mCameraDeltas = new float[CameraInput.NUM_AXES];
+    private final CameraMotion mCameraMotion = new CameraMotion(CameraInput.NUM_AXES, 8.0f);
+    private final float[] mViewMatrix = new float[16];
+    private long mLastFrameNanos = 0;
+
+    private RenderModeListener mRenderModeListener;
+    private boolean mContinuousRendering = false;
+
+    private CameraRecorder mRecorder;
+    private CameraPlayer mPlayer;
+    private long mPlaybackOffsetNanos;
+    private final float[] mPlaybackProjectionMatrix = new float[16];
 
     public SceneRenderer(Context conext) {
+        this(conext, new AndroidGl(2));
+    }
+
+    /**
+     * @param conext the context
+     * @param gl the GL all drawing goes through
+     */
+    public SceneRenderer(Context conext, GlApi gl) {
+        // the counter sees the calls left over by the state cache
+        mGlCounter = new GlCounter(gl);
+        mStateCache = new GlStateCache(mGlCounter);
+        mGl = mStateCache;
+        mShaderCache = new ShaderCache(mGl, conext.getCacheDir());
+        mFrameStats = new FrameStats(mGlCounter);
+        final File filesDir = conext.getFilesDir();
+        mMeshFile = filesDir != null ? new File(filesDir, "scene.mesh") : null;
         mFreeCamera = new FreeCamera(new vec3(0, 0, 5), new vec3(0, 0, -1), new  vec3(0, 1, 0));
+        mOverviewCamera = new TargetCamera(new vec3(0, 20, 0.01), new vec3(0, 0, 0));
+
+        mMainViewport = new Viewport(mFreeCamera, 0.0f, 0.0f, 1.0f, 1.0f);
+        mOverviewViewport = new Viewport(mOverviewCamera, 0.68f, 0.02f, 0.3f, 0.3f)
+                .setClearColor(0.15f, 0.15f, 0.15f, 1.0f);
+        mViewports.add(mMainViewport);
+        mViewports.add(mOverviewViewport);
+
+        final int numViews = mViewports.size();
+        mViewTasks = new Runnable[numViews];
+        mLevelStates = new Scene.LevelState[numViews];
+        mOcclusionBuffers = new OcclusionBuffer[numViews];
+        mPickMatrices = new float[numViews * 16];
+        for (int i = 0; i < numViews; ++i) {
+            final int view = i;
+            mLevelStates[i] = new Scene.LevelState();
+            mOcclusionBuffers[i] = new OcclusionBuffer(OCCLUSION_WIDTH, OCCLUSION_HEIGHT);
+            mViewTasks[i] = new Runnable() {
+                @Override
+                public void run() {
+                    prepareView(mPreparingPacket, view);
+                }
+            };
+        }
+
+        // a preparation forks the views, so it needs at least one more thread
+        final int numThreads = Math.max(2,
+                Math.min(numViews, Runtime.getRuntime().availableProcessors() - 1));
+        mPipeline = new FramePipeline(this, new FramePacket(mGl, numViews),
+                new FramePacket(mGl, numViews), numThreads);
     }
 
     @Override
     public void onDrawFrame(GL10 arg0) {
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+        mFrameStats.beginFrame();
+
+        final FramePacket packet = mPipeline.acquire();
+        if (packet.isContinuous()) {
+            // prepare the next frame while this one is drawn
+            mPipeline.prepareAhead();
+        }
+        mPacket = packet;
+        setContinuousRendering(packet.isContinuous());
+
+        if (packet.isTimed()) {
+            mFrameStats.add(FrameStats.CAMERA, packet.getNanos(FrameStats.CAMERA));
+            mFrameStats.add(FrameStats.CULLING, packet.getNanos(FrameStats.CULLING));
+            mFrameStats.add(FrameStats.SUBMISSION, packet.getNanos(FrameStats.SUBMISSION));
+        }
+
+        mFrameStats.begin(FrameStats.EXECUTION);
+        for (int i = 0; i < mViewports.size(); ++i) {
+            final FramePacket.View view = packet.getView(i);
+            mFrameStats.addCount(FrameStats.TRIANGLES, view.getVisibility().getTriangleCount());
+            mFrameStats.addCount(FrameStats.TRIANGLES_SAVED, view.getVisibility().getSavedTriangleCount());
+            mFrameStats.addCount(FrameStats.OBJECTS_OCCLUDED, view.getVisibility().getOccludedCount());
+            drawView(mViewports.get(i), view);
+        }
+        mFrameStats.end(FrameStats.EXECUTION);
+
+        mFrameStats.endFrame();
+        if (!packet.isContinuous()) {
+            // the next frame is drawn on demand
+            mFrameStats.skipInterval();
+        }
+    }
+
+    /**
+     * Updates the camera and prepares all views, called by the pipeline.
+     */
+    @Override
+    public void prepareFrame(FramePacket packet) {
+        final boolean timed = mFrameStats.isEnabled();
+        packet.begin(timed);
+
+        final long start = timed ? System.nanoTime() : 0;
+        updateCamera();
+        if (timed) {
+            packet.addNanos(FrameStats.CAMERA, System.nanoTime() - start);
+        }
+        // render continuously only while there is motion
+        packet.setContinuous(mPlayer != null || mCameraMotion.isMoving());
+
+        // the views cull concurrently, so the bvh must not change meanwhile
+        mScene.update();
+
+        mPreparingPacket = packet;
+        mPipeline.fork(mViewTasks, mViewports.size());
+        mPreparingPacket = null;
+
+        packet.end();
+    }
+
+    /**
+     * Culls, sorts and records the draw calls of one viewport.
+     */
+    private void prepareView(FramePacket packet, int index) {
+        final Viewport viewport = mViewports.get(index);
+        final FramePacket.View view = packet.getView(index);
+        final boolean timed = packet.isTimed();
+
+        final float[] mvpMatrix = view.getViewProjectionMatrix();
+        System.arraycopy(viewport.getViewProjectionMatrix(), 0, mvpMatrix, 0, 16);
+
+        final Frustum frustum = viewport.getFrustum();
+        frustum.resetStatistics();
+
+        long start = timed ? System.nanoTime() : 0;
+        view.setCheckerBoardVisible(frustum.intersects(mCheckerBoard.getBounds()));
+        mScene.cull(frustum, view.getVisibility());
+
+        // the views already run in parallel, so the tiles are rasterized in turn
+        final OcclusionBuffer occlusion = mOcclusionBuffers[index];
+        occlusion.begin(mvpMatrix, 0);
+        mScene.addOccluders(occlusion, view.getVisibility());
+        occlusion.rasterize();
+        mScene.cullOccluded(view.getVisibility(), occlusion);
+
+        // from the matrices drawn with, which during playback are not the camera's
+        mScene.selectLevels(view.getVisibility(), mLevelStates[index], viewport.getEyePosition(),
+                viewport.getPixelsPerUnit());
+
+        if (timed) {
+            final long now = System.nanoTime();
+            view.addNanos(FrameStats.CULLING, now - start);
+            start = now;
+        }
+
+        final RenderQueue queue = view.getRenderQueue();
+        queue.clear();
+        final int matrix = queue.addMatrix(mvpMatrix, 0);
+        mScene.submitVisible(queue, mvpMatrix, matrix, view.getVisibility());
+
+        queue.record(view.getCommands().clear());
+        view.getCommands().finish();
+
+        if (timed) {
+            view.addNanos(FrameStats.SUBMISSION, System.nanoTime() - start);
+        }
+    }
+
+    private void drawView(Viewport viewport, FramePacket.View view) {
+        final float[] mvpMatrix = view.getViewProjectionMatrix();
+
+        viewport.begin(mGl);
+
+        if (view.isCheckerBoardVisible()) {
+            mCheckerBoardCommands.execute(mGl, mvpMatrix, 0);
+        }
+        view.getCommands().execute(mGl, mvpMatrix, 0);
+
+        mMarkers.draw(mvpMatrix);
+    }
+
+    /**
+     * @return the queue of the main viewport in the last frame drawn,
+     * including its draw call statistics, null before the first frame. Call
+     * on the GL thread.
+     */
+    public RenderQueue getRenderQueue() {
+        return mPacket != null ? mPacket.getView(0).getRenderQueue() : null;
+    }
+
+    /**
+     * Finds the object under a point of the surface, see
+     * {@link #pick(float[], int, int[])}.
+     * @return the object, -1 if none
+     */
+    public int pick(float x, float y) {
+        final int[] object = new int[1];
+        pick(new float[] { x, y }, 1, object);
+        return object[0];
+    }
+
+    /**
+     * Finds the objects under points of the surface as drawn in the last
+     * frame, e.g. touch points. A point belongs to the topmost viewport
+     * containing it. Call on the GL thread, e.g. through
+     * GLSurfaceView.queueEvent.
+     * @param points x, y per point in surface pixels, from the top left
+     * @param count number of points
+     * @param objects receives the object under every point, -1 if none
+     * @return number of points over an object
+     */
+    public int pick(final float[] points, int count, int[] objects) {
+        java.util.Arrays.fill(objects, 0, count, -1);
+        final FramePacket packet = mPacket;
+        if (packet == null || mScene == null) {
+            return 0;
+        }
 
-        mCheckerBoard.draw(mMVPMatrix);
-        mScene.draw(mMVPMatrix);
+        final int numViews = mViewports.size();
+        for (int i = 0; i < numViews; ++i) {
+            if (!Matrix4f.invert(mPickMatrices, i * 16, packet.getView(i).getViewProjectionMatrix(), 0)) {
+                Log.w(TAG, "view projection matrix of view " + i + " is singular");
+                return 0;
+            }
+        }
+
+        if (mPickRays.length < count) {
+            final Ray[] rays = new Ray[count];
+            System.arraycopy(mPickRays, 0, rays, 0, mPickRays.length);
+            for (int i = mPickRays.length; i < count; ++i) {
+                rays[i] = new Ray();
+            }
+            mPickRays = rays;
+            mPickPoints = new int[count];
+            mPickObjects = new int[count];
+        }
+
+        // rays of the points over a viewport
+        int numRays = 0;
+        for (int i = 0; i < count; ++i) {
+            final float x = points[i * 2];
+            final float y = points[i * 2 + 1];
+            for (int view = numViews - 1; view >= 0; --view) {
+                final Viewport viewport = mViewports.get(view);
+                if (viewport.contains(x, y)) {
+                    viewport.getRay(x, y, mPickMatrices, view * 16, mPickRays[numRays]);
+                    mPickPoints[numRays++] = i;
+                    break;
+                }
+            }
+        }
+
+        final int numHits = mScene.pick(mPickRays, numRays, mPickObjects);
+        for (int i = 0; i < numRays; ++i) {
+            objects[mPickPoints[i]] = mPickObjects[i];
+        }
+        return numHits;
+    }
+
+    /**
+     * @return the frustum of the main viewport used for culling in the last
+     * frame prepared, including its statistics (tested / visible / rejected
+     * objects)
+     */
+    public Frustum getFrustum() {
+        return mMainViewport.getFrustum();
+    }
+
+    public List<Viewport> getViewports() {
+        return mViewports;
     }
 
     @Override
     public void onSurfaceChanged(GL10 arg0, int width, int height) {
-        GLES20.glViewport(0, 0, width, height);
+        // a frame prepared ahead has the old aspect ratio
+        mPipeline.cancel();
 
-        mFreeCamera.setupProjection(75.0f, width / (float) height);
-        Matrix.multiplyMM(mMVPMatrix, 0, mFreeCamera.getProjectionMatrix(), 0,
-                mFreeCamera.getViewMatrix(), 0);
+        for (int i = 0; i < mViewports.size(); ++i) {
+            mViewports.get(i).setSurfaceSize(width, height);
+        }
+
+        mFreeCamera.setupProjection(75.0f, mMainViewport.getAspectRatio());
+        mOverviewCamera.setupProjection(45.0f, mOverviewViewport.getAspectRatio());
+        updateMVPMatrix();
     }
 
     @Override
     public void onSurfaceCreated(GL10 arg0, EGLConfig arg1) {
-        GLES20.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
-        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+        // a frame prepared ahead refers to GL objects of the previous context
+        mPipeline.cancel();
+
+        mGl.glEnable(GLES20.GL_DEPTH_TEST);
+        mGl.glEnable(GLES20.GL_SCISSOR_TEST);
+
+        // all GL objects and state of a previous context are gone
+        mStateCache.invalidate();
+        mShaderCache.invalidate();
+
+        mScene = createScene();
+        mCheckerBoard = new CheckerBoard(mGl, mShaderCache, 10, 1.0f);
+        mCheckerBoard.record(mCheckerBoardCommands.clear());
+        mCheckerBoardCommands.finish();
+        mMarkers = createMarkers(10, 1.0f);
+    }
+
+    private Scene createScene() {
+        if (mMeshFile != null && mMeshFile.exists()) {
+            try {
+                final MeshFile mesh = new MeshFile(mMeshFile);
+                if (mesh.getBytesPerIndex() != IndexBuffer.BYTES_PER_INT || IndexBuffer.isIntSupported(mGl)) {
+                    return new Scene(mGl, mShaderCache, mesh);
+                }
+                Log.w(TAG, mMeshFile + " has 32 bit indices, which the GL cannot draw, using the built in scene");
+            } catch (IOException e) {
+                Log.w(TAG, "could not load " + mMeshFile + ", using the built in scene", e);
+            }
+        }
+        return new Scene(mGl, mShaderCache);
+    }
+
+    /**
+     * Marks every grid point of the checker board with a small cross.
+     */
+    private InstancedMesh createMarkers(int numTilesPerSide, float tileLength) {
+        final float[] cross = {
+                -1, 0, 0,   1, 0, 0,
+                0, -1, 0,   0, 1, 0,
+                0, 0, -1,   0, 0, 1 };
+        final float[] color = { 0.9f, 0.6f, 0.1f, 1.0f };
+
+        final int numPoints = numTilesPerSide + 1;
+        final InstancedMesh markers = new InstancedMesh(mGl, mShaderCache, cross,
+                GLES20.GL_LINES, numPoints * numPoints);
+
+        final float start = -0.5f * numTilesPerSide * tileLength;
+        for (int i = 0; i < numPoints; ++i) {
+            for (int j = 0; j < numPoints; ++j) {
+                markers.add(start + i * tileLength, 0, start + j * tileLength, 0.05f, color);
+            }
+        }
+        return markers;
+    }
+
+    /**
+     * @return the state cache, counting issued and skipped state changes
+     */
+    public GlStateCache getStateCache() {
+        return mStateCache;
+    }
+
+    /**
+     * @return the per frame instrumentation, disabled by default. Use on the
+     * GL thread only.
+     */
+    public FrameStats getFrameStats() {
+        return mFrameStats;
+    }
+
+    public ShaderCache getShaderCache() {
+        return mShaderCache;
+    }
+
+    /**
+     * @return the input the camera is driven by, may be fed from any one thread
+     */
+    public CameraInput getCameraInput() {
+        return mCameraInput;
+    }
 
-        mScene = new Scene();
-        mCheckerBoard = new CheckerBoard(10, 1.0f);
+    public void setRenderModeListener(RenderModeListener listener) {
+        mRenderModeListener = listener;
     }
 
-    public void moveCamera(float walk, float strafe, float lift) {
-        mFreeCamera.walk(walk);
-        mFreeCamera.strafe(strafe);
-        mFreeCamera.lift(lift);
-        mFreeCamera.update();
+    /**
+     * Turns the input since the last frame into impulses and advances the
+     * camera motion in fixed time steps. The camera is rendered interpolated
+     * between the last two steps.
+     */
+    private void updateCamera() {
+        final long now = System.nanoTime();
 
-        Matrix.multiplyMM(mMVPMatrix, 0, mFreeCamera.getProjectionMatrix(), 0,
-                mFreeCamera.getViewMatrix(), 0);
+        if (mPlayer != null) {
+            // the input during playback is dropped, not applied when it ends
+            mCameraInput.drainReset();
+            mCameraInput.drain(mCameraDeltas);
+            updatePlayback(now);
+            return;
+        }
+
+        final float elapsedSeconds = mLastFrameNanos == 0 ? 0.0f : (now - mLastFrameNanos) * 1e-9f;
+        mLastFrameNanos = now;
+
+        if (mCameraInput.drainReset()) {
+            mCameraMotion.stop();
+            mFreeCamera.reset(new vec3(0, 0, 5), new vec3(0, 0, -1), new  vec3(0, 1, 0));
+        }
+
+        if (mCameraInput.drain(mCameraDeltas)) {
+            mCameraMotion.addImpulse(mCameraDeltas);
+        }
+
+        final int steps = mCameraMotion.advance(elapsedSeconds);
+        final float[] d = mCameraDeltas;
+
+        for (int i = 0; i < steps; ++i) {
+            mFreeCamera.storeState();
+
+            mCameraMotion.step(d);
+            mFreeCamera.walk(d[CameraInput.WALK]);
+            mFreeCamera.strafe(d[CameraInput.STRAFE]);
+            mFreeCamera.lift(d[CameraInput.LIFT]);
+            mFreeCamera.rotate(d[CameraInput.ROLL], d[CameraInput.PITCH], d[CameraInput.YAW]);
+            mFreeCamera.update();
+        }
+
+        updateMVPMatrix();
+
+        if (mRecorder != null) {
+            try {
+                mRecorder.record(now, mViewMatrix, mFreeCamera.getProjectionMatrix());
+            } catch (IOException e) {
+                Log.e(TAG, "recording failed", e);
+                endRecording();
+            }
+        }
+    }
+
+    private void setContinuousRendering(boolean continuous) {
+        if (continuous != mContinuousRendering) {
+            mContinuousRendering = continuous;
+            if (mRenderModeListener != null) {
+                mRenderModeListener.onContinuousRenderingChanged(continuous);
+            }
+        }
+    }
+
+    /**
+     * Updates the matrices of all viewports which changed. mViewMatrix
+     * becomes the view matrix the main viewport is drawn with.
+     */
+    private void updateMVPMatrix() {
+        if (mCameraMotion.isMoving()) {
+            // in between two steps
+            mFreeCamera.interpolateView(mCameraMotion.getAlpha(), mViewMatrix);
+            mMainViewport.setViewProjection(mFreeCamera.getProjectionMatrix(), mViewMatrix);
+        } else {
+            System.arraycopy(mFreeCamera.getViewMatrix(), 0, mViewMatrix, 0, 16);
+            mMainViewport.update();
+        }
+
+        mOverviewViewport.update();
     }
 
-    public void rotateCamera(float rollAngleDegree, float pitchAngleDegree, float yawAngleDegree) {
-        mFreeCamera.rotate(rollAngleDegree, pitchAngleDegree, yawAngleDegree);
-        mFreeCamera.update();
-        Matrix.multiplyMM(mMVPMatrix, 0, mFreeCamera.getProjectionMatrix(), 0,
-                mFreeCamera.getViewMatrix(), 0);
+    /**
+     * Starts recording the camera of every frame. Call on the GL thread.
+     */
+    public void startRecording(File file) throws IOException {
+        stopRecording();
+        mRecorder = new CameraRecorder(file);
     }
 
-    public void resetCamera() {
-        mFreeCamera.reset(new vec3(0, 0, 5), new vec3(0, 0, -1), new  vec3(0, 1, 0));
-        mFreeCamera.update();
+    /**
+     * Call on the GL thread.
+     */
+    public void stopRecording() {
+        mPipeline.sync();
+        endRecording();
+    }
+
+    private void endRecording() {
+        if (mRecorder == null) {
+            return;
+        }
+
+        try {
+            mRecorder.close();
+        } catch (IOException e) {
+            Log.e(TAG, "could not finish recording", e);
+        }
+        mRecorder = null;
+    }
+
+    /**
+     * Replays a recorded camera trace in real time instead of the camera
+     * input, until its end or {@link #stopPlayback()}. Call on the GL thread.
+     */
+    public void startPlayback(File file) throws IOException {
+        final CameraPlayer player = new CameraPlayer(file);
+
+        mPipeline.sync();
+        mPlayer = player;
+        mPlaybackOffsetNanos = mPlayer.getStartTime() - System.nanoTime();
+        setContinuousRendering(true);
+    }
+
+    /**
+     * Call on the GL thread.
+     */
+    public void stopPlayback() {
+        // drop a frame of the playback prepared ahead
+        mPipeline.cancel();
+        endPlayback();
+        updateMVPMatrix();
+    }
+
+    /**
+     * Returns to the camera input. The matrices are left as they are, so a
+     * playback reaching its end shows its last sample.
+     */
+    private void endPlayback() {
+        mPlayer = null;
+        mLastFrameNanos = 0;
+    }
+
+    private void updatePlayback(long now) {
+        final long time = now + mPlaybackOffsetNanos;
+
+        mPlayer.sample(time, mViewMatrix, mPlaybackProjectionMatrix);
+        mMainViewport.setViewProjection(mPlaybackProjectionMatrix, mViewMatrix);
+        mOverviewViewport.update();
 
-        Matrix.multiplyMM(mMVPMatrix, 0, mFreeCamera.getProjectionMatrix(), 0,
-                mFreeCamera.getViewMatrix(), 0);
+        if (time >= mPlayer.getEndTime()) {
+            endPlayback();
+        }
     }
 }
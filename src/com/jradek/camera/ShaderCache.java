@@ -0,0 +1,294 @@
+package com.jradek.camera;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+/**
+ * Compiles and links shader programs once per GL context. Programs are
+ * keyed by a hash of their sources, so drawables using the same sources
+ * share one program.
+ *
+ * On GLES3 contexts linked program binaries are additionally written to a
+ * directory, so the next context (or the next start of the app) can skip
+ * compiling. Binaries are tied to the driver, which is why its renderer and
+ * version strings are part of the key.
+ */
+public class ShaderCache {
+    private static final String TAG = "ShaderCache";
+    private static final String BINARY_SUFFIX = ".program";
+
+    private final GlApi mGl;
+    private final File mBinaryDirectory;
+
+    private final HashMap<String, ShaderProgram> mPrograms = new HashMap<String, ShaderProgram>();
+    private String mDriverId = null;
+
+    private final int[] mHelpInts = new int[2];
+
+    // statistics since the last invalidate
+    private long mCompileTimeNanos = 0;
+    private int mNumCompiled = 0;
+    private int mNumLoadedBinaries = 0;
+    private int mNumCacheHits = 0;
+    private String mLastError = null;
+
+    /**
+     * @param gl the GL to use
+     * @param binaryDirectory where to persist program binaries, null to disable
+     */
+    public ShaderCache(GlApi gl, File binaryDirectory) {
+        mGl = gl;
+        mBinaryDirectory = binaryDirectory;
+    }
+
+    /**
+     * Forgets all programs. Has to be called when the GL context was
+     * (re)created, because all handles are invalid then.
+     */
+    public void invalidate() {
+        mPrograms.clear();
+        mDriverId = null;
+
+        mCompileTimeNanos = 0;
+        mNumCompiled = 0;
+        mNumLoadedBinaries = 0;
+        mNumCacheHits = 0;
+        mLastError = null;
+    }
+
+    /**
+     * Returns the program for the given sources, compiling it if necessary.
+     * @throws RuntimeException if compiling or linking fails
+     */
+    public ShaderProgram getProgram(String vertexShaderCode, String fragmentShaderCode) {
+        final String key = hash(vertexShaderCode + '\0' + fragmentShaderCode);
+
+        ShaderProgram program = mPrograms.get(key);
+        if (program != null) {
+            ++mNumCacheHits;
+            return program;
+        }
+
+        final long start = System.nanoTime();
+
+        int handle = loadBinary(key);
+        if (handle != 0) {
+            ++mNumLoadedBinaries;
+        } else {
+            handle = compile(vertexShaderCode, fragmentShaderCode);
+            ++mNumCompiled;
+            saveBinary(key, handle);
+        }
+
+        final long duration = System.nanoTime() - start;
+        mCompileTimeNanos += duration;
+        Log.i(TAG, "program " + key + " ready after " + (duration / 1000) + " us");
+
+        program = new ShaderProgram(mGl, handle, key, mPrograms.size() + 1);
+        mPrograms.put(key, program);
+        return program;
+    }
+
+    /**
+     * @return time spent compiling, linking and loading binaries
+     */
+    public long getCompileTimeNanos() {
+        return mCompileTimeNanos;
+    }
+
+    public int getCompiledCount() {
+        return mNumCompiled;
+    }
+
+    public int getLoadedBinaryCount() {
+        return mNumLoadedBinaries;
+    }
+
+    public int getCacheHitCount() {
+        return mNumCacheHits;
+    }
+
+    /**
+     * @return info log of the last failed compile, link or binary load, or null
+     */
+    public String getLastError() {
+        return mLastError;
+    }
+
+    private int compile(String vertexShaderCode, String fragmentShaderCode) {
+        final int vertexShader = Util.loadShader(mGl, GLES20.GL_VERTEX_SHADER, vertexShaderCode);
+        checkShader(vertexShader);
+        final int fragmentShader = Util.loadShader(mGl, GLES20.GL_FRAGMENT_SHADER, fragmentShaderCode);
+        checkShader(fragmentShader);
+
+        final int program = mGl.glCreateProgram();
+        mGl.glAttachShader(program, vertexShader);
+        mGl.glAttachShader(program, fragmentShader);
+
+        if (hasBinarySupport()) {
+            mGl.glProgramParameteri(program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+        }
+
+        mGl.glLinkProgram(program);
+
+        // the program keeps the shaders alive as long as needed
+        mGl.glDeleteShader(vertexShader);
+        mGl.glDeleteShader(fragmentShader);
+
+        mGl.glGetProgramiv(program, GLES20.GL_LINK_STATUS, mHelpInts, 0);
+        if (mHelpInts[0] != GLES20.GL_TRUE) {
+            mLastError = mGl.glGetProgramInfoLog(program);
+            mGl.glDeleteProgram(program);
+            Log.e(TAG, "linking failed: " + mLastError);
+            throw new RuntimeException("linking shader program failed: " + mLastError);
+        }
+
+        return program;
+    }
+
+    private void checkShader(int shader) {
+        mGl.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, mHelpInts, 0);
+
+        if (mHelpInts[0] != GLES20.GL_TRUE) {
+            mLastError = mGl.glGetShaderInfoLog(shader);
+            mGl.glDeleteShader(shader);
+            Log.e(TAG, "compiling failed: " + mLastError);
+            throw new RuntimeException("compiling shader failed: " + mLastError);
+        }
+    }
+
+    private boolean hasBinarySupport() {
+        return mBinaryDirectory != null && mGl.getMajorVersion() >= 3;
+    }
+
+    private File getBinaryFile(String key) {
+        if (mDriverId == null) {
+            mDriverId = hash(mGl.glGetString(GLES20.GL_RENDERER) + '\0' + mGl.glGetString(GLES20.GL_VERSION));
+        }
+        return new File(mBinaryDirectory, key + "_" + mDriverId + BINARY_SUFFIX);
+    }
+
+    /**
+     * @return handle of the linked program, or 0 if there is no usable binary
+     */
+    private int loadBinary(String key) {
+        if (!hasBinarySupport()) {
+            return 0;
+        }
+
+        final File file = getBinaryFile(key);
+        if (!file.exists()) {
+            return 0;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            final int format = in.readInt();
+            final int length = in.readInt();
+            // a truncated or corrupt file must not allocate whatever it says
+            if (length <= 0 || length != file.length() - 8) {
+                throw new IOException("binary of " + length + " bytes in a file of " + file.length());
+            }
+            final byte[] data = new byte[length];
+            in.readFully(data);
+
+            final ByteBuffer binary = ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+            binary.put(data).position(0);
+
+            final int program = mGl.glCreateProgram();
+            mGl.glProgramBinary(program, format, binary, length);
+
+            mGl.glGetProgramiv(program, GLES20.GL_LINK_STATUS, mHelpInts, 0);
+            if (mHelpInts[0] == GLES20.GL_TRUE) {
+                return program;
+            }
+
+            // e.g. after a driver update, which should have changed the key anyway
+            mLastError = mGl.glGetProgramInfoLog(program);
+            Log.w(TAG, "rejected program binary " + file + ": " + mLastError);
+            mGl.glDeleteProgram(program);
+        } catch (IOException e) {
+            Log.w(TAG, "could not read program binary " + file, e);
+        } finally {
+            close(in);
+        }
+
+        file.delete();
+        return 0;
+    }
+
+    private void saveBinary(String key, int program) {
+        if (!hasBinarySupport()) {
+            return;
+        }
+
+        mGl.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, mHelpInts, 0);
+        final int length = mHelpInts[0];
+        if (length <= 0) {
+            return;
+        }
+
+        final ByteBuffer binary = ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+        mGl.glGetProgramBinary(program, length, mHelpInts, 0, mHelpInts, 1, binary);
+
+        final byte[] data = new byte[mHelpInts[0]];
+        binary.position(0);
+        binary.get(data);
+
+        final File file = getBinaryFile(key);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(file));
+            out.writeInt(mHelpInts[1]);
+            out.writeInt(data.length);
+            out.write(data);
+        } catch (IOException e) {
+            Log.w(TAG, "could not write program binary " + file, e);
+            file.delete();
+        } finally {
+            close(out);
+        }
+    }
+
+    private static void close(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // nothing left to do
+            }
+        }
+    }
+
+    private static String hash(String text) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            final byte[] bytes = digest.digest(text.getBytes("UTF-8"));
+
+            final StringBuilder result = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                result.append(Character.forDigit((b >> 4) & 0xf, 16));
+                result.append(Character.forDigit(b & 0xf, 16));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.jradek.camera;
+
+import java.util.HashMap;
+
+/**
+ * A linked shader program as handed out by {@link ShaderCache}. Uniform and
+ * attribute locations are looked up once and cached.
+ *
+ * The locations of uMVPMatrix, uColor and aPosition, which a
+ * {@link RenderQueue} draws with, are looked up right away, so draws can be
+ * recorded without the GL.
+ */
+public class ShaderProgram {
+    private final GlApi mGl;
+    private final int mHandle;
+    private final String mKey;
+    private final int mId;
+
+    private final int mMVPMatrixLocation;
+    private final int mColorLocation;
+    private final int mPositionLocation;
+
+    private final HashMap<String, Integer> mUniformLocations = new HashMap<String, Integer>();
+    private final HashMap<String, Integer> mAttribLocations = new HashMap<String, Integer>();
+
+    ShaderProgram(GlApi gl, int handle, String key, int id) {
+        mGl = gl;
+        mHandle = handle;
+        mKey = key;
+        mId = id;
+
+        mMVPMatrixLocation = getUniformLocation("uMVPMatrix");
+        mColorLocation = getUniformLocation("uColor");
+        mPositionLocation = getAttribLocation("aPosition");
+    }
+
+    public int getHandle() {
+        return mHandle;
+    }
+
+    /**
+     * @return hash of the shader sources identifying this program
+     */
+    public String getKey() {
+        return mKey;
+    }
+
+    /**
+     * @return small number unique within the cache, e.g. for sort keys
+     */
+    public int getId() {
+        return mId;
+    }
+
+    /**
+     * @return location of uMVPMatrix, -1 if the program has none. Can be
+     * called on any thread.
+     */
+    public int getMVPMatrixLocation() {
+        return mMVPMatrixLocation;
+    }
+
+    /**
+     * @return location of uColor, -1 if the program has none. Can be called
+     * on any thread.
+     */
+    public int getColorLocation() {
+        return mColorLocation;
+    }
+
+    /**
+     * @return location of aPosition, -1 if the program has none. Can be
+     * called on any thread.
+     */
+    public int getPositionLocation() {
+        return mPositionLocation;
+    }
+
+    public void use() {
+        mGl.glUseProgram(mHandle);
+    }
+
+    /**
+     * Looks up a uniform location, asking the GL the first time. Call on
+     * the GL thread.
+     */
+    public int getUniformLocation(String name) {
+        Integer location = mUniformLocations.get(name);
+
+        if (location == null) {
+            location = mGl.glGetUniformLocation(mHandle, name);
+            mUniformLocations.put(name, location);
+        }
+        return location;
+    }
+
+    /**
+     * Looks up an attribute location, asking the GL the first time. Call on
+     * the GL thread.
+     */
+    public int getAttribLocation(String name) {
+        Integer location = mAttribLocations.get(name);
+
+        if (location == null) {
+            location = mGl.glGetAttribLocation(mHandle, name);
+            mAttribLocations.put(name, location);
+        }
+        return location;
+    }
+}
@@ -1,40 +1,60 @@
 package com.jradek.camera;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.opengl.GLSurfaceView;
+import android.os.Build;
 import android.view.View;
 
 
-public class SurfaceView extends GLSurfaceView {
+public class SurfaceView extends GLSurfaceView implements SceneRenderer.RenderModeListener {
     private final SceneRenderer mRenderer;
+    private final CameraInput mCameraInput;
 
     public SurfaceView(Context context) {
         super(context);
 
-        // Create an OpenGL ES 2.0 context.
-        setEGLContextClientVersion(2);
+        // Create an OpenGL ES 3.0 context if available, 2.0 otherwise.
+        final int glVersion = getSupportedGlVersion(context);
+        setEGLContextClientVersion(glVersion);
 
         // extra
         setEGLConfigChooser(8, 8, 8, 8, 16, 0);
 
         // Set the Renderer for drawing on the GLSurfaceView
-        mRenderer = new SceneRenderer(context);
+        mRenderer = new SceneRenderer(context, new AndroidGl(glVersion));
+        mCameraInput = mRenderer.getCameraInput();
+        mRenderer.setRenderModeListener(this);
         setRenderer(mRenderer);
 
-        // Render the view only when there is a change in the drawing data
+        // Render the view only when there is a change in the drawing data,
+        // the renderer switches to continuous rendering while the camera moves
         setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
     }
 
+    @Override
+    public void onContinuousRenderingChanged(boolean continuous) {
+        setRenderMode(continuous ? GLSurfaceView.RENDERMODE_CONTINUOUSLY
+                : GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+    }
+
+    private static int getSupportedGlVersion(Context context) {
+        // GLES30 bindings are available since API 18
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return 2;
+        }
+
+        final ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+
+        return activityManager.getDeviceConfigurationInfo().reqGlEsVersion >= 0x30000 ? 3 : 2;
+    }
+
     public void onClick(View v, Util.Modus mode) {
         int id = v.getId();
 
         if (id == R.id.button_reset) {
-            queueEvent(new Runnable() {
-                @Override
-                public void run() {
-                    mRenderer.resetCamera();
-                }
-            });
+            mCameraInput.reset();
 
             requestRender();
         }
@@ -81,16 +101,7 @@ public class SurfaceView extends GLSurfaceView {
                 break;
         };
 
-        final float argLift = lift;
-        final float argWalk = walk;
-        final float argStrafe = strafe;
-
-        queueEvent(new Runnable() {
-            @Override
-            public void run() {
-                mRenderer.moveCamera(argWalk, argStrafe, argLift);
-            }
-        });
+        mCameraInput.move(walk, strafe, lift);
 
         requestRender();
     }
@@ -122,16 +133,7 @@ public class SurfaceView extends GLSurfaceView {
                 break;
         }
 
-        final float argRoll = rollDegree;
-        final float argPitch = pitchDegree;
-        final float argYaw = yawDegree;
-
-        queueEvent(new Runnable() {
-            @Override
-            public void run() {
-                mRenderer.rotateCamera(argRoll, argPitch, argYaw);
-            }
-        });
+        mCameraInput.rotate(rollDegree, pitchDegree, yawDegree);
 
         requestRender();
     }
@@ -1,7 +1,5 @@
 package com.jradek.camera;
 
-import android.opengl.Matrix;
-
 /**
  * Special camera which focuses on a specific target.
  */
@@ -14,7 +12,8 @@ public class TargetCamera extends Camera {
     private double mDistance = 0.0;
 
     /**
-     * inclination between y-Axis and x-z-plane. 0 degree is on y-Axis
+     * inclination of the look direction against the y-Axis, i.e. 0 degree
+     * looks straight up and 180 degree straight down
      */
     private float mInclinationDegree = 0.0f;
 
@@ -23,8 +22,31 @@ public class TargetCamera extends Camera {
      */
     private float mAzimuthDegree = 0.0f;
 
-    private final float[] mHelpMatrix = new float[16];
-    private final float[] mHelpVectors = new float[16];
+    /**
+     * sin/cos of azimuth and of (90 degree - inclination), recomputed only
+     * when the corresponding angle changes
+     */
+    private float mCachedAzimuthDegree = Float.NaN;
+    private double mSinAzimuth;
+    private double mCosAzimuth;
+
+    private float mCachedInclinationDegree = Float.NaN;
+    private double mSinElevation;
+    private double mCosElevation;
+
+    /** set by every change, cleared by update */
+    private boolean mChanged = true;
+
+    // state before the last time step and scratch for interpolating
+    private final vec3 mPreviousTarget = new vec3(0, 0, 0);
+    private double mPreviousDistance;
+    private float mPreviousInclinationDegree;
+    private float mPreviousAzimuthDegree;
+    private final vec3 mHelpTarget = new vec3(0, 0, 0);
+    private final vec3 mHelpPosition = new vec3(0, 0, 0);
+    private final vec3 mHelpRight = new vec3(0, 0, 0);
+    private final vec3 mHelpUp = new vec3(0, 0, 0);
+    private final vec3 mHelpLook = new vec3(0, 0, 0);
 
     /**
      * Constructs the camera
@@ -32,6 +54,7 @@ public class TargetCamera extends Camera {
      * @param target the target to look at
      */
     public TargetCamera(final vec3 position, final vec3 target) {
+        mPosition = new vec3(0,0,0);
         mLook = new vec3(0,0,-1);
         mUp = new vec3(0,1,0);
         mRight = mLook.cross(mUp).normalize();
@@ -39,19 +62,23 @@ public class TargetCamera extends Camera {
     }
 
     public void reset(final vec3 position, final vec3 target) {
-        mPosition = position.clone();
+        mPosition.x = position.x;
+        mPosition.y = position.y;
+        mPosition.z = position.z;
         setTarget(target);
         update();
+        storeState();
     }
 
     public void setTarget(final vec3 target) {
+        mChanged = true;
         mTarget = target.clone();
 
         // calculate inclination and azimuth using mTarget
         // as origin of reference coordinate system
         vec3 tmpPos = mPosition.clone().substract(mTarget);
         mDistance = tmpPos.length();
-        mInclinationDegree = (float)(Math.acos(tmpPos.y / mDistance) * 180.0 / Math.PI);
+        mInclinationDegree = (float)(Math.acos(-tmpPos.y / mDistance) * 180.0 / Math.PI);
         mAzimuthDegree = (float)(Math.atan2(tmpPos.x, tmpPos.z) * 180.0 / Math.PI);
         mAzimuthDegree += 270;
     }
@@ -63,11 +90,9 @@ public class TargetCamera extends Camera {
      * @param deltaUp The displacement by which to pan up
      */
     public void pan(float deltaRight, float deltaUp) {
-        final vec3 x = mRight.clone().scale(deltaRight);
-        final vec3 y = mUp.clone().scale(deltaUp);
-
-        mPosition.add(x).add(y);
-        mTarget.add(x).add(y);
+        mChanged = true;
+        mPosition.addScaled(mRight, deltaRight).addScaled(mUp, deltaUp);
+        mTarget.addScaled(mRight, deltaRight).addScaled(mUp, deltaUp);
     }
 
     /**
@@ -77,11 +102,9 @@ public class TargetCamera extends Camera {
      * @param deltaLook The displacement by which to move to look
      */
     public void move(float deltaRight, float deltaLook) {
-        final vec3 x = mRight.clone().scale(deltaRight);
-        final vec3 y = mLook.clone().scale(deltaLook);
-
-        mPosition.add(x).add(y);
-        mTarget.add(x).add(y);
+        mChanged = true;
+        mPosition.addScaled(mRight, deltaRight).addScaled(mLook, deltaLook);
+        mTarget.addScaled(mRight, deltaRight).addScaled(mLook, deltaLook);
     }
 
     /**
@@ -89,6 +112,7 @@ public class TargetCamera extends Camera {
      * @param amount The displacement by which to move to target
      */
     public void zoom(float amount) {
+        mChanged = true;
         mPosition.addScaled(mLook, amount);
         mDistance = vec3.distance(mPosition, mTarget);
 
@@ -104,63 +128,97 @@ public class TargetCamera extends Camera {
      * @param deltaInclinationDegree delta angle for inclination in degree
      */
     public void rotate(float deltaAzimuthDegree, float deltaInclinationDegree) {
+        mChanged = true;
         mAzimuthDegree += deltaAzimuthDegree;
         mInclinationDegree += deltaInclinationDegree;
     }
 
     @Override
     public void update() {
-        // rotate position, up-vector according to azimuth and inclination
-
-        // position helper
-        mHelpVectors[0 + 0] = (float)mDistance;
-        mHelpVectors[0 + 1] = 0;
-        mHelpVectors[0 + 2] = 0;
-        mHelpVectors[0 + 3] = 0;
-
-        // rotation axis helper, used later as reference for inclination
-        mHelpVectors[4 + 0] = 0;
-        mHelpVectors[4 + 1] = 0;
-        mHelpVectors[4 + 2] = -1.0f;
-        mHelpVectors[4 + 3] = 0;
-
-        // step 1: azimuth rotation around y-Axis. DOES NOT affect mUp, because
-        // mUp points to the same direction
-        Matrix.setRotateM(mHelpMatrix, 0, mAzimuthDegree, 0, 1, 0);
-
-        // rotate position
-        Matrix.multiplyMV(mHelpVectors, 8, mHelpMatrix, 0, mHelpVectors, 0);
-        // rotate axis
-        Matrix.multiplyMV(mHelpVectors, 12, mHelpMatrix, 0, mHelpVectors, 4);
-
-        // step 2: inclination rotation around help axis
-        mUp.x = 0;
-        mUp.y = 1;
-        mUp.z = 0;
-
-        // ATTENTION: inclination is measured against y-axis, i.e. 0 degree is on y-Axis
-        Matrix.setRotateM(mHelpMatrix, 0, 90f - mInclinationDegree,
-                mHelpVectors[12 + 0], mHelpVectors[12 + 1], mHelpVectors[12 + 2]);
-
-        // rotate position
-        Matrix.multiplyMV(mHelpVectors, 0, mHelpMatrix, 0, mHelpVectors, 8);
-        // rotate up
-        rotateVector(mUp, mHelpMatrix);
-
-        mPosition.x = mHelpVectors[0 + 0];
-        mPosition.y = mHelpVectors[0 + 1];
-        mPosition.z = mHelpVectors[0 + 2];
-
-        // move to target
-        mPosition.add(mTarget);
-
-        // determine mLook and setup mRight
-        mLook = mTarget.clone().substract(mPosition).normalize();
-        mRight = mLook.cross(mUp).normalize();
+        if (!mChanged) {
+            // keep view matrix and version
+            return;
+        }
+        mChanged = false;
+
+        // Position and up-vector result from rotating (distance, 0, 0) and
+        // (0, 1, 0) first by azimuth around the y-axis, then by the elevation
+        // (90 degree - inclination) around the rotated (0, 0, -1) axis.
+        // Both rotations are expanded in closed form in setPose.
+        updateAngleCache();
+
+        setPose(mSinAzimuth, mCosAzimuth, mSinElevation, mCosElevation, mTarget, mDistance,
+                mRight, mUp, mLook, mPosition);
+        updateViewMatrix();
+    }
+
+    /**
+     * Computes the axes and position for the given angles, target and distance.
+     */
+    private static void setPose(double sa, double ca, double se, double ce,
+            final vec3 target, double distance, vec3 right, vec3 up, vec3 look, vec3 position) {
+        // look points from the camera to the target
+        look.x = -ca * ce;
+        look.y = se;
+        look.z = sa * ce;
+
+        up.x = ca * se;
+        up.y = ce;
+        up.z = -sa * se;
+
+        // look x up
+        right.x = -sa;
+        right.y = 0;
+        right.z = -ca;
+
+        position.x = target.x - distance * look.x;
+        position.y = target.y - distance * look.y;
+        position.z = target.z - distance * look.z;
+    }
+
+    @Override
+    public void storeState() {
+        mPreviousTarget.x = mTarget.x;
+        mPreviousTarget.y = mTarget.y;
+        mPreviousTarget.z = mTarget.z;
+        mPreviousDistance = mDistance;
+        mPreviousInclinationDegree = mInclinationDegree;
+        mPreviousAzimuthDegree = mAzimuthDegree;
+    }
+
+    @Override
+    public void interpolateView(float alpha, float[] viewMatrix) {
+        // angles are interpolated linearly, the steps between two states are small
+        final double toRadian = Math.PI / 180.0;
+        final double azimuth = (mPreviousAzimuthDegree
+                + alpha * (mAzimuthDegree - mPreviousAzimuthDegree)) * toRadian;
+        final double elevation = (90.0 - (mPreviousInclinationDegree
+                + alpha * (mInclinationDegree - mPreviousInclinationDegree))) * toRadian;
+        final double distance = mPreviousDistance + alpha * (mDistance - mPreviousDistance);
+
+        mHelpTarget.x = mPreviousTarget.x + alpha * (mTarget.x - mPreviousTarget.x);
+        mHelpTarget.y = mPreviousTarget.y + alpha * (mTarget.y - mPreviousTarget.y);
+        mHelpTarget.z = mPreviousTarget.z + alpha * (mTarget.z - mPreviousTarget.z);
+
+        setPose(Math.sin(azimuth), Math.cos(azimuth), Math.sin(elevation), Math.cos(elevation),
+                mHelpTarget, distance, mHelpRight, mHelpUp, mHelpLook, mHelpPosition);
+        setViewMatrix(viewMatrix, mHelpRight, mHelpUp, mHelpLook, mHelpPosition);
+    }
 
-        Matrix.setLookAtM(mViewMatrix, 0,
-                (float)mPosition.x, (float)mPosition.y, (float)mPosition.z,
-                (float)(mPosition.x + mLook.x), (float)(mPosition.y + mLook.y), (float)(mPosition.z + mLook.z),
-                (float)mUp.x, (float)mUp.y, (float)mUp.z);
+    private void updateAngleCache() {
+        final double toRadian = Math.PI / 180.0;
+
+        if (mAzimuthDegree != mCachedAzimuthDegree) {
+            mCachedAzimuthDegree = mAzimuthDegree;
+            mSinAzimuth = Math.sin(mAzimuthDegree * toRadian);
+            mCosAzimuth = Math.cos(mAzimuthDegree * toRadian);
+        }
+
+        if (mInclinationDegree != mCachedInclinationDegree) {
+            mCachedInclinationDegree = mInclinationDegree;
+            // ATTENTION: inclination is measured against y-axis, i.e. 0 degree is on y-Axis
+            mSinElevation = Math.sin((90.0 - mInclinationDegree) * toRadian);
+            mCosElevation = Math.cos((90.0 - mInclinationDegree) * toRadian);
+        }
     }
 }
@@ -0,0 +1,104 @@
+package com.jradek.camera;
+
+/**
+ * Triangles of one object for picking, indexed by a {@link Bvh} over the
+ * triangle bounds. Rays are tested against both sides of a triangle with
+ * the Moeller-Trumbore algorithm. Free of GL, so it runs headless.
+ *
+ * Not thread safe, as tracing uses a stack of the instance.
+ */
+public class TriangleBvh implements Bvh.RayIntersector {
+    private final float[] mPositions;
+    private final int[] mIndices;
+    private final int mFirst;
+    private final int mNumTriangles;
+
+    private final Bvh mBvh = new Bvh();
+    private final int[] mStack;
+
+    /**
+     * @param positions x, y, z per vertex, not copied
+     * @param indices triangle indices, not copied
+     * @param first first index of the triangles
+     * @param count number of indices
+     */
+    public TriangleBvh(final float[] positions, final int[] indices, int first, int count) {
+        mPositions = positions;
+        mIndices = indices;
+        mFirst = first;
+        mNumTriangles = count / 3;
+
+        final float[] boxes = new float[mNumTriangles * Bvh.BOX_STRIDE];
+        for (int t = 0; t < mNumTriangles; ++t) {
+            final int o = t * Bvh.BOX_STRIDE;
+            for (int axis = 0; axis < 3; ++axis) {
+                final float a = positions[indices[first + t * 3] * 3 + axis];
+                final float b = positions[indices[first + t * 3 + 1] * 3 + axis];
+                final float c = positions[indices[first + t * 3 + 2] * 3 + axis];
+                boxes[o + axis] = Math.min(a, Math.min(b, c));
+                boxes[o + 3 + axis] = Math.max(a, Math.max(b, c));
+            }
+        }
+
+        mBvh.build(boxes, mNumTriangles);
+        mStack = new int[mBvh.getRayStackSize()];
+    }
+
+    public int getTriangleCount() {
+        return mNumTriangles;
+    }
+
+    /**
+     * Finds the triangle a ray hits first.
+     * @param ray the ray, its max distance becomes the distance of the hit
+     * @return index of the triangle, relative to the first index, -1 if none
+     */
+    public int raycast(Ray ray) {
+        return mBvh.raycast(ray, this, mStack);
+    }
+
+    @Override
+    public boolean intersect(int triangle, Ray ray) {
+        final int i = mFirst + triangle * 3;
+        final int a = mIndices[i] * 3;
+        final int b = mIndices[i + 1] * 3;
+        final int c = mIndices[i + 2] * 3;
+        final float[] p = mPositions;
+
+        final float e1x = p[b] - p[a], e1y = p[b + 1] - p[a + 1], e1z = p[b + 2] - p[a + 2];
+        final float e2x = p[c] - p[a], e2y = p[c + 1] - p[a + 1], e2z = p[c + 2] - p[a + 2];
+
+        // direction x e2
+        final float px = ray.directionY * e2z - ray.directionZ * e2y;
+        final float py = ray.directionZ * e2x - ray.directionX * e2z;
+        final float pz = ray.directionX * e2y - ray.directionY * e2x;
+        final float det = e1x * px + e1y * py + e1z * pz;
+        if (det == 0.0f) {
+            // parallel to the triangle
+            return false;
+        }
+        final float invDet = 1.0f / det;
+
+        final float tx = ray.originX - p[a], ty = ray.originY - p[a + 1], tz = ray.originZ - p[a + 2];
+        final float u = (tx * px + ty * py + tz * pz) * invDet;
+        if (u < 0.0f || u > 1.0f) {
+            return false;
+        }
+
+        // t x e1
+        final float qx = ty * e1z - tz * e1y;
+        final float qy = tz * e1x - tx * e1z;
+        final float qz = tx * e1y - ty * e1x;
+        final float v = (ray.directionX * qx + ray.directionY * qy + ray.directionZ * qz) * invDet;
+        if (v < 0.0f || u + v > 1.0f) {
+            return false;
+        }
+
+        final float distance = (e2x * qx + e2y * qy + e2z * qz) * invDet;
+        if (distance < 0.0f || distance >= ray.maxDistance) {
+            return false;
+        }
+        ray.maxDistance = distance;
+        return true;
+    }
+}
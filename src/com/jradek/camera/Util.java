@@ -1,7 +1,5 @@
 package com.jradek.camera;
 
-import android.opengl.GLES20;
-
 public class Util {
     public enum Modus {
         Movement,
@@ -13,11 +11,11 @@ public class Util {
     private Util() {
     }
 
-    static int loadShader(int type, String shaderCode){
-        int shader = GLES20.glCreateShader(type);
+    static int loadShader(GlApi gl, int type, String shaderCode){
+        int shader = gl.glCreateShader(type);
 
-        GLES20.glShaderSource(shader, shaderCode);
-        GLES20.glCompileShader(shader);
+        gl.glShaderSource(shader, shaderCode);
+        gl.glCompileShader(shader);
 
         return shader;
     }
@@ -0,0 +1,254 @@
+package com.jradek.camera;
+
+import java.nio.FloatBuffer;
+
+/**
+ * A packed array of 3D vectors. Components are stored interleaved
+ * (x0, y0, z0, x1, y1, z1, ...) in a single float array, so the data can be
+ * handed to a {@link FloatBuffer} without any conversion.
+ *
+ * All bulk operations work in place and do not allocate. Binary operations
+ * require both arrays to have the same size.
+ */
+public class Vec3Array {
+    static final int COMPONENTS = 3;
+
+    private final float[] mData;
+    private final int mSize;
+
+    /**
+     * Creates an array of vectors, all set to zero.
+     * @param size number of vectors
+     */
+    public Vec3Array(int size) {
+        mSize = size;
+        mData = new float[size * COMPONENTS];
+    }
+
+    /**
+     * Creates an array of vectors holding a copy of the given vectors.
+     * @param vectors the source vectors
+     */
+    public Vec3Array(final vec3[] vectors) {
+        this(vectors.length);
+
+        for (int i = 0; i < mSize; ++i) {
+            set(i, vectors[i]);
+        }
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return the backing array, laid out as x, y, z per vector
+     */
+    public float[] getData() {
+        return mData;
+    }
+
+    public float getX(int index) {
+        return mData[index * COMPONENTS + 0];
+    }
+
+    public float getY(int index) {
+        return mData[index * COMPONENTS + 1];
+    }
+
+    public float getZ(int index) {
+        return mData[index * COMPONENTS + 2];
+    }
+
+    public Vec3Array set(int index, float x, float y, float z) {
+        final int i = index * COMPONENTS;
+        mData[i + 0] = x;
+        mData[i + 1] = y;
+        mData[i + 2] = z;
+        return this;
+    }
+
+    public Vec3Array set(int index, final vec3 v) {
+        return set(index, (float)v.x, (float)v.y, (float)v.z);
+    }
+
+    /**
+     * Copies a single vector into an existing {@link vec3}.
+     * @param index index of the vector
+     * @param dest receives the vector
+     * @return dest
+     */
+    public vec3 get(int index, vec3 dest) {
+        final int i = index * COMPONENTS;
+        dest.x = mData[i + 0];
+        dest.y = mData[i + 1];
+        dest.z = mData[i + 2];
+        return dest;
+    }
+
+    /**
+     * @return a new {@link vec3} for every element
+     */
+    public vec3[] toVec3() {
+        final vec3[] result = new vec3[mSize];
+
+        for (int i = 0; i < mSize; ++i) {
+            result[i] = get(i, new vec3(0, 0, 0));
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes all vectors to the buffer at its current position.
+     * @param dest buffer with at least 3 * size() remaining floats
+     */
+    public void writeTo(FloatBuffer dest) {
+        dest.put(mData, 0, mSize * COMPONENTS);
+    }
+
+    public Vec3Array add(final Vec3Array other) {
+        final float[] src = other.mData;
+        for (int i = 0, n = mSize * COMPONENTS; i < n; ++i) {
+            mData[i] += src[i];
+        }
+        return this;
+    }
+
+    /**
+     * Adds the same vector to every element.
+     */
+    public Vec3Array add(float x, float y, float z) {
+        for (int i = 0, n = mSize * COMPONENTS; i < n; i += COMPONENTS) {
+            mData[i + 0] += x;
+            mData[i + 1] += y;
+            mData[i + 2] += z;
+        }
+        return this;
+    }
+
+    public Vec3Array substract(final Vec3Array other) {
+        final float[] src = other.mData;
+        for (int i = 0, n = mSize * COMPONENTS; i < n; ++i) {
+            mData[i] -= src[i];
+        }
+        return this;
+    }
+
+    public Vec3Array addScaled(final Vec3Array other, float scale) {
+        final float[] src = other.mData;
+        for (int i = 0, n = mSize * COMPONENTS; i < n; ++i) {
+            mData[i] += src[i] * scale;
+        }
+        return this;
+    }
+
+    public Vec3Array scale(float factor) {
+        for (int i = 0, n = mSize * COMPONENTS; i < n; ++i) {
+            mData[i] *= factor;
+        }
+        return this;
+    }
+
+    /**
+     * Stores the element wise cross product lhs x rhs. This array may be
+     * one of the operands.
+     */
+    public Vec3Array cross(final Vec3Array lhs, final Vec3Array rhs) {
+        final float[] a = lhs.mData;
+        final float[] b = rhs.mData;
+
+        for (int i = 0, n = mSize * COMPONENTS; i < n; i += COMPONENTS) {
+            final float ax = a[i + 0], ay = a[i + 1], az = a[i + 2];
+            final float bx = b[i + 0], by = b[i + 1], bz = b[i + 2];
+
+            mData[i + 0] = ay*bz - az*by;
+            mData[i + 1] = az*bx - ax*bz;
+            mData[i + 2] = ax*by - ay*bx;
+        }
+        return this;
+    }
+
+    /**
+     * Element wise dot product.
+     * @param other the other operand
+     * @param dest receives size() results
+     */
+    public void dot(final Vec3Array other, float[] dest) {
+        final float[] b = other.mData;
+
+        for (int v = 0, i = 0; v < mSize; ++v, i += COMPONENTS) {
+            dest[v] = mData[i]*b[i] + mData[i + 1]*b[i + 1] + mData[i + 2]*b[i + 2];
+        }
+    }
+
+    /**
+     * Element wise distance.
+     * @param other the other operand
+     * @param dest receives size() results
+     */
+    public void distance(final Vec3Array other, float[] dest) {
+        final float[] b = other.mData;
+
+        for (int v = 0, i = 0; v < mSize; ++v, i += COMPONENTS) {
+            final float dx = mData[i + 0] - b[i + 0];
+            final float dy = mData[i + 1] - b[i + 1];
+            final float dz = mData[i + 2] - b[i + 2];
+
+            dest[v] = (float)Math.sqrt(dx*dx + dy*dy + dz*dz);
+        }
+    }
+
+    /**
+     * Normalizes every element. Unlike {@link vec3#normalize()} vectors which
+     * are (almost) zero are left unchanged instead of failing the whole batch.
+     */
+    public Vec3Array normalize() {
+        for (int i = 0, n = mSize * COMPONENTS; i < n; i += COMPONENTS) {
+            final float x = mData[i + 0], y = mData[i + 1], z = mData[i + 2];
+            final double len = Math.sqrt(x*x + y*y + z*z);
+
+            if (len < vec3.SMALL_EPSILON) {
+                continue;
+            }
+
+            final float inv = (float)(1.0 / len);
+            mData[i + 0] = x * inv;
+            mData[i + 1] = y * inv;
+            mData[i + 2] = z * inv;
+        }
+        return this;
+    }
+
+    /**
+     * Transforms all elements as points (w = 1) by a column-major 4x4 matrix,
+     * as used by {@link android.opengl.Matrix}. The projective part is ignored.
+     */
+    public Vec3Array transformPoints(final float[] m, int offset) {
+        return transform(m, offset, 1.0f);
+    }
+
+    /**
+     * Transforms all elements as directions (w = 0) by a column-major 4x4
+     * matrix, i.e. the translation is ignored.
+     */
+    public Vec3Array transformDirections(final float[] m, int offset) {
+        return transform(m, offset, 0.0f);
+    }
+
+    private Vec3Array transform(final float[] m, int o, float w) {
+        final float m00 = m[o + 0], m10 = m[o + 1], m20 = m[o + 2];
+        final float m01 = m[o + 4], m11 = m[o + 5], m21 = m[o + 6];
+        final float m02 = m[o + 8], m12 = m[o + 9], m22 = m[o + 10];
+        final float tx = m[o + 12] * w, ty = m[o + 13] * w, tz = m[o + 14] * w;
+
+        for (int i = 0, n = mSize * COMPONENTS; i < n; i += COMPONENTS) {
+            final float x = mData[i + 0], y = mData[i + 1], z = mData[i + 2];
+
+            mData[i + 0] = m00*x + m01*y + m02*z + tx;
+            mData[i + 1] = m10*x + m11*y + m12*z + ty;
+            mData[i + 2] = m20*x + m21*y + m22*z + tz;
+        }
+        return this;
+    }
+}
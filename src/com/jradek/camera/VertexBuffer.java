@@ -0,0 +1,66 @@
+package com.jradek.camera;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import android.opengl.GLES20;
+
+/**
+ * Buffer object holding vertex attributes.
+ */
+public class VertexBuffer extends BufferObject {
+    /**
+     * Creates the buffer and uploads the data.
+     * @param gl the GL to use
+     * @param data vertex data, uploaded from 0 to limit
+     * @param usage expected update frequency
+     */
+    public VertexBuffer(GlApi gl, FloatBuffer data, Usage usage) {
+        super(gl, GLES20.GL_ARRAY_BUFFER, usage);
+        upload(data, data.limit() * Util.BYTES_PER_FLOAT);
+        unbind();
+    }
+
+    /**
+     * Creates the buffer and uploads vertex data in native byte order, e.g.
+     * straight from a mapped file.
+     * @param gl the GL to use
+     * @param data vertex data, uploaded from 0 to limit
+     * @param usage expected update frequency
+     */
+    public VertexBuffer(GlApi gl, ByteBuffer data, Usage usage) {
+        super(gl, GLES20.GL_ARRAY_BUFFER, usage);
+        upload(data, data.limit());
+        unbind();
+    }
+
+    /**
+     * Replaces the content, growing the buffer if necessary.
+     */
+    public void setData(FloatBuffer data) {
+        upload(data, data.limit() * Util.BYTES_PER_FLOAT);
+        unbind();
+    }
+
+    /**
+     * Replaces the content starting at a vertex offset.
+     * @param offset offset in floats
+     * @param data data from 0 to limit is uploaded
+     */
+    public void setSubData(int offset, FloatBuffer data) {
+        update(offset * Util.BYTES_PER_FLOAT, data, data.limit() * Util.BYTES_PER_FLOAT);
+        unbind();
+    }
+
+    /**
+     * Binds the buffer and points a float attribute into it.
+     * @param attribute attribute location
+     * @param size number of components
+     * @param stride distance between two vertices in bytes, 0 if packed
+     * @param offset offset of the first component in bytes
+     */
+    public void setAttribPointer(int attribute, int size, int stride, int offset) {
+        bind();
+        mGl.glVertexAttribPointer(attribute, size, GLES20.GL_FLOAT, false, stride, offset);
+    }
+}
@@ -0,0 +1,265 @@
+package com.jradek.camera;
+
+/**
+ * Reorders triangles for the post-transform vertex cache, following Tom
+ * Forsyth's "Linear-Speed Vertex Cache Optimisation": triangles are emitted
+ * greedily, preferring those whose vertices are in a simulated LRU cache
+ * and those whose vertices have few triangles left.
+ *
+ * Meant to run when a mesh is converted, not at load time. Free of GL, so
+ * it runs on the device as well as on the command line.
+ */
+final class VertexCacheOptimizer {
+    /** size of the simulated cache, larger than most hardware caches */
+    static final int CACHE_SIZE = 32;
+
+    private static final float CACHE_DECAY_POWER = 1.5f;
+    private static final float LAST_TRIANGLE_SCORE = 0.75f;
+    private static final float VALENCE_BOOST_SCALE = 2.0f;
+    private static final float VALENCE_BOOST_POWER = 0.5f;
+    /** valences above share the score of this one */
+    private static final int MAX_VALENCE = 64;
+
+    private static final float[] CACHE_SCORES = new float[CACHE_SIZE];
+    private static final float[] VALENCE_SCORES = new float[MAX_VALENCE + 1];
+
+    static {
+        for (int i = 0; i < CACHE_SIZE; ++i) {
+            if (i < 3) {
+                // the last triangle's vertices, fixed so its neighbors are not preferred too much
+                CACHE_SCORES[i] = LAST_TRIANGLE_SCORE;
+            } else {
+                CACHE_SCORES[i] = (float) Math.pow(1.0 - (i - 3) / (double) (CACHE_SIZE - 3),
+                        CACHE_DECAY_POWER);
+            }
+        }
+        for (int i = 1; i <= MAX_VALENCE; ++i) {
+            VALENCE_SCORES[i] = VALENCE_BOOST_SCALE * (float) Math.pow(i, -VALENCE_BOOST_POWER);
+        }
+    }
+
+    private VertexCacheOptimizer() {
+    }
+
+    private static float score(int cachePosition, int valence) {
+        final float score = VALENCE_SCORES[Math.min(valence, MAX_VALENCE)];
+        return cachePosition < 0 ? score : score + CACHE_SCORES[cachePosition];
+    }
+
+    /**
+     * Reorders a range of triangles in place.
+     * @param indices triangle indices
+     * @param first first index of the range
+     * @param count number of indices of the range, a multiple of 3
+     * @param numVertices number of vertices indexed
+     */
+    static void optimize(int[] indices, int first, int count, int numVertices) {
+        final int numTriangles = count / 3;
+        if (numTriangles < 2) {
+            return;
+        }
+
+        // triangles of every vertex, as ranges of one array; the range of a
+        // vertex shrinks to its triangles not emitted yet
+        final int[] valence = new int[numVertices];
+        for (int i = first; i < first + numTriangles * 3; ++i) {
+            ++valence[indices[i]];
+        }
+        final int[] adjacencyStart = new int[numVertices + 1];
+        for (int v = 0; v < numVertices; ++v) {
+            adjacencyStart[v + 1] = adjacencyStart[v] + valence[v];
+        }
+        final int[] adjacency = new int[numTriangles * 3];
+        java.util.Arrays.fill(valence, 0);
+        for (int t = 0; t < numTriangles; ++t) {
+            for (int k = 0; k < 3; ++k) {
+                final int v = indices[first + t * 3 + k];
+                adjacency[adjacencyStart[v] + valence[v]++] = t;
+            }
+        }
+
+        final int[] cachePosition = new int[numVertices];
+        final float[] vertexScore = new float[numVertices];
+        java.util.Arrays.fill(cachePosition, -1);
+        for (int v = 0; v < numVertices; ++v) {
+            vertexScore[v] = score(-1, valence[v]);
+        }
+
+        final float[] triangleScore = new float[numTriangles];
+        final boolean[] emitted = new boolean[numTriangles];
+        int best = 0;
+        for (int t = 0; t < numTriangles; ++t) {
+            final int i = first + t * 3;
+            triangleScore[t] = vertexScore[indices[i]] + vertexScore[indices[i + 1]] + vertexScore[indices[i + 2]];
+            if (triangleScore[t] > triangleScore[best]) {
+                best = t;
+            }
+        }
+
+        // the cache takes the 3 new vertices before the oldest ones drop out
+        int[] cache = new int[CACHE_SIZE + 3];
+        int[] newCache = new int[CACHE_SIZE + 3];
+        int cacheSize = 0;
+
+        final int[] output = new int[numTriangles * 3];
+        int nextUnemitted = 0;
+
+        for (int n = 0; n < numTriangles; ++n) {
+            if (best < 0) {
+                // nothing in the cache has triangles left, continue anywhere
+                while (emitted[nextUnemitted]) {
+                    ++nextUnemitted;
+                }
+                best = nextUnemitted;
+            }
+
+            final int t = best;
+            emitted[t] = true;
+
+            int newCacheSize = 0;
+            for (int k = 0; k < 3; ++k) {
+                final int v = indices[first + t * 3 + k];
+                output[n * 3 + k] = v;
+
+                // detach the triangle from the vertex
+                final int start = adjacencyStart[v];
+                final int last = start + --valence[v];
+                for (int a = start; a <= last; ++a) {
+                    if (adjacency[a] == t) {
+                        adjacency[a] = adjacency[last];
+                        break;
+                    }
+                }
+
+                if (!contains(newCache, newCacheSize, v)) {
+                    newCache[newCacheSize++] = v;
+                }
+            }
+            final int numTriangleVertices = newCacheSize;
+            for (int i = 0; i < cacheSize; ++i) {
+                if (!contains(newCache, numTriangleVertices, cache[i])) {
+                    newCache[newCacheSize++] = cache[i];
+                }
+            }
+
+            // vertices dropping out of the cache
+            for (int i = CACHE_SIZE; i < newCacheSize; ++i) {
+                final int v = newCache[i];
+                cachePosition[v] = -1;
+                updateScore(v, -1, valence, adjacencyStart, adjacency, vertexScore, triangleScore);
+            }
+
+            final int[] swap = cache;
+            cache = newCache;
+            newCache = swap;
+            cacheSize = Math.min(newCacheSize, CACHE_SIZE);
+
+            for (int i = 0; i < cacheSize; ++i) {
+                cachePosition[cache[i]] = i;
+                updateScore(cache[i], i, valence, adjacencyStart, adjacency, vertexScore, triangleScore);
+            }
+
+            // the best triangle left is one using a cached vertex, except at
+            // the start of a new cluster
+            best = -1;
+            float bestScore = -1.0f;
+            for (int i = 0; i < cacheSize; ++i) {
+                final int v = cache[i];
+                for (int a = adjacencyStart[v]; a < adjacencyStart[v] + valence[v]; ++a) {
+                    final int candidate = adjacency[a];
+                    if (triangleScore[candidate] > bestScore) {
+                        bestScore = triangleScore[candidate];
+                        best = candidate;
+                    }
+                }
+            }
+        }
+
+        System.arraycopy(output, 0, indices, first, numTriangles * 3);
+    }
+
+    private static boolean contains(final int[] array, int count, int value) {
+        for (int i = 0; i < count; ++i) {
+            if (array[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void updateScore(int v, int cachePosition, final int[] valence, final int[] adjacencyStart,
+            final int[] adjacency, float[] vertexScore, float[] triangleScore) {
+        if (valence[v] == 0) {
+            return;
+        }
+
+        final float score = score(cachePosition, valence[v]);
+        final float delta = score - vertexScore[v];
+        vertexScore[v] = score;
+
+        for (int a = adjacencyStart[v]; a < adjacencyStart[v] + valence[v]; ++a) {
+            triangleScore[adjacency[a]] += delta;
+        }
+    }
+
+    /**
+     * Renumbers the vertices in the order the indices first use them, so
+     * vertex fetches follow the optimized triangle order. Unused vertices
+     * move to the end.
+     * @param indices indices, renumbered
+     * @param numIndices number of indices
+     * @param vertices vertex data, reordered
+     * @param floatsPerVertex number of floats of a vertex
+     * @param numVertices number of vertices
+     */
+    static void reorderVertices(int[] indices, int numIndices, float[] vertices, int floatsPerVertex,
+            int numVertices) {
+        final int[] remap = new int[numVertices];
+        java.util.Arrays.fill(remap, -1);
+
+        int next = 0;
+        for (int i = 0; i < numIndices; ++i) {
+            final int v = indices[i];
+            if (remap[v] < 0) {
+                remap[v] = next++;
+            }
+            indices[i] = remap[v];
+        }
+        for (int v = 0; v < numVertices; ++v) {
+            if (remap[v] < 0) {
+                remap[v] = next++;
+            }
+        }
+
+        final float[] reordered = new float[numVertices * floatsPerVertex];
+        for (int v = 0; v < numVertices; ++v) {
+            System.arraycopy(vertices, v * floatsPerVertex, reordered, remap[v] * floatsPerVertex, floatsPerVertex);
+        }
+        System.arraycopy(reordered, 0, vertices, 0, reordered.length);
+    }
+
+    /**
+     * Simulates a FIFO cache, as most GPUs have.
+     * @return average cache misses per triangle, between 0.5 for ideal
+     * large meshes and 3
+     */
+    static float getAverageCacheMissRatio(final int[] indices, int first, int count, int cacheSize) {
+        if (count < 3) {
+            return 0.0f;
+        }
+
+        final int[] fifo = new int[cacheSize];
+        java.util.Arrays.fill(fifo, -1);
+        int head = 0;
+        int misses = 0;
+
+        for (int i = first; i < first + count; ++i) {
+            if (!contains(fifo, cacheSize, indices[i])) {
+                fifo[head] = indices[i];
+                head = (head + 1) % cacheSize;
+                ++misses;
+            }
+        }
+        return misses / (float) (count / 3);
+    }
+}
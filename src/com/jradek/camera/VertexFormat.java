@@ -0,0 +1,79 @@
+package com.jradek.camera;
+
+import android.opengl.GLES20;
+
+/**
+ * Layout of the positions in a vertex buffer: floats, or normalized shorts
+ * which take half the memory and bandwidth. Normalized positions are in
+ * [-1, 1] and mapped to object coordinates by the model matrix, see
+ * {@link PositionQuantizer}.
+ */
+public class VertexFormat {
+    /** x, y, z floats, packed */
+    public static final VertexFormat FLOAT3 = new VertexFormat(3, GLES20.GL_FLOAT, false, 0);
+    /** x, y, z normalized shorts, padded to 8 bytes */
+    public static final VertexFormat SHORT3 = new VertexFormat(3, GLES20.GL_SHORT, true, 8);
+
+    private static final VertexFormat[] FLOATS = {
+            null,
+            new VertexFormat(1, GLES20.GL_FLOAT, false, 0),
+            new VertexFormat(2, GLES20.GL_FLOAT, false, 0),
+            FLOAT3,
+            new VertexFormat(4, GLES20.GL_FLOAT, false, 0) };
+
+    private final int mSize;
+    private final int mType;
+    private final boolean mNormalized;
+    private final int mStride;
+
+    /**
+     * @param size number of position components
+     * @param type component type, e.g. GL_FLOAT or GL_SHORT
+     * @param normalized whether integer components are mapped to [-1, 1]
+     * @param stride distance between two vertices in bytes, 0 if packed
+     */
+    public VertexFormat(int size, int type, boolean normalized, int stride) {
+        mSize = size;
+        mType = type;
+        mNormalized = normalized;
+        mStride = stride;
+    }
+
+    /**
+     * @param size number of components, 1 to 4
+     * @return format of packed float positions
+     */
+    public static VertexFormat floats(int size) {
+        return FLOATS[size];
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    public boolean isNormalized() {
+        return mNormalized;
+    }
+
+    public int getStride() {
+        return mStride;
+    }
+
+    /**
+     * @return whether positions have to be mapped by a {@link PositionQuantizer}
+     */
+    public boolean isQuantized() {
+        return mType != GLES20.GL_FLOAT;
+    }
+
+    /**
+     * Records pointing an attribute at the positions of the bound buffer.
+     */
+    public CommandBuffer attribPointer(CommandBuffer commands, int location) {
+        return commands.attribPointer(location, mSize, mType, mNormalized, mStride, 0);
+    }
+}
@@ -0,0 +1,193 @@
+package com.jradek.camera;
+
+import android.opengl.GLES20;
+
+/**
+ * A rectangle of the surface which shows the scene through one camera.
+ *
+ * The rectangle is given relative to the surface size, so it follows size
+ * changes. Every viewport keeps its own view projection matrix and frustum,
+ * everything else is shared by all viewports of a frame.
+ */
+public class Viewport {
+    private final Camera mCamera;
+
+    // relative to the surface, in [0, 1]
+    private final float mLeft;
+    private final float mBottom;
+    private final float mWidth;
+    private final float mHeight;
+
+    // in pixels
+    private int mPixelX;
+    private int mPixelY;
+    private int mPixelWidth = 1;
+    private int mPixelHeight = 1;
+    private int mSurfaceHeight = 1;
+
+    private final float[] mViewProjectionMatrix = new float[16];
+    private final Frustum mFrustum = new Frustum();
+
+    // of the matrices drawn with, for levels of detail
+    private final float[] mEyePosition = new float[3];
+    /** projection[5], i.e. 1 / tan(fovy / 2) */
+    private float mProjectionScaleY = 1.0f;
+    private final float[] mHelpMatrix = new float[16];
+
+    /** incremented whenever the view projection matrix changes */
+    private int mVersion = 0;
+    /** camera version the matrix was taken from, -1 if set directly */
+    private int mCameraVersion = -1;
+
+    private final float[] mClearColor = { 0.0f, 0.0f, 0.0f, 0.0f };
+
+    /**
+     * @param camera the camera to look through
+     * @param left left edge, relative to the surface width
+     * @param bottom bottom edge, relative to the surface height
+     * @param width width, relative to the surface width
+     * @param height height, relative to the surface height
+     */
+    public Viewport(Camera camera, float left, float bottom, float width, float height) {
+        mCamera = camera;
+        mLeft = left;
+        mBottom = bottom;
+        mWidth = width;
+        mHeight = height;
+        Matrix4f.setIdentity(mViewProjectionMatrix, 0);
+    }
+
+    public Camera getCamera() {
+        return mCamera;
+    }
+
+    public Viewport setClearColor(float red, float green, float blue, float alpha) {
+        mClearColor[0] = red;
+        mClearColor[1] = green;
+        mClearColor[2] = blue;
+        mClearColor[3] = alpha;
+        return this;
+    }
+
+    /**
+     * Updates the pixel rectangle.
+     */
+    public void setSurfaceSize(int width, int height) {
+        mPixelX = Math.round(mLeft * width);
+        mPixelY = Math.round(mBottom * height);
+        mPixelWidth = Math.max(1, Math.round(mWidth * width));
+        mPixelHeight = Math.max(1, Math.round(mHeight * height));
+        mSurfaceHeight = height;
+    }
+
+    /**
+     * @param x surface x in pixels
+     * @param y surface y in pixels, from the top as for touch events
+     */
+    public boolean contains(float x, float y) {
+        final float fromBottom = mSurfaceHeight - y;
+        return x >= mPixelX && x < mPixelX + mPixelWidth
+                && fromBottom >= mPixelY && fromBottom < mPixelY + mPixelHeight;
+    }
+
+    /**
+     * Sets a ray through a point of the surface.
+     * @param x surface x in pixels
+     * @param y surface y in pixels, from the top as for touch events
+     * @param inverseViewProjection inverse of the view projection matrix
+     * the viewport was drawn with
+     */
+    public Ray getRay(float x, float y, final float[] inverseViewProjection, int offset, Ray dest) {
+        final float ndcX = (x - mPixelX) / mPixelWidth * 2.0f - 1.0f;
+        final float ndcY = (mSurfaceHeight - y - mPixelY) / mPixelHeight * 2.0f - 1.0f;
+        return dest.unproject(inverseViewProjection, offset, ndcX, ndcY);
+    }
+
+    public int getPixelHeight() {
+        return mPixelHeight;
+    }
+
+    public float getAspectRatio() {
+        return mPixelWidth / (float) mPixelHeight;
+    }
+
+    /**
+     * Takes the view projection matrix of the camera and extracts the frustum
+     * from it. Does nothing if the camera did not change since.
+     */
+    public void update() {
+        final int cameraVersion = mCamera.getVersion();
+        if (cameraVersion == mCameraVersion) {
+            return;
+        }
+
+        System.arraycopy(mCamera.getViewProjectionMatrix(), 0, mViewProjectionMatrix, 0, 16);
+        mFrustum.set(mViewProjectionMatrix, 0);
+        setEye(mCamera.getProjectionMatrix(), mCamera.getViewMatrix());
+        mCameraVersion = cameraVersion;
+        ++mVersion;
+    }
+
+    /**
+     * Sets projection * view directly, e.g. for an interpolated or replayed
+     * camera, and extracts the frustum from it. Expects a perspective
+     * projection and an affine view matrix.
+     */
+    public void setViewProjection(final float[] projectionMatrix, final float[] viewMatrix) {
+        Matrix4f.multiplyPerspectiveAffine(mViewProjectionMatrix, 0, projectionMatrix, 0, viewMatrix, 0);
+        mFrustum.set(mViewProjectionMatrix, 0);
+        setEye(projectionMatrix, viewMatrix);
+        mCameraVersion = -1;
+        ++mVersion;
+    }
+
+    private void setEye(final float[] projectionMatrix, final float[] viewMatrix) {
+        // the eye is the translation of the inverse view
+        Matrix4f.invertRigid(mHelpMatrix, 0, viewMatrix, 0);
+        System.arraycopy(mHelpMatrix, 12, mEyePosition, 0, 3);
+        mProjectionScaleY = projectionMatrix[5];
+    }
+
+    /**
+     * @return x, y, z of the eye the view projection matrix looks from
+     */
+    public float[] getEyePosition() {
+        return mEyePosition;
+    }
+
+    /**
+     * @return pixels covered by one unit at distance one, with the
+     * projection the view projection matrix was made of
+     */
+    public float getPixelsPerUnit() {
+        return mPixelHeight * mProjectionScaleY * 0.5f;
+    }
+
+    /**
+     * @return a number which changes whenever the view projection matrix
+     * changes, i.e. per view results can be reused as long as it stays the same
+     */
+    public int getVersion() {
+        return mVersion;
+    }
+
+    public float[] getViewProjectionMatrix() {
+        return mViewProjectionMatrix;
+    }
+
+    public Frustum getFrustum() {
+        return mFrustum;
+    }
+
+    /**
+     * Restricts drawing to the viewport and clears it. Expects
+     * GL_SCISSOR_TEST to be enabled.
+     */
+    public void begin(GlApi gl) {
+        gl.glViewport(mPixelX, mPixelY, mPixelWidth, mPixelHeight);
+        gl.glScissor(mPixelX, mPixelY, mPixelWidth, mPixelHeight);
+
+        gl.glClearColor(mClearColor[0], mClearColor[1], mClearColor[2], mClearColor[3]);
+        gl.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+    }
+}
@@ -0,0 +1,173 @@
+package com.jradek.camera;
+
+/**
+ * Quaternion (x, y, z, w) with w being the real part. Used to represent
+ * orientations, in which case it is expected to be of unit length.
+ */
+public class quat {
+    public double x;
+    public double y;
+    public double z;
+    public double w;
+
+    /**
+     * Constructs the identity rotation.
+     */
+    public quat() {
+        this(0, 0, 0, 1);
+    }
+
+    public quat(double x, double y, double z, double w) {
+        set(x, y, z, w);
+    }
+
+    public quat set(double x, double y, double z, double w) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.w = w;
+        return this;
+    }
+
+    public quat set(final quat other) {
+        return set(other.x, other.y, other.z, other.w);
+    }
+
+    public quat setIdentity() {
+        return set(0, 0, 0, 1);
+    }
+
+    @Override
+    public quat clone() {
+        return new quat(x, y, z, w);
+    }
+
+    /**
+     * Sets this quaternion to a rotation around an axis.
+     * @param angleRadian rotation angle (counter-clockwise)
+     * @param ax x of the rotation axis, which has to be of unit length
+     * @param ay y of the rotation axis
+     * @param az z of the rotation axis
+     */
+    public quat setAxisAngle(double angleRadian, double ax, double ay, double az) {
+        final double s = Math.sin(angleRadian * 0.5);
+        return set(ax * s, ay * s, az * s, Math.cos(angleRadian * 0.5));
+    }
+
+    /**
+     * Sets this quaternion to the rotation which maps the x, y and z axis
+     * onto the given vectors. The vectors have to be orthonormal and form
+     * a right-handed system.
+     */
+    public quat setFromAxes(final vec3 xAxis, final vec3 yAxis, final vec3 zAxis) {
+        final double m00 = xAxis.x, m01 = yAxis.x, m02 = zAxis.x;
+        final double m10 = xAxis.y, m11 = yAxis.y, m12 = zAxis.y;
+        final double m20 = xAxis.z, m21 = yAxis.z, m22 = zAxis.z;
+
+        final double trace = m00 + m11 + m22;
+
+        if (trace > 0) {
+            final double s = 0.5 / Math.sqrt(trace + 1.0);
+            return set((m21 - m12) * s, (m02 - m20) * s, (m10 - m01) * s, 0.25 / s);
+        } else if (m00 > m11 && m00 > m22) {
+            final double s = 2.0 * Math.sqrt(1.0 + m00 - m11 - m22);
+            return set(0.25 * s, (m01 + m10) / s, (m02 + m20) / s, (m21 - m12) / s);
+        } else if (m11 > m22) {
+            final double s = 2.0 * Math.sqrt(1.0 + m11 - m00 - m22);
+            return set((m01 + m10) / s, 0.25 * s, (m12 + m21) / s, (m02 - m20) / s);
+        } else {
+            final double s = 2.0 * Math.sqrt(1.0 + m22 - m00 - m11);
+            return set((m02 + m20) / s, (m12 + m21) / s, 0.25 * s, (m10 - m01) / s);
+        }
+    }
+
+    /**
+     * this = this * rhs, i.e. rhs is applied first.
+     */
+    public quat multiply(final quat rhs) {
+        final double nx = w*rhs.x + x*rhs.w + y*rhs.z - z*rhs.y;
+        final double ny = w*rhs.y - x*rhs.z + y*rhs.w + z*rhs.x;
+        final double nz = w*rhs.z + x*rhs.y - y*rhs.x + z*rhs.w;
+        final double nw = w*rhs.w - x*rhs.x - y*rhs.y - z*rhs.z;
+        return set(nx, ny, nz, nw);
+    }
+
+    public double dot(final quat rhs) {
+        return x*rhs.x + y*rhs.y + z*rhs.z + w*rhs.w;
+    }
+
+    public double length() {
+        return Math.sqrt(x*x + y*y + z*z + w*w);
+    }
+
+    public quat normalize() {
+        double len = length();
+        if(Math.abs(len) < vec3.SMALL_EPSILON) throw new java.lang.Error();
+
+        final double inv = 1.0 / len;
+        x *= inv;
+        y *= inv;
+        z *= inv;
+        w *= inv;
+        return this;
+    }
+
+    /**
+     * Spherical linear interpolation between this and other, stored in this.
+     * Takes the shorter arc.
+     * @param other the target rotation
+     * @param t interpolation parameter in [0, 1]
+     */
+    public quat slerp(final quat other, double t) {
+        double ox = other.x, oy = other.y, oz = other.z, ow = other.w;
+        double cosTheta = dot(other);
+
+        if (cosTheta < 0) {
+            cosTheta = -cosTheta;
+            ox = -ox; oy = -oy; oz = -oz; ow = -ow;
+        }
+
+        double s0 = 1.0 - t;
+        double s1 = t;
+
+        // fall back to linear interpolation for (almost) identical rotations
+        if (cosTheta < 0.9995) {
+            final double theta = Math.acos(cosTheta);
+            final double invSin = 1.0 / Math.sin(theta);
+            s0 = Math.sin(s0 * theta) * invSin;
+            s1 = Math.sin(s1 * theta) * invSin;
+        }
+
+        set(s0*x + s1*ox, s0*y + s1*oy, s0*z + s1*oz, s0*w + s1*ow);
+        return normalize();
+    }
+
+    /**
+     * Writes the images of the x, y and z axis under this rotation, i.e. the
+     * columns of the corresponding rotation matrix. Expects a unit quaternion.
+     * Any of the destinations may be null.
+     */
+    public void getAxes(vec3 xAxis, vec3 yAxis, vec3 zAxis) {
+        final double xx = x*x, yy = y*y, zz = z*z;
+        final double xy = x*y, xz = x*z, yz = y*z;
+        final double wx = w*x, wy = w*y, wz = w*z;
+
+        if (xAxis != null) {
+            xAxis.x = 1 - 2*(yy + zz);
+            xAxis.y = 2*(xy + wz);
+            xAxis.z = 2*(xz - wy);
+        }
+
+        if (yAxis != null) {
+            yAxis.x = 2*(xy - wz);
+            yAxis.y = 1 - 2*(xx + zz);
+            yAxis.z = 2*(yz + wx);
+        }
+
+        if (zAxis != null) {
+            zAxis.x = 2*(xz + wy);
+            zAxis.y = 2*(yz - wx);
+            zAxis.z = 1 - 2*(xx + yy);
+        }
+    }
+}